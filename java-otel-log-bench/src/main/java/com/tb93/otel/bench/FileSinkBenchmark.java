@@ -0,0 +1,123 @@
+package com.tb93.otel.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tb93.otel.batteries.BatchingFileAppender;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.util.FileSize;
+import net.logstash.logback.encoder.LogstashEncoder;
+
+/*
+ * Throughput of the model 2 file sink alone: logback's FileAppender (write + flush per
+ * event under a lock) against BatchingFileAppender (group commit), writing the same
+ * LogstashEncoder output to a temp directory
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FileSinkBenchmark {
+
+    public enum Sink {
+        FILE_APPENDER, BATCHING, BATCHING_FSYNC
+    }
+
+    @State(org.openjdk.jmh.annotations.Scope.Benchmark)
+    public static class FileSink {
+        @Param({ "FILE_APPENDER", "BATCHING", "BATCHING_FSYNC" })
+        public Sink sink;
+
+        private Path directory;
+        private LoggerContext loggerContext;
+        private Appender<ILoggingEvent> appender;
+        private LoggingEvent event;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("file-sink-bench");
+            loggerContext = new LoggerContext();
+
+            LogstashEncoder encoder = new LogstashEncoder();
+            encoder.setContext(loggerContext);
+            encoder.start();
+
+            String file = directory.resolve("otel.log").toString();
+            if (sink == Sink.FILE_APPENDER) {
+                FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
+                fileAppender.setFile(file);
+                fileAppender.setEncoder(encoder);
+                appender = fileAppender;
+            } else {
+                BatchingFileAppender<ILoggingEvent> batchingAppender = new BatchingFileAppender<>();
+                batchingAppender.setFile(file);
+                batchingAppender.setEncoder(encoder);
+                batchingAppender.setFsync(sink == Sink.BATCHING_FSYNC);
+                // keep disk usage bounded over a long run
+                batchingAppender.setMaxFileSize(new FileSize(64 * FileSize.MB_COEFFICIENT));
+                batchingAppender.setMaxHistory(1);
+                appender = batchingAppender;
+            }
+            appender.setContext(loggerContext);
+            appender.setName("otel-file");
+            appender.start();
+
+            event = new LoggingEvent(FileSinkBenchmark.class.getName(),
+                    loggerContext.getLogger("bench"), ch.qos.logback.classic.Level.INFO,
+                    "log message without span", null, null);
+            // encoders would otherwise resolve it on every event
+            event.prepareForDeferredProcessing();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            appender.stop();
+            loggerContext.stop();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        void append() {
+            appender.doAppend(event);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public void singleThread(FileSink fileSink) {
+        fileSink.append();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(4)
+    public void contended(FileSink fileSink) {
+        fileSink.append();
+    }
+}
@@ -0,0 +1,188 @@
+package com.tb93.otel.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.slf4j.LoggerFactory;
+
+import com.tb93.otel.batteries.AddBaggageLogProcessor;
+import com.tb93.otel.batteries.AddBaggageSpanProcessor;
+import com.tb93.otel.batteries.CallerDataAppender;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.joran.spi.JoranException;
+import io.opentelemetry.api.baggage.Baggage;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.logs.GlobalLoggerProvider;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.logs.SdkLoggerProvider;
+import io.opentelemetry.sdk.logs.export.BatchLogRecordProcessor;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+
+/*
+ * One logging pipeline under test: the OTel SDK as wired by App.initializeOpenTelemetry
+ * (with no-op exporters) plus one of the logback.xml models (with null sinks)
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class LoggingPipeline {
+
+    public enum Model {
+        NONE("model0-none.xml"),
+        OTLP("model1-otlp.xml"),
+        OTLP_DIRECT("model1-otlp-direct.xml"),
+        OTEL_FILE("model2-otel-file.xml"),
+        OTEL_FILE_ASYNC("model2-otel-file-async.xml"),
+        OTEL_JSON_FILE("model2-otel-json-file.xml"),
+        ELASTIC_FILE("model3-elastic-file.xml"),
+        ALL("all-models.xml"),
+        ALL_SHARED("all-models-shared.xml");
+
+        final String config;
+
+        Model(String config) {
+            this.config = config;
+        }
+    }
+
+    // mirrors the doFunction variations in App.main
+    public enum Variant {
+        PLAIN, SPAN, KEY_VALUE, EXCEPTION, BAGGAGE
+    }
+
+    @Param({ "NONE", "OTLP", "OTLP_DIRECT", "OTEL_FILE", "OTEL_FILE_ASYNC", "OTEL_JSON_FILE", "ELASTIC_FILE", "ALL", "ALL_SHARED" })
+    public Model model;
+
+    @Param({ "PLAIN", "SPAN", "KEY_VALUE", "EXCEPTION", "BAGGAGE" })
+    public Variant variant;
+
+    // install CallerDataAppender ahead of the model, as logback.xml does
+    @Param({ "true" })
+    public boolean callSiteCallerData;
+
+    private SdkLoggerProvider sdkLoggerProvider;
+    private SdkTracerProvider sdkTracerProvider;
+    private NullOtlpReceiver otlpReceiver;
+    private Tracer tracer;
+    private org.slf4j.Logger slf4jLogger;
+    private Throwable exception;
+    private Baggage baggage;
+    private Attributes spanAttributes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JoranException, IOException {
+        Resource resource = Resource.getDefault().merge(Resource.create(
+                Attributes.of(ResourceAttributes.SERVICE_NAME, "bench")));
+
+        sdkTracerProvider = SdkTracerProvider.builder()
+                .setResource(resource).setSampler(Sampler.alwaysOn())
+                .addSpanProcessor(new AddBaggageSpanProcessor())
+                .addSpanProcessor(BatchSpanProcessor.builder(new NoopSpanExporter()).build())
+                .build();
+        tracer = sdkTracerProvider.get("bench");
+
+        sdkLoggerProvider = SdkLoggerProvider.builder()
+                .setResource(resource)
+                .addLogRecordProcessor(new AddBaggageLogProcessor())
+                .addLogRecordProcessor(BatchLogRecordProcessor.builder(new NoopLogRecordExporter()).build())
+                .build();
+        GlobalLoggerProvider.resetForTest();
+        GlobalLoggerProvider.set(sdkLoggerProvider);
+
+        // OtlpProtobufAppender sends to ${bench.otlp.endpoint}
+        otlpReceiver = new NullOtlpReceiver();
+        System.setProperty("bench.otlp.endpoint", otlpReceiver.getEndpoint());
+
+        // swap the startup config for the model under test
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        loggerContext.reset();
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(loggerContext);
+        configurator.doConfigure(LoggingPipeline.class.getClassLoader().getResource(model.config));
+        if (callSiteCallerData) {
+            prependCallerDataAppender(loggerContext);
+        }
+
+        slf4jLogger = LoggerFactory.getLogger("bench");
+        exception = new Exception("error!");
+        baggage = Baggage.builder().put("session_id", "8533424871035394717").build();
+        spanAttributes = Attributes.of(AttributeKey.stringKey("user_id"), "2093482093480293");
+    }
+
+    private static void prependCallerDataAppender(LoggerContext loggerContext) {
+        Logger root = loggerContext.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        List<Appender<ILoggingEvent>> appenders = new ArrayList<>();
+        root.iteratorForAppenders().forEachRemaining(appenders::add);
+        appenders.forEach(root::detachAppender);
+
+        CallerDataAppender callerDataAppender = new CallerDataAppender();
+        callerDataAppender.setContext(loggerContext);
+        callerDataAppender.setName("caller-data");
+        callerDataAppender.start();
+        root.addAppender(callerDataAppender);
+        appenders.forEach(root::addAppender);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+        sdkLoggerProvider.shutdown().join(10, TimeUnit.SECONDS);
+        sdkTracerProvider.shutdown().join(10, TimeUnit.SECONDS);
+        otlpReceiver.close();
+        GlobalLoggerProvider.resetForTest();
+    }
+
+    // emit one event for the configured variant, as App.doFunction does
+    public void log() {
+        switch (variant) {
+            case SPAN:
+                logInSpan();
+                break;
+            case KEY_VALUE:
+                slf4jLogger.atInfo().setMessage("log message with key/value")
+                        .addKeyValue("someKey", Long.valueOf(93)).log();
+                break;
+            case EXCEPTION:
+                slf4jLogger.atWarn().addArgument(exception)
+                        .setMessage("log message with exception").log();
+                break;
+            case BAGGAGE:
+                try (Scope scope = baggage.makeCurrent()) {
+                    slf4jLogger.atInfo().setMessage("log message with baggage").log();
+                }
+                break;
+            default:
+                slf4jLogger.atInfo().setMessage("log message without span").log();
+                break;
+        }
+    }
+
+    private void logInSpan() {
+        Span span = tracer.spanBuilder("func").startSpan();
+        span.setAllAttributes(spanAttributes);
+        try (Scope scope = span.makeCurrent()) {
+            slf4jLogger.atInfo().setMessage("log message with span").log();
+            span.setStatus(StatusCode.OK);
+        } finally {
+            span.end();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.tb93.otel.bench;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.logs.export.LogRecordExporter;
+import java.util.Collection;
+
+// accepts and discards log batches so model 1 runs without a collector
+public class NoopLogRecordExporter implements LogRecordExporter {
+
+    @Override
+    public CompletableResultCode export(Collection<LogRecordData> logs) {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
+}
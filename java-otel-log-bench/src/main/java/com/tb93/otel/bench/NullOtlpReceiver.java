@@ -0,0 +1,39 @@
+package com.tb93.otel.bench;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/*
+ * Loopback OTLP/HTTP endpoint that accepts and discards every request,
+ * standing in for the collector of the OtlpProtobufAppender so model 1 direct runs offline
+ */
+public class NullOtlpReceiver implements AutoCloseable {
+
+    private final HttpServer server;
+
+    public NullOtlpReceiver() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.transferTo(OutputStream.nullOutputStream());
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    // base URL for the appender's <endpoint>
+    public String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,17 @@
+package com.tb93.otel.bench;
+
+import ch.qos.logback.core.OutputStreamAppender;
+import java.io.OutputStream;
+
+/*
+ * OutputStreamAppender that encodes every event but discards the bytes,
+ * standing in for the FileAppenders of models 2 and 3 so benchmarks run without disk I/O
+ */
+public class NullOutputStreamAppender<E> extends OutputStreamAppender<E> {
+
+    @Override
+    public void start() {
+        setOutputStream(OutputStream.nullOutputStream());
+        super.start();
+    }
+}
@@ -1,5 +1,8 @@
 package com.tb93.otel;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 import java.util.random.RandomGenerator;
 
 import org.slf4j.LoggerFactory;
@@ -7,6 +10,16 @@ import org.slf4j.spi.LoggingEventBuilder;
 
 import com.tb93.otel.batteries.AddBaggageLogProcessor;
 import com.tb93.otel.batteries.AddBaggageSpanProcessor;
+import com.tb93.otel.batteries.BaggageAttributeConverter;
+import com.tb93.otel.batteries.BurstCollapsingLogRecordProcessor;
+import com.tb93.otel.batteries.CardinalityLimiter;
+import com.tb93.otel.batteries.ExceptionRenderingSpanExporter;
+import com.tb93.otel.batteries.LogMetricsProcessor;
+import com.tb93.otel.batteries.LoggingTelemetry;
+import com.tb93.otel.batteries.PersistentExportQueue;
+import com.tb93.otel.batteries.SamplingLogRecordProcessor;
+import com.tb93.otel.batteries.SpanEventLogProcessor;
+import com.tb93.otel.batteries.StackTraceRenderer;
 
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.logs.GlobalLoggerProvider;
@@ -18,10 +31,13 @@ import io.opentelemetry.context.Context;
 import io.opentelemetry.context.Scope;
 import io.opentelemetry.exporter.otlp.logs.OtlpGrpcLogRecordExporter;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
 import io.opentelemetry.sdk.logs.SdkLoggerProvider;
 import io.opentelemetry.sdk.logs.export.BatchLogRecordProcessor;
+import io.opentelemetry.sdk.logs.export.LogRecordExporter;
 import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
 import io.opentelemetry.sdk.trace.samplers.Sampler;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
 import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
@@ -29,8 +45,8 @@ import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
 import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
-import io.opentelemetry.api.common.AttributesBuilder;
 import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
 import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
 import io.opentelemetry.api.baggage.Baggage;
 
@@ -42,6 +58,32 @@ public class App {
 
         private static final org.slf4j.Logger slf4jLogger = LoggerFactory.getLogger(SERVICE_NAME);
 
+        // baggage keys to copy onto logs, spans and metrics (comma separated; default all)
+        private static final BaggageAttributeConverter baggageAttributeConverter = BaggageAttributeConverter
+                        .builder()
+                        .setKeyLists(System.getenv("BAGGAGE_ATTRIBUTES_ALLOW"),
+                                        System.getenv("BAGGAGE_ATTRIBUTES_DENY"))
+                        .build();
+
+        // fraction of new traces to sample (default all)
+        private static final double TRACES_SAMPLE_RATIO = parseDouble(System.getenv("OTEL_TRACES_SAMPLER_ARG"), 1.0);
+        // OTLP log records per second per logger below WARN (default unlimited)
+        private static final double LOG_RATE_LIMIT = parseDouble(System.getenv("LOG_RATE_LIMIT"), 0);
+        // FULL (default) or FIRST_OCCURRENCE: full span exception stack traces only once per fingerprint per minute
+        private static final StackTraceRenderer spanStackTraceRenderer = StackTraceRenderer.builder()
+                        .setMode("FIRST_OCCURRENCE".equalsIgnoreCase(System.getenv("EXCEPTION_STACKTRACE_MODE"))
+                                        ? StackTraceRenderer.Mode.FIRST_OCCURRENCE
+                                        : StackTraceRenderer.Mode.FULL)
+                        .build();
+        // true: count key/value log records in the some_key histogram instead of exporting them
+        private static final boolean LOG_METRICS_SUPPRESS = Boolean.parseBoolean(System.getenv("LOG_METRICS_SUPPRESS"));
+        // true: logs below WARN inside a recording span are exported as events of that span, not as log records
+        private static final boolean LOGS_AS_SPAN_EVENTS = Boolean.parseBoolean(System.getenv("LOGS_AS_SPAN_EVENTS"));
+        // milliseconds to collapse repeats of an OTLP log record into one repeat.count summary (default 0: off)
+        private static final long LOG_BURST_WINDOW = (long) parseDouble(System.getenv("LOG_BURST_WINDOW"), 0);
+        // directory for the on-disk OTLP export queue of logs and spans (default none: in-memory batches only)
+        private static final String EXPORT_QUEUE_DIR = System.getenv("EXPORT_QUEUE_DIR");
+
         public static void main(String[] args) {
                 System.out.println("Startup");
 
@@ -49,37 +91,42 @@ public class App {
                         // Initialize OpenTelemetry as early as possible
                         initializeOpenTelemetry();
 
+                        // load mode: drive the variations below from many threads and report
+                        LoadGenerator.Config loadConfig = LoadGenerator.Config.from(args, System.getenv());
+                        if (loadConfig != null) {
+                                new LoadGenerator(loadConfig).run(App::doVariant, App::flush);
+                                System.exit(0);
+                        }
+
                         // loop around outputting various log signal variations
                         while (true) {
                                 try {
                                         // sleep a bit on each loop
                                         Thread.sleep(10 * 1000);
 
-                                        // create some baggage with a session_id context
-                                        Baggage.current().toBuilder()
-                                                        .put("session_id", Long
-                                                                        .toString(RandomGenerator.getDefault()
-                                                                                        .nextLong()))
-                                                        .build().makeCurrent();
-
-                                        // create some attributes for spans and span events
-                                        Attributes attributes = Attributes.of(AttributeKey.stringKey("user_id"),
-                                                        Long.toString(RandomGenerator.getDefault().nextLong()));
-
-                                        doFunction("log message without span", false, false, false, false,
-                                                        null);
-                                        doFunction("log message with span", false, true, false, false,
-                                                        attributes);
-                                        doFunction("log message with span and event", false, true, false,
-                                                        true, attributes);
-                                        doFunction("log message with span and event and key/value", true, true, false,
-                                                        true, attributes);
-                                        doFunction("log message with key/value", true, false, false, false,
-                                                        null);
-                                        doFunction("log message with exception", false, false, true, false,
-                                                        null);
-                                        doFunction("log message with span and exception", false, true, true,
-                                                        false, attributes);
+                                        // create some baggage with a session_id context (for this iteration only)
+                                        Scope baggageScope = makeSessionBaggage().makeCurrent();
+                                        try {
+                                                // create some attributes for spans and span events
+                                                Attributes attributes = makeUserAttributes();
+
+                                                doFunction("log message without span", false, false, false, false,
+                                                                null);
+                                                doFunction("log message with span", false, true, false, false,
+                                                                attributes);
+                                                doFunction("log message with span and event", false, true, false,
+                                                                true, attributes);
+                                                doFunction("log message with span and event and key/value", true, true,
+                                                                false, true, attributes);
+                                                doFunction("log message with key/value", true, false, false, false,
+                                                                null);
+                                                doFunction("log message with exception", false, false, true, false,
+                                                                null);
+                                                doFunction("log message with span and exception", false, true, true,
+                                                                false, attributes);
+                                        } finally {
+                                                baggageScope.close();
+                                        }
 
                                 } catch (Exception e) {
                                         System.out.println(e);
@@ -91,43 +138,152 @@ public class App {
                 }
         }
 
+        private static Baggage makeSessionBaggage() {
+                return Baggage.current().toBuilder()
+                                .put("session_id", Long.toString(RandomGenerator.getDefault().nextLong()))
+                                .build();
+        }
+
+        private static Attributes makeUserAttributes() {
+                return Attributes.of(AttributeKey.stringKey("user_id"),
+                                Long.toString(RandomGenerator.getDefault().nextLong()));
+        }
+
+        // one load mode call; the same variations as the demo loop
+        private static void doVariant(LoadGenerator.Variant variant) {
+                switch (variant) {
+                        case SPAN:
+                                doFunction("log message with span", false, true, false, false, makeUserAttributes());
+                                break;
+                        case EVENT:
+                                doFunction("log message with span and event", false, true, false, true,
+                                                makeUserAttributes());
+                                break;
+                        case KEY_VALUE:
+                                doFunction("log message with key/value", true, false, false, false, null);
+                                break;
+                        case EXCEPTION:
+                                doFunction("log message with exception", false, false, true, false, null);
+                                break;
+                        case BAGGAGE:
+                                Scope baggageScope = makeSessionBaggage().makeCurrent();
+                                try {
+                                        doFunction("log message with baggage", false, false, false, false, null);
+                                } finally {
+                                        baggageScope.close();
+                                }
+                                break;
+                        default:
+                                doFunction("log message without span", false, false, false, false, null);
+                                break;
+                }
+        }
+
+        // push out everything the load produced so the dropped counts are final
+        private static void flush() {
+                openTelemetrySdk.getSdkTracerProvider().forceFlush().join(10, TimeUnit.SECONDS);
+                openTelemetrySdk.getSdkLoggerProvider().forceFlush().join(10, TimeUnit.SECONDS);
+        }
+
         private static void initializeOpenTelemetry() {
 
                 // set service name on all OTel signals
                 Resource resource = Resource.getDefault().merge(Resource.create(
                                 Attributes.of(ResourceAttributes.SERVICE_NAME, SERVICE_NAME)));
 
+                // init OTel meter provider with export to OTLP
+                // created first so the logging pipeline can report on itself through it
+                SdkMeterProvider sdkMeterProvider = LoggingTelemetry.registerViews(SdkMeterProvider.builder())
+                                .setResource(resource)
+                                .registerMetricReader(PeriodicMetricReader.builder(
+                                                OtlpGrpcMetricExporter.builder().setEndpoint(System
+                                                                .getenv("OTEL_EXPORTER_OTLP_ENDPOINT"))
+                                                                .build())
+                                                .build())
+                                // in-process reader for the load report's dropped counts
+                                .registerMetricReader(LoadGenerator.SDK_DROPS.reader())
+                                .build();
+                // logging.* metrics of the appenders (already started by logback) and processors
+                LoggingTelemetry.getGlobal().install(sdkMeterProvider);
+
+                // export logs and spans through a write-ahead queue on disk, so they survive collector outages
+                SpanExporter spanExporter;
+                LogRecordExporter logRecordExporter;
+                if (EXPORT_QUEUE_DIR != null && !EXPORT_QUEUE_DIR.isBlank()) {
+                        spanQueue = PersistentExportQueue.builder(Paths.get(EXPORT_QUEUE_DIR, "spans"),
+                                        PersistentExportQueue.Signal.SPANS)
+                                        .setEndpoint(System.getenv("OTEL_EXPORTER_OTLP_ENDPOINT"))
+                                        .build();
+                        logQueue = PersistentExportQueue.builder(Paths.get(EXPORT_QUEUE_DIR, "logs"),
+                                        PersistentExportQueue.Signal.LOGS)
+                                        .setEndpoint(System.getenv("OTEL_EXPORTER_OTLP_ENDPOINT"))
+                                        .build();
+                        spanExporter = spanQueue.asSpanExporter();
+                        logRecordExporter = logQueue.asLogRecordExporter();
+                } else {
+                        spanExporter = LoggingTelemetry.getGlobal().timed(OtlpGrpcSpanExporter.builder()
+                                        .setEndpoint(System.getenv("OTEL_EXPORTER_OTLP_ENDPOINT"))
+                                        .setMeterProvider(sdkMeterProvider)
+                                        .build(), "spans");
+                        logRecordExporter = LoggingTelemetry.getGlobal().timed(OtlpGrpcLogRecordExporter.builder()
+                                        .setEndpoint(System.getenv("OTEL_EXPORTER_OTLP_ENDPOINT"))
+                                        .setMeterProvider(sdkMeterProvider)
+                                        .build(), "logs");
+                }
+
+                // drop logs of unsampled traces and rate limit the rest before export
+                logSampler = SamplingLogRecordProcessor.builder(BatchLogRecordProcessor.builder(
+                                logRecordExporter).setMeterProvider(sdkMeterProvider).build())
+                                .setRateLimit(LOG_RATE_LIMIT, (int) Math.ceil(LOG_RATE_LIMIT))
+                                .build();
+                LogRecordProcessor logPipeline = logSampler;
+
                 // init OTel trace provider with export to OTLP
-                SdkTracerProvider sdkTracerProvider = SdkTracerProvider.builder()
-                                .setResource(resource).setSampler(Sampler.alwaysOn())
+                SdkTracerProviderBuilder sdkTracerProviderBuilder = SdkTracerProvider.builder()
+                                .setResource(resource)
+                                .setSampler(Sampler.parentBased(Sampler.traceIdRatioBased(TRACES_SAMPLE_RATIO)))
                                 // add span processor to add baggage as span attributes
-                                .addSpanProcessor(new AddBaggageSpanProcessor())
-                                .addSpanProcessor(BatchSpanProcessor.builder(OtlpGrpcSpanExporter
-                                                .builder()
-                                                .setEndpoint(System.getenv(
-                                                                "OTEL_EXPORTER_OTLP_ENDPOINT"))
-                                                .build()).build())
+                                .addSpanProcessor(new AddBaggageSpanProcessor(baggageAttributeConverter));
+                if (LOGS_AS_SPAN_EVENTS) {
+                        // attach in-span logs to their span (up to 32 per span) instead of exporting them twice
+                        spanEventLogs = SpanEventLogProcessor.builder(logSampler).build();
+                        sdkTracerProviderBuilder.addSpanProcessor(spanEventLogs.asSpanProcessor());
+                        logPipeline = spanEventLogs;
+                }
+                if (LOG_BURST_WINDOW > 0) {
+                        // metrics below still count the collapsed repeats through repeat.count
+                        logPipeline = BurstCollapsingLogRecordProcessor.builder(logPipeline)
+                                        .setWindow(Duration.ofMillis(LOG_BURST_WINDOW))
+                                        .build();
+                }
+                SdkTracerProvider sdkTracerProvider = sdkTracerProviderBuilder
+                                // render recorded exceptions once per fingerprint (adds exception.fingerprint)
+                                .addSpanProcessor(BatchSpanProcessor.builder(new ExceptionRenderingSpanExporter(
+                                                spanExporter, spanStackTraceRenderer))
+                                                .setMeterProvider(sdkMeterProvider)
+                                                .build())
+                                .build();
+
+                // count the app's log records (before sampling) by exception type; a label set is
+                // built once per combination, and log_records.cardinality_rejected reports recordings
+                // folded into the overflow set
+                logMetrics = LogMetricsProcessor.builder(logPipeline, sdkMeterProvider.get(SERVICE_NAME))
+                                .addRule(LogMetricsProcessor.counter("log_records")
+                                                .setDescription("Log records of the app logger")
+                                                .setLogger(SERVICE_NAME)
+                                                .addLabelKeys("exception.type"))
+                                .addRule(LogMetricsProcessor.histogram("some_key", "someKey")
+                                                .setDescription("someKey of key/value log records")
+                                                .setLogger(SERVICE_NAME)
+                                                .setSuppress(LOG_METRICS_SUPPRESS))
                                 .build();
 
                 // init OTel logger provider with export to OTLP
                 SdkLoggerProvider sdkLoggerProvider = SdkLoggerProvider.builder()
                                 .setResource(resource)
                                 // add log record processor to add baggage as log attributes
-                                .addLogRecordProcessor(new AddBaggageLogProcessor())
-                                .addLogRecordProcessor(BatchLogRecordProcessor.builder(
-                                                OtlpGrpcLogRecordExporter.builder().setEndpoint(
-                                                                System.getenv("OTEL_EXPORTER_OTLP_ENDPOINT"))
-                                                                .build())
-                                                .build())
-                                .build();
-
-                // init OTel meter provider with export to OTLP
-                SdkMeterProvider sdkMeterProvider = SdkMeterProvider.builder().setResource(resource)
-                                .registerMetricReader(PeriodicMetricReader.builder(
-                                                OtlpGrpcMetricExporter.builder().setEndpoint(System
-                                                                .getenv("OTEL_EXPORTER_OTLP_ENDPOINT"))
-                                                                .build())
-                                                .build())
+                                .addLogRecordProcessor(new AddBaggageLogProcessor(baggageAttributeConverter))
+                                .addLogRecordProcessor(logMetrics)
                                 .build();
 
                 // create sdk object and set it as global
@@ -139,6 +295,7 @@ public class App {
                                                 .create(W3CTraceContextPropagator.getInstance()))
                                 .build();
                 GlobalOpenTelemetry.set(sdk);
+                openTelemetrySdk = sdk;
                 // connect logger
                 GlobalLoggerProvider.set(sdk.getSdkLoggerProvider());
                 // Add hook to close SDK, which flushes logs
@@ -147,24 +304,38 @@ public class App {
                 // Get or creates a named meter instance
                 Meter meter = sdk.meterBuilder(SERVICE_NAME).build();
                 // Build counter e.g. LongCounter
-                requestCount = meter.counterBuilder("request_count").setDescription("Requests")
-                                .setUnit("1").build();
+                // cap distinct attribute sets so baggage dimensions can't explode cardinality
+                requestCountLimiter = new CardinalityLimiter(REQUEST_COUNT_MAX_ATTRIBUTE_SETS);
+                requestCount = CardinalityLimiter.limit(
+                                meter.counterBuilder("request_count").setDescription("Requests")
+                                                .setUnit("1").build(),
+                                requestCountLimiter);
+                // report how many recordings were folded into the overflow set
+                meter.counterBuilder("request_count.cardinality_rejected")
+                                .setDescription("request_count recordings folded into otel.metric.overflow")
+                                .setUnit("1")
+                                .buildWithCallback(measurement -> measurement
+                                                .record(requestCountLimiter.getRejectedCount()));
         }
 
+        private static final int REQUEST_COUNT_MAX_ATTRIBUTE_SETS = 100;
+
+        static OpenTelemetrySdk openTelemetrySdk;
+        static SamplingLogRecordProcessor logSampler;
+        static LogMetricsProcessor logMetrics;
+        static SpanEventLogProcessor spanEventLogs;
+        static PersistentExportQueue spanQueue;
+        static PersistentExportQueue logQueue;
+
         static LongCounter requestCount;
+        static CardinalityLimiter requestCountLimiter;
 
         // copy baggage to attributes for metrics
         // be careful: you can quickly explode the cardinality of metrics when you attach dynamic attributes
         // at the reporting interval for a counter, you will get N copies of the counter, where each copy has
-        // the same value, but different attributes.
+        // the same value, but different attributes (requestCount is capped by requestCountLimiter for this reason).
         public static Attributes makeAttributesFromBaggage(Context context) {
-                Baggage baggage = Baggage.fromContext(context);
-                AttributesBuilder attributesBuilder = Attributes.builder();
-                baggage.forEach((key, value) -> attributesBuilder.put(
-                                // add prefix to key to not override existing attributes
-                                "baggage." + key, value.getValue()));
-
-                return attributesBuilder.build();
+                return baggageAttributeConverter.convert(Baggage.fromContext(context));
         }
 
         private static void doFunction(String message, boolean withKeyValue, boolean withSpan,
@@ -194,8 +365,8 @@ public class App {
                 // log it (this records origin)
                 log.log();
 
-                // do not add dynamic attributes to avoid cardinality explosion
-                requestCount.add(1/*, makeAttributesFromBaggage(Context.current())*/);
+                // dynamic attributes are safe here: requestCount folds sets past its limit into an overflow set
+                requestCount.add(1, makeAttributesFromBaggage(Context.current()));
 
                 if (withSpan) {
                         try {
@@ -218,4 +389,14 @@ public class App {
                         scope.close();
                 }
         }
+
+        private static double parseDouble(String value, double defaultValue) {
+                if (value == null || value.isBlank())
+                        return defaultValue;
+                try {
+                        return Double.parseDouble(value.trim());
+                } catch (NumberFormatException e) {
+                        return defaultValue;
+                }
+        }
 }
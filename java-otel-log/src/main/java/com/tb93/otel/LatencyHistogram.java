@@ -0,0 +1,85 @@
+package com.tb93.otel;
+
+/*
+ * Log-linear latency histogram in the style of HdrHistogram
+ * Values up to 127 are counted exactly; above that each power of two is split into 64
+ * buckets, so any recorded value is reported within 1/64 (about 1.6%) of itself. Not thread
+ * safe: each load worker records into its own and they are merged for the report
+ */
+final class LatencyHistogram {
+        private static final int SUB_BUCKETS = 64;
+        private static final int SUB_BUCKET_BITS = 6;
+
+        private final long[] counts = new long[SUB_BUCKETS * (64 - SUB_BUCKET_BITS)];
+        private long totalCount;
+        private long min = Long.MAX_VALUE;
+        private long max;
+        private double sum;
+
+        void record(long value) {
+                if (value < 0)
+                        value = 0;
+                counts[index(value)]++;
+                totalCount++;
+                sum += value;
+                if (value < min)
+                        min = value;
+                if (value > max)
+                        max = value;
+        }
+
+        void add(LatencyHistogram other) {
+                for (int i = 0; i < counts.length; i++)
+                        counts[i] += other.counts[i];
+                totalCount += other.totalCount;
+                sum += other.sum;
+                min = Math.min(min, other.min);
+                max = Math.max(max, other.max);
+        }
+
+        long getTotalCount() {
+                return totalCount;
+        }
+
+        long getMin() {
+                return totalCount == 0 ? 0 : min;
+        }
+
+        long getMax() {
+                return max;
+        }
+
+        double getMean() {
+                return totalCount == 0 ? 0 : sum / totalCount;
+        }
+
+        /** @return the highest value equivalent to the value at percentile (0-100) */
+        long getValueAtPercentile(double percentile) {
+                if (totalCount == 0)
+                        return 0;
+                long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                        seen += counts[i];
+                        if (seen >= rank)
+                                return Math.min(max, highestEquivalentValue(i));
+                }
+                return max;
+        }
+
+        // values below 128 map to themselves; bucket b >= 1 holds [64 << b, 128 << b)
+        private static int index(long value) {
+                if (value < 2 * SUB_BUCKETS)
+                        return (int) value;
+                int bucket = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+                return SUB_BUCKETS * bucket + (int) (value >>> bucket);
+        }
+
+        private static long highestEquivalentValue(int index) {
+                if (index < 2 * SUB_BUCKETS)
+                        return index;
+                int bucket = index / SUB_BUCKETS - 1;
+                long subBucket = index - SUB_BUCKETS * bucket;
+                return ((subBucket + 1) << bucket) - 1;
+        }
+}
@@ -0,0 +1,392 @@
+package com.tb93.otel;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import com.tb93.otel.batteries.LoggingTelemetry;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.metrics.export.MetricReader;
+import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
+
+/*
+ * Load mode for App: drives the doFunction variations from many platform or virtual threads
+ * at a target rate (or flat out) for a fixed time and prints a sizing report
+ * Settings come from LOAD_* environment variables, overridden by name=value arguments:
+ * threads (0 = demo loop), threadType (platform | virtual), rate (events/s across all
+ * threads, 0 = unthrottled), duration and warmup (seconds) and mix (e.g. span:2,kv:1,baggage:1)
+ * With a rate, response time is measured from each call's scheduled start, so a backlog
+ * shows up in the percentiles instead of being hidden by the pacing
+ */
+final class LoadGenerator {
+        enum Variant {
+                PLAIN("plain"), SPAN("span"), EVENT("event"), KEY_VALUE("kv"), EXCEPTION("exception"),
+                BAGGAGE("baggage");
+
+                final String key;
+
+                Variant(String key) {
+                        this.key = key;
+                }
+        }
+
+        enum ThreadType {
+                PLATFORM, VIRTUAL
+        }
+
+        // queue-full drops of the SDK's BatchLogRecordProcessor and BatchSpanProcessor, which count
+        // them in processedLogs / processedSpans{dropped=true} on their meter, not in logging.dropped
+        static final SdkDrops SDK_DROPS = new SdkDrops();
+
+        static final class SdkDrops implements MetricExporter {
+                private static final AttributeKey<String> LOG_PROCESSOR_TYPE = AttributeKey
+                                .stringKey("logRecordProcessorType");
+                private static final AttributeKey<String> SPAN_PROCESSOR_TYPE = AttributeKey.stringKey("spanProcessorType");
+                private static final AttributeKey<Boolean> DROPPED = AttributeKey.booleanKey("dropped");
+
+                // processor type -> cumulative drops as of the last collection
+                private final Map<String, Long> totals = new ConcurrentHashMap<>();
+                // collects on demand only; the interval just keeps the scheduled collection out of the way
+                private final MetricReader reader = PeriodicMetricReader.builder(this).setInterval(Duration.ofDays(1))
+                                .build();
+
+                private SdkDrops() {
+                }
+
+                /** @return the reader to register with the SdkMeterProvider the batch processors report to */
+                MetricReader reader() {
+                        return reader;
+                }
+
+                private Map<String, Long> read() {
+                        reader.forceFlush().join(10, TimeUnit.SECONDS);
+                        return totals;
+                }
+
+                @Override
+                public CompletableResultCode export(Collection<MetricData> metrics) {
+                        for (MetricData metric : metrics) {
+                                AttributeKey<String> processorType;
+                                if (metric.getName().equals("processedLogs"))
+                                        processorType = LOG_PROCESSOR_TYPE;
+                                else if (metric.getName().equals("processedSpans"))
+                                        processorType = SPAN_PROCESSOR_TYPE;
+                                else
+                                        continue;
+                                for (LongPointData point : metric.getLongSumData().getPoints()) {
+                                        if (Boolean.TRUE.equals(point.getAttributes().get(DROPPED)))
+                                                totals.put(point.getAttributes().get(processorType), point.getValue());
+                                }
+                        }
+                        return CompletableResultCode.ofSuccess();
+                }
+
+                @Override
+                public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+                        return AggregationTemporality.CUMULATIVE;
+                }
+
+                @Override
+                public CompletableResultCode flush() {
+                        return CompletableResultCode.ofSuccess();
+                }
+
+                @Override
+                public CompletableResultCode shutdown() {
+                        return CompletableResultCode.ofSuccess();
+                }
+        }
+
+        static final class Config {
+                final int threads;
+                final ThreadType threadType;
+                final double rate;
+                final long durationNanos;
+                final long warmupNanos;
+                final String mix;
+                // variant per unit of weight, picked uniformly
+                final Variant[] weighted;
+
+                private Config(Map<String, String> settings) {
+                        threads = Integer.parseInt(settings.getOrDefault("threads", "0").trim());
+                        threadType = ThreadType.valueOf(
+                                        settings.getOrDefault("threadType", "platform").trim().toUpperCase(Locale.ROOT));
+                        rate = Double.parseDouble(settings.getOrDefault("rate", "0").trim());
+                        durationNanos = TimeUnit.SECONDS.toNanos(
+                                        Long.parseLong(settings.getOrDefault("duration", "60").trim()));
+                        warmupNanos = TimeUnit.SECONDS.toNanos(
+                                        Long.parseLong(settings.getOrDefault("warmup", "5").trim()));
+                        mix = settings.getOrDefault("mix", "plain:1,span:1,event:1,kv:1,exception:1,baggage:1");
+                        weighted = parseMix(mix);
+                }
+
+                /**
+                 * @return the load settings from LOAD_* environment variables and name=value
+                 *         arguments, or null to run the demo loop
+                 */
+                static Config from(String[] args, Map<String, String> env) {
+                        Map<String, String> settings = new TreeMap<>();
+                        for (String name : List.of("threads", "threadType", "rate", "duration", "warmup", "mix")) {
+                                String value = env.get("LOAD_" + name.replaceAll("([A-Z])", "_$1").toUpperCase(Locale.ROOT));
+                                if (value != null && !value.isBlank())
+                                        settings.put(name, value);
+                        }
+                        for (String arg : args) {
+                                int separator = arg.indexOf('=');
+                                if (separator > 0)
+                                        settings.put(arg.substring(0, separator).trim(), arg.substring(separator + 1));
+                        }
+                        Config config = new Config(settings);
+                        return config.threads > 0 ? config : null;
+                }
+
+                private static Variant[] parseMix(String mix) {
+                        List<Variant> weighted = new ArrayList<>();
+                        for (String entry : mix.split(",")) {
+                                if (entry.isBlank())
+                                        continue;
+                                String[] parts = entry.split(":");
+                                String key = parts[0].trim().toLowerCase(Locale.ROOT);
+                                int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+                                Variant variant = null;
+                                for (Variant candidate : Variant.values()) {
+                                        if (candidate.key.equals(key))
+                                                variant = candidate;
+                                }
+                                if (variant == null)
+                                        throw new IllegalArgumentException("Unknown variant in mix: " + key);
+                                for (int i = 0; i < weight; i++)
+                                        weighted.add(variant);
+                        }
+                        if (weighted.isEmpty())
+                                throw new IllegalArgumentException("Empty mix: " + mix);
+                        return weighted.toArray(new Variant[0]);
+                }
+        }
+
+        // what one worker measured inside the measurement window
+        private static final class WorkerResult {
+                final LatencyHistogram service = new LatencyHistogram();
+                final LatencyHistogram response = new LatencyHistogram();
+                long allocatedBytes;
+                long allocationSamples;
+                long failures;
+                RuntimeException firstFailure;
+        }
+
+        private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+
+        private final Config config;
+
+        LoadGenerator(Config config) {
+                this.config = config;
+        }
+
+        /**
+         * Runs the load and prints the report.
+         *
+         * @param operation One call of a variant, timed as a whole
+         * @param flush Flushes the pipeline before the final dropped counts are read
+         */
+        void run(Consumer<Variant> operation, Runnable flush) throws InterruptedException, ExecutionException {
+                ThreadType threadType = config.threadType;
+                ExecutorService executor = threadType == ThreadType.VIRTUAL ? newVirtualThreadPerTaskExecutor() : null;
+                if (executor == null) {
+                        if (threadType == ThreadType.VIRTUAL)
+                                System.out.println("Virtual threads need Java 21 or later, using platform threads");
+                        threadType = ThreadType.PLATFORM;
+                        AtomicInteger threadNumber = new AtomicInteger();
+                        executor = Executors.newFixedThreadPool(config.threads, runnable -> {
+                                Thread thread = new Thread(runnable, "load-" + threadNumber.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                        });
+                }
+                System.out.printf(Locale.ROOT, "Load: %d %s threads, %s, %d s (+%d s warmup), mix %s%n",
+                                config.threads, threadType.name().toLowerCase(Locale.ROOT),
+                                config.rate > 0 ? String.format(Locale.ROOT, "%.0f events/s", config.rate) : "unthrottled",
+                                TimeUnit.NANOSECONDS.toSeconds(config.durationNanos),
+                                TimeUnit.NANOSECONDS.toSeconds(config.warmupNanos), config.mix);
+
+                long start = System.nanoTime();
+                long measureStart = start + config.warmupNanos;
+                long end = measureStart + config.durationNanos;
+                long interval = config.rate > 0 ? (long) (1e9 / config.rate) : 0;
+                AtomicLong nextStart = new AtomicLong(start);
+                List<Callable<WorkerResult>> workers = new ArrayList<>();
+                for (int i = 0; i < config.threads; i++)
+                        workers.add(() -> work(operation, measureStart, end, interval, nextStart));
+                List<Future<WorkerResult>> futures = new ArrayList<>();
+                for (Callable<WorkerResult> worker : workers)
+                        futures.add(executor.submit(worker));
+
+                LockSupport.parkNanos(measureStart - System.nanoTime());
+                Map<String, long[]> gcBefore = gcTotals();
+                Map<String, Long> droppedBefore = dropped();
+
+                WorkerResult total = new WorkerResult();
+                for (Future<WorkerResult> future : futures) {
+                        WorkerResult result = future.get();
+                        total.service.add(result.service);
+                        total.response.add(result.response);
+                        total.allocatedBytes += result.allocatedBytes;
+                        total.allocationSamples += result.allocationSamples;
+                        total.failures += result.failures;
+                        if (total.firstFailure == null)
+                                total.firstFailure = result.firstFailure;
+                }
+                executor.shutdown();
+                double seconds = (Math.max(end, System.nanoTime()) - measureStart) / 1e9;
+                Map<String, long[]> gcAfter = gcTotals();
+                flush.run();
+                Map<String, Long> droppedAfter = dropped();
+
+                long events = total.service.getTotalCount();
+                System.out.printf(Locale.ROOT, "Throughput: %.0f events/s (%d events in %.1f s)%n",
+                                events / seconds, events, seconds);
+                System.out.println("Latency (us)       mean      p50      p90      p99    p99.9      max");
+                printLatency("service", total.service);
+                if (interval > 0)
+                        printLatency("response", total.response);
+                if (total.allocationSamples > 0)
+                        System.out.printf(Locale.ROOT, "Allocation: %d B/event (%.1f MB/s)%n",
+                                        total.allocatedBytes / total.allocationSamples,
+                                        total.allocatedBytes / (double) total.allocationSamples * events / seconds / 1e6);
+                else
+                        System.out.println("Allocation: not measurable on these threads");
+                for (Map.Entry<String, long[]> gc : gcAfter.entrySet()) {
+                        long[] before = gcBefore.getOrDefault(gc.getKey(), new long[2]);
+                        System.out.printf(Locale.ROOT, "GC %s: %d collections, %d ms%n", gc.getKey(),
+                                        gc.getValue()[0] - before[0], gc.getValue()[1] - before[1]);
+                }
+                long droppedTotal = 0;
+                for (Map.Entry<String, Long> dropped : droppedAfter.entrySet()) {
+                        long count = dropped.getValue() - droppedBefore.getOrDefault(dropped.getKey(), 0L);
+                        droppedTotal += count;
+                        if (count > 0)
+                                System.out.printf(Locale.ROOT, "Dropped %s: %d%n", dropped.getKey(), count);
+                }
+                System.out.printf(Locale.ROOT, "Dropped: %d records%n", droppedTotal);
+                System.out.printf(Locale.ROOT, "Failures: %d events%n", total.failures);
+                if (total.firstFailure != null)
+                        System.out.println("First failure: " + total.firstFailure);
+        }
+
+        private WorkerResult work(Consumer<Variant> operation, long measureStart, long end, long interval,
+                        AtomicLong nextStart) {
+                WorkerResult result = new WorkerResult();
+                Variant[] weighted = config.weighted;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (;;) {
+                        long scheduled;
+                        if (interval > 0) {
+                                scheduled = nextStart.getAndAdd(interval);
+                                if (scheduled >= end)
+                                        return result;
+                                for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled
+                                                - System.nanoTime())
+                                        LockSupport.parkNanos(wait);
+                        } else {
+                                scheduled = System.nanoTime();
+                                if (scheduled >= end)
+                                        return result;
+                        }
+                        Variant variant = weighted[random.nextInt(weighted.length)];
+                        long allocatedBefore = THREAD_MX_BEAN != null ? THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() : -1;
+                        long callStart = System.nanoTime();
+                        // counted, not printed: printing from every worker would be the load
+                        RuntimeException failure = null;
+                        try {
+                                operation.accept(variant);
+                        } catch (RuntimeException e) {
+                                failure = e;
+                        }
+                        long callEnd = System.nanoTime();
+                        long allocatedAfter = allocatedBefore >= 0 ? THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() : -1;
+                        if (scheduled < measureStart)
+                                continue;
+                        if (failure != null) {
+                                result.failures++;
+                                if (result.firstFailure == null)
+                                        result.firstFailure = failure;
+                        }
+                        result.service.record(callEnd - callStart);
+                        result.response.record(callEnd - scheduled);
+                        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                                result.allocatedBytes += allocatedAfter - allocatedBefore;
+                                result.allocationSamples++;
+                        }
+                }
+        }
+
+        private static void printLatency(String name, LatencyHistogram histogram) {
+                System.out.printf(Locale.ROOT, "  %-10s %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n", name,
+                                histogram.getMean() / 1e3,
+                                histogram.getValueAtPercentile(50) / 1e3,
+                                histogram.getValueAtPercentile(90) / 1e3,
+                                histogram.getValueAtPercentile(99) / 1e3,
+                                histogram.getValueAtPercentile(99.9) / 1e3,
+                                histogram.getMax() / 1e3);
+        }
+
+        // collector name -> {collections, milliseconds}
+        private static Map<String, long[]> gcTotals() {
+                Map<String, long[]> totals = new TreeMap<>();
+                for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+                        totals.put(gc.getName(), new long[] { gc.getCollectionCount(), gc.getCollectionTime() });
+                return totals;
+        }
+
+        // logging.dropped and the SDK batch processors' drops by component and reason
+        private static Map<String, Long> dropped() {
+                Map<String, Long> dropped = new TreeMap<>();
+                LoggingTelemetry.getGlobal().read(LoggingTelemetry.Metric.DROPPED, (attributes, value) -> dropped.merge(
+                                attributes.get(LoggingTelemetry.COMPONENT) + "/" + attributes.get(LoggingTelemetry.REASON),
+                                value, Long::sum));
+                SDK_DROPS.read().forEach((processorType, value) -> dropped.merge(processorType + "/queue_full", value,
+                                Long::sum));
+                return dropped;
+        }
+
+        // Executors.newVirtualThreadPerTaskExecutor() when running on Java 21+
+        private static ExecutorService newVirtualThreadPerTaskExecutor() {
+                try {
+                        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                        return null;
+                }
+        }
+
+        private static com.sun.management.ThreadMXBean threadMXBean() {
+                if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+                        return null;
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+                                .getThreadMXBean();
+                return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled() ? bean : null;
+        }
+}
@@ -2,20 +2,34 @@ package com.tb93.otel.batteries;
 
 import io.opentelemetry.api.baggage.Baggage;
 import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.context.Context;
 import io.opentelemetry.sdk.logs.LogRecordProcessor;
 import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
 
 public class AddBaggageLogProcessor implements LogRecordProcessor {
+    private final BaggageAttributeConverter converter;
+    private final LoggingTelemetry.Timer timer;
+
+    public AddBaggageLogProcessor() {
+        this(BaggageAttributeConverter.getDefault());
+    }
+
+    public AddBaggageLogProcessor(BaggageAttributeConverter converter) {
+        this.converter = converter;
+        this.timer = LoggingTelemetry.getGlobal().timer(LoggingTelemetry.Metric.BAGGAGE_DURATION,
+                Attributes.of(LoggingTelemetry.SIGNAL, "logs"));
+    }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+        long start = timer.start();
         // add baggage to log attributes
-        Baggage baggage = Baggage.fromContext(context);
-        baggage.forEach(
-                (key, value) -> logRecord.setAttribute(
-                        // add prefix to key to not override existing attributes
-                        AttributeKey.stringKey("baggage." + key),
-                        value.getValue()));
+        Attributes attributes = converter.convert(Baggage.fromContext(context));
+        // ReadWriteLogRecord has no bulk setter (yet); keys are already interned
+        attributes.forEach(
+                (key, value) -> logRecord.setAttribute((AttributeKey<Object>) key, value));
+        timer.stop(start);
     }
-}
\ No newline at end of file
+}
@@ -1,21 +1,35 @@
 package com.tb93.otel.batteries;
 
 import io.opentelemetry.api.baggage.Baggage;
+import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.context.Context;
 import io.opentelemetry.sdk.trace.ReadWriteSpan;
 import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 
 public class AddBaggageSpanProcessor implements SpanProcessor {
+    private final BaggageAttributeConverter converter;
+    private final LoggingTelemetry.Timer timer;
+
+    public AddBaggageSpanProcessor() {
+        this(BaggageAttributeConverter.getDefault());
+    }
+
+    public AddBaggageSpanProcessor(BaggageAttributeConverter converter) {
+        this.converter = converter;
+        this.timer = LoggingTelemetry.getGlobal().timer(LoggingTelemetry.Metric.BAGGAGE_DURATION,
+                Attributes.of(LoggingTelemetry.SIGNAL, "spans"));
+    }
+
     @Override
     public void onStart(Context context, ReadWriteSpan span) {
+        long start = timer.start();
         // add baggage to span attributes
-        Baggage baggage = Baggage.fromContext(context);
-        baggage.forEach(
-                (key, value) -> span.setAttribute(
-                        // add prefix to key to not override existing attributes
-                        "baggage." + key,
-                        value.getValue()));
+        Attributes attributes = converter.convert(Baggage.fromContext(context));
+        if (!attributes.isEmpty()) {
+            span.setAllAttributes(attributes);
+        }
+        timer.stop(start);
     }
 
     @Override
@@ -0,0 +1,110 @@
+package com.tb93.otel.batteries;
+
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.spi.ContextAware;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Single consumer draining one RingBuffer into one downstream appender on its own thread
+ * Producers enqueue from any thread; the worker parks briefly when the buffer runs dry
+ */
+final class AsyncWorker<E> implements Runnable {
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final RingBuffer<E> ring;
+  private final Appender<E> appender;
+  private final ContextAware owner;
+  private final Thread thread;
+
+  private volatile boolean running = true;
+  private volatile boolean parked;
+
+  AsyncWorker(RingBuffer<E> ring, Appender<E> appender, ContextAware owner, String name) {
+    this.ring = ring;
+    this.appender = appender;
+    this.owner = owner;
+    this.thread = new Thread(this, name);
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  Appender<E> getAppender() {
+    return appender;
+  }
+
+  RingBuffer<E> getRing() {
+    return ring;
+  }
+
+  boolean isRunning() {
+    return running;
+  }
+
+  /** @return false if the buffer is full */
+  boolean offer(E event) {
+    if (!ring.offer(event)) {
+      return false;
+    }
+    if (parked) {
+      LockSupport.unpark(thread);
+    }
+    return true;
+  }
+
+  // wake the consumer so a blocked producer can make progress
+  void signal() {
+    LockSupport.unpark(thread);
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      E event = ring.poll();
+      if (event != null) {
+        append(event);
+      } else {
+        parked = true;
+        if (running && ring.isEmpty()) {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        parked = false;
+      }
+    }
+    // drain whatever was queued before stop
+    E event;
+    while ((event = ring.poll()) != null) {
+      append(event);
+    }
+  }
+
+  private void append(E event) {
+    try {
+      appender.doAppend(event);
+    } catch (RuntimeException e) {
+      owner.addError("Appender [" + appender.getName() + "] failed to append.", e);
+    }
+  }
+
+  /**
+   * Stops accepting work and waits for the queue to drain.
+   *
+   * @return true if the worker drained within maxFlushTime
+   */
+  boolean stop(long maxFlushTime) {
+    running = false;
+    LockSupport.unpark(thread);
+    if (Thread.currentThread() == thread) {
+      return true;
+    }
+    try {
+      thread.join(maxFlushTime);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return !thread.isAlive();
+  }
+}
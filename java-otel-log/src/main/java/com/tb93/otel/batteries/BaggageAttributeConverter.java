@@ -0,0 +1,176 @@
+package com.tb93.otel.batteries;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.opentelemetry.api.baggage.Baggage;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+
+/*
+ * Converts baggage to "baggage.*" attributes for logs, spans and metrics
+ * Prefixed AttributeKeys are interned in a bounded map, and the converted Attributes are
+ * memoized per Baggage instance (baggage is immutable and usually shared by every record
+ * in a request), so a repeat conversion is a single lookup
+ */
+public final class BaggageAttributeConverter {
+    // add prefix to key to not override existing attributes
+    public static final String PREFIX = "baggage.";
+
+    public static final int DEFAULT_MAX_KEYS = 256;
+    public static final int DEFAULT_MAX_BAGGAGE = 64;
+
+    private static final BaggageAttributeConverter DEFAULT = builder().build();
+
+    private final Set<String> allowedKeys;
+    private final Set<String> deniedKeys;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, AttributeKey<String>> keys = new ConcurrentHashMap<>();
+    // direct-mapped, identity-keyed memo of the last conversions
+    private final AtomicReferenceArray<Converted> converted;
+    private final int convertedMask;
+
+    private BaggageAttributeConverter(Builder builder) {
+        this.allowedKeys = builder.allowedKeys;
+        this.deniedKeys = builder.deniedKeys;
+        this.maxKeys = builder.maxKeys;
+        int size = 1;
+        while (size < builder.maxBaggage) {
+            size <<= 1;
+        }
+        this.converted = new AtomicReferenceArray<>(size);
+        this.convertedMask = size - 1;
+    }
+
+    /** Shared converter with no allow/deny lists. */
+    public static BaggageAttributeConverter getDefault() {
+        return DEFAULT;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return baggage entries as prefixed string attributes, filtered by the allow/deny lists
+     */
+    public Attributes convert(Baggage baggage) {
+        if (baggage.isEmpty()) {
+            return Attributes.empty();
+        }
+        int index = System.identityHashCode(baggage) & convertedMask;
+        Converted entry = converted.get(index);
+        if (entry != null && entry.baggage == baggage) {
+            return entry.attributes;
+        }
+
+        AttributesBuilder attributesBuilder = Attributes.builder();
+        baggage.forEach((key, value) -> {
+            if (isIncluded(key)) {
+                attributesBuilder.put(attributeKey(key), value.getValue());
+            }
+        });
+        Attributes attributes = attributesBuilder.build();
+        converted.set(index, new Converted(baggage, attributes));
+        return attributes;
+    }
+
+    /**
+     * @return the interned "baggage." prefixed key for a baggage key
+     */
+    public AttributeKey<String> attributeKey(String baggageKey) {
+        AttributeKey<String> key = keys.get(baggageKey);
+        if (key != null) {
+            return key;
+        }
+        key = AttributeKey.stringKey(PREFIX + baggageKey);
+        // stop interning once full so hostile baggage can't grow the map
+        if (keys.size() < maxKeys) {
+            AttributeKey<String> existing = keys.putIfAbsent(baggageKey, key);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return key;
+    }
+
+    public boolean isIncluded(String baggageKey) {
+        if (allowedKeys != null && !allowedKeys.contains(baggageKey)) {
+            return false;
+        }
+        return !deniedKeys.contains(baggageKey);
+    }
+
+    private static final class Converted {
+        final Baggage baggage;
+        final Attributes attributes;
+
+        Converted(Baggage baggage, Attributes attributes) {
+            this.baggage = baggage;
+            this.attributes = attributes;
+        }
+    }
+
+    public static final class Builder {
+        private Set<String> allowedKeys;
+        private Set<String> deniedKeys = Collections.emptySet();
+        private int maxKeys = DEFAULT_MAX_KEYS;
+        private int maxBaggage = DEFAULT_MAX_BAGGAGE;
+
+        private Builder() {
+        }
+
+        /** Only convert these baggage keys (default: all). */
+        public Builder setAllowedKeys(Collection<String> allowedKeys) {
+            this.allowedKeys = Collections.unmodifiableSet(new HashSet<>(allowedKeys));
+            return this;
+        }
+
+        /** Never convert these baggage keys. */
+        public Builder setDeniedKeys(Collection<String> deniedKeys) {
+            this.deniedKeys = Collections.unmodifiableSet(new HashSet<>(deniedKeys));
+            return this;
+        }
+
+        /** Maximum number of distinct baggage keys to intern. */
+        public Builder setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+            return this;
+        }
+
+        /** Number of Baggage instances whose conversion is memoized. */
+        public Builder setMaxBaggage(int maxBaggage) {
+            this.maxBaggage = Math.max(1, maxBaggage);
+            return this;
+        }
+
+        /**
+         * Reads comma separated key lists, e.g. from BAGGAGE_ATTRIBUTES_ALLOW /
+         * BAGGAGE_ATTRIBUTES_DENY; null or blank leaves the list unset.
+         */
+        public Builder setKeyLists(String allowed, String denied) {
+            if (allowed != null && !allowed.isBlank()) {
+                setAllowedKeys(split(allowed));
+            }
+            if (denied != null && !denied.isBlank()) {
+                setDeniedKeys(split(denied));
+            }
+            return this;
+        }
+
+        private static Collection<String> split(String keys) {
+            return Arrays.stream(keys.split(",")).map(String::trim).filter(key -> !key.isEmpty())
+                    .toList();
+        }
+
+        public BaggageAttributeConverter build() {
+            return new BaggageAttributeConverter(this);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package com.tb93.otel.batteries;
+
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.FileSize;
+import io.opentelemetry.api.common.Attributes;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Drop-in replacement for FileAppender that writes in batches (group commit)
+ * Encoded events are copied into reusable direct buffers and written to a FileChannel with
+ * one gathering write once maxBatchEvents, maxBatchSize or maxBatchDelay is reached, with an
+ * optional fsync per batch. The file is rotated by rename (otel.log -> otel.log.1 -> ...),
+ * which the collector's filelog receiver and Filebeat both follow
+ */
+public class BatchingFileAppender<E> extends UnsynchronizedAppenderBase<E> {
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  private String file;
+  private Encoder<E> encoder;
+  private int maxBatchEvents = 256;
+  private FileSize maxBatchSize = new FileSize(256 * FileSize.KB_COEFFICIENT);
+  private int maxBatchDelay = 200;
+  private boolean fsync;
+  private FileSize maxFileSize;
+  private int maxHistory = 5;
+
+  // guards filling; held only while copying bytes in
+  private final ReentrantLock batchLock = new ReentrantLock();
+  // guards the channel and spare; held for the duration of a write
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private Batch filling;
+  private Batch spare;
+  private FileChannel channel;
+  private long fileLength;
+  private ScheduledFuture<?> flusher;
+  private Thread shutdownHook;
+  // the file was rotated away but could not be reopened; retried on every commit
+  private boolean reopenFailed;
+
+  private final LongAdder eventCount = new LongAdder();
+  private final LongAdder byteCount = new LongAdder();
+  private final LongAdder droppedCount = new LongAdder();
+  private LoggingTelemetry.Timer appendTimer;
+  private List<LoggingTelemetry.Registration> registrations = List.of();
+
+  /**
+   * Path of the log file. {@code <file>logs/otel.log</file>}
+   *
+   * @param file The file to append to; parent directories are created
+   */
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  public void setEncoder(Encoder<E> encoder) {
+    this.encoder = encoder;
+  }
+
+  public Encoder<E> getEncoder() {
+    return encoder;
+  }
+
+  /**
+   * Commit a batch once it holds this many events. Defaults to 256.
+   *
+   * @param maxBatchEvents Events per batch
+   */
+  public void setMaxBatchEvents(int maxBatchEvents) {
+    this.maxBatchEvents = maxBatchEvents;
+  }
+
+  /**
+   * Commit a batch once it holds this many bytes; also the size of each of the two
+   * preallocated batch buffers. Defaults to 256KB. {@code <maxBatchSize>1MB</maxBatchSize>}
+   *
+   * @param maxBatchSize Bytes per batch
+   */
+  public void setMaxBatchSize(FileSize maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Commit whatever is pending at least this often, in milliseconds. Defaults to 200.
+   *
+   * @param maxBatchDelay Upper bound on how long an event waits in memory
+   */
+  public void setMaxBatchDelay(int maxBatchDelay) {
+    this.maxBatchDelay = maxBatchDelay;
+  }
+
+  /**
+   * When set to true, every committed batch is forced to disk before the next one is written.
+   *
+   * @param fsync True to fsync each batch
+   */
+  public void setFsync(boolean fsync) {
+    this.fsync = fsync;
+  }
+
+  /**
+   * Rotate the file once it grows past this size; unset (default) never rotates.
+   * {@code <maxFileSize>100MB</maxFileSize>}
+   *
+   * @param maxFileSize Size that triggers rotation
+   */
+  public void setMaxFileSize(FileSize maxFileSize) {
+    this.maxFileSize = maxFileSize;
+  }
+
+  /**
+   * Number of rotated files (file.1 ... file.N) to keep. Defaults to 5.
+   *
+   * @param maxHistory Rotated files to keep
+   */
+  public void setMaxHistory(int maxHistory) {
+    this.maxHistory = maxHistory;
+  }
+
+  @Override
+  public void start() {
+    int errors = 0;
+    if (encoder == null) {
+      addError("No encoder set for the appender named [" + name + "].");
+      errors++;
+    }
+    if (file == null) {
+      addError("\"File\" property not set for appender named [" + name + "].");
+      errors++;
+    }
+    if (maxBatchEvents < 1 || maxBatchSize.getSize() < 1 || maxBatchDelay < 1) {
+      addError("Invalid batch limits for appender named [" + name + "].");
+      errors++;
+    }
+    if (maxFileSize != null && maxHistory < 1) {
+      addError("Invalid max history [" + maxHistory + "]");
+      errors++;
+    }
+    if (errors > 0) {
+      return;
+    }
+
+    int capacity = (int) Math.min(maxBatchSize.getSize(), Integer.MAX_VALUE - CHUNK_SIZE);
+    filling = new Batch(capacity);
+    spare = new Batch(capacity);
+    try {
+      open();
+    } catch (IOException e) {
+      addError("Failed to open file [" + file + "] for appender named [" + name + "].", e);
+      return;
+    }
+    flusher = getContext().getScheduledExecutorService().scheduleAtFixedRate(this::commit,
+        maxBatchDelay, maxBatchDelay, TimeUnit.MILLISECONDS);
+    LoggingTelemetry telemetry = LoggingTelemetry.getGlobal();
+    Attributes sink = Attributes.of(LoggingTelemetry.SINK, getName());
+    appendTimer = telemetry.timer(LoggingTelemetry.Metric.APPENDER_DURATION,
+        Attributes.of(LoggingTelemetry.APPENDER, getName()));
+    registrations = List.of(appendTimer,
+        telemetry.observe(LoggingTelemetry.Metric.SINK_EVENTS, sink, eventCount::sum),
+        telemetry.observe(LoggingTelemetry.Metric.SINK_BYTES, sink, byteCount::sum),
+        telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+            Attributes.of(LoggingTelemetry.COMPONENT, getName(), LoggingTelemetry.REASON, "write_failed"),
+            droppedCount::sum));
+    // flush on JVM exit even if logback's own shutdown hook isn't configured
+    shutdownHook = new Thread(this::commit, "BatchingFileAppender-Shutdown-" + getName());
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    flusher.cancel(false);
+    registrations.forEach(LoggingTelemetry.Registration::close);
+    registrations = List.of();
+    writeLock.lock();
+    try {
+      commitLocked();
+      if (channel != null) {
+        writeRaw(encoder.footerBytes());
+        channel.close();
+      }
+    } catch (IOException e) {
+      addError("Failed to close file [" + file + "].", e);
+    } finally {
+      writeLock.unlock();
+    }
+    if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // JVM is already shutting down
+      }
+    }
+    shutdownHook = null;
+  }
+
+  /**
+   * @return number of events written
+   */
+  public long getEventCount() {
+    return eventCount.sum();
+  }
+
+  /**
+   * @return number of encoded bytes written, headers and footers excluded
+   */
+  public long getByteCount() {
+    return byteCount.sum();
+  }
+
+  /**
+   * @return number of events discarded because the file could not be reopened after rotation
+   */
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  @Override
+  protected void append(E event) {
+    long start = appendTimer.start();
+    try {
+      write(event);
+    } finally {
+      appendTimer.stop(start);
+    }
+  }
+
+  private void write(E event) {
+    byte[] bytes = encoder.encode(event);
+    if (bytes == null || bytes.length == 0) {
+      return;
+    }
+    eventCount.increment();
+    byteCount.add(bytes.length);
+    if (bytes.length > filling.capacity) {
+      // never fits a batch; write it straight through, after anything already pending
+      writeLock.lock();
+      try {
+        commitLocked();
+        if (channel != null) {
+          writeBytes(bytes);
+        } else {
+          droppedCount.increment();
+        }
+      } catch (IOException e) {
+        addError("Failed to write to file [" + file + "].", e);
+      } finally {
+        writeLock.unlock();
+      }
+      return;
+    }
+
+    for (;;) {
+      boolean added;
+      batchLock.lock();
+      try {
+        added = filling.put(bytes);
+        if (added && filling.events < maxBatchEvents && filling.length < filling.capacity) {
+          return;
+        }
+      } finally {
+        batchLock.unlock();
+      }
+      // batch is full (or has no room for this event): the caller pays for the commit
+      commit();
+      if (added) {
+        return;
+      }
+    }
+  }
+
+  /** Writes out whatever is pending. */
+  public void commit() {
+    writeLock.lock();
+    try {
+      commitLocked();
+    } catch (IOException e) {
+      addError("Failed to write to file [" + file + "].", e);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void commitLocked() throws IOException {
+    if (channel == null && !reopen()) {
+      // discard rather than leave producers spinning on a full batch
+      batchLock.lock();
+      try {
+        droppedCount.add(filling.events);
+        filling.clear();
+      } finally {
+        batchLock.unlock();
+      }
+      return;
+    }
+    if (!channel.isOpen()) {
+      return;
+    }
+    Batch batch;
+    batchLock.lock();
+    try {
+      if (filling.events == 0) {
+        return;
+      }
+      // swap so producers keep filling while this batch is written
+      batch = filling;
+      filling = spare;
+      spare = batch;
+    } finally {
+      batchLock.unlock();
+    }
+    try {
+      batch.writeTo(channel);
+      fileLength += batch.length;
+      if (fsync) {
+        channel.force(false);
+      }
+    } finally {
+      batch.clear();
+    }
+    rotateIfNeeded();
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    if (bytes == null || bytes.length == 0) {
+      return;
+    }
+    writeRaw(bytes);
+    rotateIfNeeded();
+  }
+
+  // never rotates, so it is safe for headers and footers
+  private void writeRaw(byte[] bytes) throws IOException {
+    if (bytes == null || bytes.length == 0) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    fileLength += bytes.length;
+    if (fsync) {
+      channel.force(false);
+    }
+  }
+
+  private void open() throws IOException {
+    Path path = Path.of(file);
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    fileLength = channel.size();
+    if (fileLength == 0) {
+      writeRaw(encoder.headerBytes());
+    }
+  }
+
+  private boolean reopen() {
+    try {
+      open();
+    } catch (IOException e) {
+      channel = null;
+      if (!reopenFailed) {
+        reopenFailed = true;
+        addError("Failed to reopen file [" + file + "] after rotation, retrying on every commit.",
+            e);
+      }
+      return false;
+    }
+    if (reopenFailed) {
+      reopenFailed = false;
+      addInfo("Reopened file [" + file + "] after rotation.");
+    }
+    return true;
+  }
+
+  private void rotateIfNeeded() throws IOException {
+    if (maxFileSize == null || fileLength < maxFileSize.getSize()) {
+      return;
+    }
+    writeRaw(encoder.footerBytes());
+    channel.close();
+    channel = null;
+    try {
+      // rename rather than copy/truncate so tailers keep reading the old file to its end
+      Path path = Path.of(file);
+      Files.deleteIfExists(rotated(path, maxHistory));
+      for (int i = maxHistory - 1; i >= 1; i--) {
+        Path from = rotated(path, i);
+        if (Files.exists(from)) {
+          Files.move(from, rotated(path, i + 1), StandardCopyOption.ATOMIC_MOVE);
+        }
+      }
+      Files.move(path, rotated(path, 1), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // keep appending to the current file; rotation is tried again once it is reopened
+      addError("Failed to rotate file [" + file + "].", e);
+    }
+    reopen();
+  }
+
+  private static Path rotated(Path path, int index) {
+    return path.resolveSibling(path.getFileName() + "." + index);
+  }
+
+  /*
+   * Preallocated run of direct buffers filled back to back, so one batch can be written
+   * with a single gathering write
+   */
+  private static final class Batch {
+    final int capacity;
+    final ByteBuffer[] chunks;
+    int current;
+    int events;
+    int length;
+
+    Batch(int capacity) {
+      this.capacity = capacity;
+      int count = (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      chunks = new ByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+        chunks[i] = ByteBuffer.allocateDirect(Math.min(CHUNK_SIZE, capacity - i * CHUNK_SIZE));
+      }
+    }
+
+    /** @return false if the bytes don't fit */
+    boolean put(byte[] bytes) {
+      if (length + bytes.length > capacity) {
+        return false;
+      }
+      int offset = 0;
+      while (offset < bytes.length) {
+        ByteBuffer chunk = chunks[current];
+        int count = Math.min(chunk.remaining(), bytes.length - offset);
+        chunk.put(bytes, offset, count);
+        offset += count;
+        if (!chunk.hasRemaining() && current < chunks.length - 1) {
+          current++;
+        }
+      }
+      length += bytes.length;
+      events++;
+      return true;
+    }
+
+    void writeTo(FileChannel channel) throws IOException {
+      int used = current + 1;
+      for (int i = 0; i < used; i++) {
+        chunks[i].flip();
+      }
+      long remaining = length;
+      while (remaining > 0) {
+        remaining -= channel.write(chunks, 0, used);
+      }
+    }
+
+    void clear() {
+      for (int i = 0; i <= current; i++) {
+        chunks[i].clear();
+      }
+      current = 0;
+      events = 0;
+      length = 0;
+    }
+  }
+}
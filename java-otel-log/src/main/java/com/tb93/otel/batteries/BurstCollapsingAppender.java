@@ -0,0 +1,269 @@
+package com.tb93.otel.batteries;
+
+import ch.qos.logback.classic.spi.CallerData;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+/*
+ * Collapses bursts of the same event before they reach the attached appenders
+ * Events are fingerprinted by logger, level, message template and exception type; the first
+ * one in a window passes, the repeats are replaced by one summary event carrying
+ * repeat.count, repeat.first_timestamp, repeat.last_timestamp and repeat.trace_ids as
+ * key/value pairs
+ */
+public class BurstCollapsingAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+    implements AppenderAttachable<ILoggingEvent> {
+  public static final String REPEAT_COUNT = "repeat.count";
+  public static final String REPEAT_FIRST_TIMESTAMP = "repeat.first_timestamp";
+  public static final String REPEAT_LAST_TIMESTAMP = "repeat.last_timestamp";
+  public static final String REPEAT_TRACE_IDS = "repeat.trace_ids";
+
+  private int window = 5000;
+  private int tableSize = 1024;
+  private int maxTraceIds = 5;
+
+  private final AppenderAttachableImpl<ILoggingEvent> aai = new AppenderAttachableImpl<>();
+  private final LongAdder collapsedCount = new LongAdder();
+  private final LongAdder summaryCount = new LongAdder();
+  private BurstTable<ILoggingEvent> table;
+  private ScheduledFuture<?> sweeper;
+  private LoggingTelemetry.Timer appendTimer;
+  private List<LoggingTelemetry.Registration> registrations = List.of();
+
+  /**
+   * How long repeats of an event are collapsed after it passes, in milliseconds. Defaults to
+   * 5000. {@code <window>1000</window>}
+   *
+   * @param window Collapse window in milliseconds
+   */
+  public void setWindow(int window) {
+    this.window = window;
+  }
+
+  /**
+   * Number of fingerprints tracked at once, rounded up to a power of two. Defaults to 1024.
+   *
+   * @param tableSize Fingerprint table slots
+   */
+  public void setTableSize(int tableSize) {
+    this.tableSize = tableSize;
+  }
+
+  /**
+   * Number of distinct trace ids kept on each summary. Defaults to 5.
+   *
+   * @param maxTraceIds Sample trace ids per summary
+   */
+  public void setMaxTraceIds(int maxTraceIds) {
+    this.maxTraceIds = maxTraceIds;
+  }
+
+  /**
+   * @return number of events replaced by summaries
+   */
+  public long getCollapsedCount() {
+    return collapsedCount.sum();
+  }
+
+  /**
+   * @return number of summary events emitted
+   */
+  public long getSummaryCount() {
+    return summaryCount.sum();
+  }
+
+  @Override
+  public void start() {
+    if (window < 1 || tableSize < 1) {
+      addError("Invalid window [" + window + "] or table size [" + tableSize + "]");
+      return;
+    }
+    table = new BurstTable<>(tableSize, TimeUnit.MILLISECONDS.toNanos(window), maxTraceIds,
+        BurstCollapsingAppender::keepSample, this::appendSummary);
+    sweeper = getContext().getScheduledExecutorService().scheduleAtFixedRate(table::sweep,
+        window, window, TimeUnit.MILLISECONDS);
+    LoggingTelemetry telemetry = LoggingTelemetry.getGlobal();
+    appendTimer = telemetry.timer(LoggingTelemetry.Metric.APPENDER_DURATION,
+        Attributes.of(LoggingTelemetry.APPENDER, getName()));
+    registrations = List.of(appendTimer,
+        telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+            Attributes.of(LoggingTelemetry.COMPONENT, getName(), LoggingTelemetry.REASON, "collapsed"),
+            collapsedCount::sum));
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    sweeper.cancel(false);
+    table.flush();
+    registrations.forEach(LoggingTelemetry.Registration::close);
+    registrations = List.of();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    long start = appendTimer.start();
+    try {
+      collapse(event);
+    } finally {
+      appendTimer.stop(start);
+    }
+  }
+
+  private void collapse(ILoggingEvent event) {
+    if (isSummary(event)) {
+      aai.appendLoopOnAppenders(event);
+      return;
+    }
+    IThrowableProxy throwableProxy = event.getThrowableProxy();
+    SpanContext spanContext = Span.current().getSpanContext();
+    if (table.admit(event.getLoggerName(), event.getLevel().toInt(), event.getMessage(),
+        throwableProxy != null ? throwableProxy.getClassName() : null,
+        toEpochNanos(event.getInstant()), spanContext.isValid() ? spanContext.getTraceId() : null,
+        event)) {
+      aai.appendLoopOnAppenders(event);
+    } else {
+      collapsedCount.increment();
+    }
+  }
+
+  // the sample is read later, possibly on another thread
+  private static ILoggingEvent keepSample(ILoggingEvent event) {
+    if (event instanceof LoggingEvent && !event.hasCallerData()) {
+      // repeats skip any CallerDataAppender attached after this one
+      ((LoggingEvent) event).setCallerData(CallSiteCallerData.capture());
+    }
+    event.prepareForDeferredProcessing();
+    return event;
+  }
+
+  private void appendSummary(BurstTable.Summary<ILoggingEvent> summary) {
+    summaryCount.increment();
+    ILoggingEvent event = toSummaryEvent(summary);
+    // don't pick up the trace of whichever thread happens to close the window
+    Scope scope = Context.root().makeCurrent();
+    try {
+      aai.appendLoopOnAppenders(event);
+    } finally {
+      scope.close();
+    }
+  }
+
+  private static ILoggingEvent toSummaryEvent(BurstTable.Summary<ILoggingEvent> summary) {
+    ILoggingEvent sample = summary.sample;
+    LoggingEvent event = new LoggingEvent();
+    event.setLoggerName(sample.getLoggerName());
+    event.setLoggerContextRemoteView(sample.getLoggerContextVO());
+    event.setLevel(sample.getLevel());
+    event.setMessage(sample.getFormattedMessage());
+    event.setThreadName(sample.getThreadName());
+    event.setInstant(toInstant(summary.lastEpochNanos));
+    event.setMDCPropertyMap(sample.getMDCPropertyMap());
+    event.setCallerData(sample.hasCallerData()
+        ? sample.getCallerData()
+        : CallerData.EMPTY_CALLER_DATA_ARRAY);
+    if (sample.getThrowableProxy() instanceof ThrowableProxy) {
+      event.setThrowableProxy((ThrowableProxy) sample.getThrowableProxy());
+    }
+    if (sample.getMarkerList() != null) {
+      for (Marker marker : sample.getMarkerList()) {
+        event.addMarker(marker);
+      }
+    }
+
+    List<KeyValuePair> keyValuePairs = new ArrayList<>();
+    if (sample.getKeyValuePairs() != null) {
+      keyValuePairs.addAll(sample.getKeyValuePairs());
+    }
+    keyValuePairs.add(new KeyValuePair(REPEAT_COUNT, summary.count));
+    keyValuePairs.add(new KeyValuePair(REPEAT_FIRST_TIMESTAMP,
+        toInstant(summary.firstEpochNanos).toString()));
+    keyValuePairs.add(new KeyValuePair(REPEAT_LAST_TIMESTAMP,
+        toInstant(summary.lastEpochNanos).toString()));
+    if (!summary.traceIds.isEmpty()) {
+      keyValuePairs.add(new KeyValuePair(REPEAT_TRACE_IDS, String.join(",", summary.traceIds)));
+    }
+    event.setKeyValuePairs(keyValuePairs);
+    return event;
+  }
+
+  private static boolean isSummary(ILoggingEvent event) {
+    List<KeyValuePair> keyValuePairs = event.getKeyValuePairs();
+    if (keyValuePairs == null) {
+      return false;
+    }
+    for (KeyValuePair keyValuePair : keyValuePairs) {
+      if (REPEAT_COUNT.equals(keyValuePair.key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long toEpochNanos(Instant instant) {
+    return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+  }
+
+  private static Instant toInstant(long epochNanos) {
+    return Instant.ofEpochSecond(0, epochNanos);
+  }
+
+  @Override
+  public void addAppender(Appender<ILoggingEvent> appender) {
+    aai.addAppender(appender);
+  }
+
+  @Override
+  public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+    return aai.iteratorForAppenders();
+  }
+
+  @Override
+  public Appender<ILoggingEvent> getAppender(String name) {
+    return aai.getAppender(name);
+  }
+
+  @Override
+  public boolean isAttached(Appender<ILoggingEvent> appender) {
+    return aai.isAttached(appender);
+  }
+
+  @Override
+  public void detachAndStopAllAppenders() {
+    aai.detachAndStopAllAppenders();
+  }
+
+  @Override
+  public boolean detachAppender(Appender<ILoggingEvent> appender) {
+    return aai.detachAppender(appender);
+  }
+
+  @Override
+  public boolean detachAppender(String name) {
+    return aai.detachAppender(name);
+  }
+}
@@ -0,0 +1,247 @@
+package com.tb93.otel.batteries;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.data.Body;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+
+/*
+ * SDK counterpart of BurstCollapsingAppender, for records that don't come through logback
+ * Fingerprints records by scope, severity, body and exception.type; the first one in a window
+ * reaches the wrapped processor, the repeats are replaced by one summary record with
+ * repeat.count, repeat.first_timestamp, repeat.last_timestamp and repeat.trace_ids
+ * attributes. The body is the formatted message, so records with varying arguments only
+ * collapse when the arguments repeat too
+ */
+public final class BurstCollapsingLogRecordProcessor extends ChainedLogRecordProcessor {
+    public static final AttributeKey<Long> REPEAT_COUNT = AttributeKey.longKey(
+            BurstCollapsingAppender.REPEAT_COUNT);
+    public static final AttributeKey<String> REPEAT_FIRST_TIMESTAMP = AttributeKey.stringKey(
+            BurstCollapsingAppender.REPEAT_FIRST_TIMESTAMP);
+    public static final AttributeKey<String> REPEAT_LAST_TIMESTAMP = AttributeKey.stringKey(
+            BurstCollapsingAppender.REPEAT_LAST_TIMESTAMP);
+    public static final AttributeKey<List<String>> REPEAT_TRACE_IDS = AttributeKey.stringArrayKey(
+            BurstCollapsingAppender.REPEAT_TRACE_IDS);
+
+    private final LogRecordProcessor delegate;
+    private final BurstTable<LogRecordData> table;
+    private final ScheduledExecutorService sweeper;
+    private final LongAdder collapsedCount = new LongAdder();
+    private final LongAdder summaryCount = new LongAdder();
+    private final LoggingTelemetry.Registration collapsedRegistration;
+
+    private BurstCollapsingLogRecordProcessor(Builder builder) {
+        this.delegate = builder.delegate;
+        this.table = new BurstTable<>(builder.tableSize, builder.window.toNanos(),
+                builder.maxTraceIds, UnaryOperator.identity(), this::emitSummary);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BurstCollapsingLogRecordProcessor-Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long windowMillis = Math.max(1, builder.window.toMillis());
+        sweeper.scheduleAtFixedRate(table::sweep, windowMillis, windowMillis,
+                TimeUnit.MILLISECONDS);
+        this.collapsedRegistration = LoggingTelemetry.getGlobal().observe(LoggingTelemetry.Metric.DROPPED,
+                Attributes.of(LoggingTelemetry.COMPONENT, "burst_collapsing", LoggingTelemetry.REASON, "collapsed"),
+                collapsedCount::sum);
+    }
+
+    public static Builder builder(LogRecordProcessor delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    void onEmit(Context context, ReadWriteLogRecord logRecord, LogRecordData logRecordData) {
+        Attributes attributes = logRecordData.getAttributes();
+        if (attributes.get(REPEAT_COUNT) != null) {
+            // already a summary, e.g. from BurstCollapsingAppender
+            emit(delegate, context, logRecord, logRecordData);
+            return;
+        }
+        SpanContext spanContext = logRecordData.getSpanContext();
+        if (table.admit(logRecordData.getInstrumentationScopeInfo().getName(),
+                logRecordData.getSeverity().getSeverityNumber(),
+                logRecordData.getBody().asString(),
+                attributes.get(SemanticAttributes.EXCEPTION_TYPE),
+                logRecordData.getEpochNanos(),
+                spanContext.isValid() ? spanContext.getTraceId() : null,
+                logRecordData)) {
+            emit(delegate, context, logRecord, logRecordData);
+        } else {
+            collapsedCount.increment();
+        }
+    }
+
+    private void emitSummary(BurstTable.Summary<LogRecordData> summary) {
+        summaryCount.increment();
+        LogRecordData sample = summary.sample;
+        Attributes attributes = sample.getAttributes().toBuilder()
+                .put(REPEAT_COUNT, summary.count)
+                .put(REPEAT_FIRST_TIMESTAMP, toInstant(summary.firstEpochNanos).toString())
+                .put(REPEAT_LAST_TIMESTAMP, toInstant(summary.lastEpochNanos).toString())
+                .build();
+        if (!summary.traceIds.isEmpty()) {
+            attributes = attributes.toBuilder().put(REPEAT_TRACE_IDS, summary.traceIds).build();
+        }
+        // the summary spans many traces, so it belongs to none of them
+        SummaryData summaryData = new SummaryData(sample, summary.lastEpochNanos, attributes);
+        emit(delegate, Context.root(), new SummaryLogRecord(summaryData), summaryData);
+    }
+
+    private static Instant toInstant(long epochNanos) {
+        return Instant.ofEpochSecond(0, epochNanos);
+    }
+
+    /** @return number of records replaced by summaries */
+    public long getCollapsedCount() {
+        return collapsedCount.sum();
+    }
+
+    /** @return number of summary records emitted */
+    public long getSummaryCount() {
+        return summaryCount.sum();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        sweeper.shutdown();
+        table.flush();
+        collapsedRegistration.close();
+        return delegate.shutdown();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        table.flush();
+        return delegate.forceFlush();
+    }
+
+    private static final class SummaryLogRecord implements ReadWriteLogRecord {
+        private SummaryData data;
+
+        SummaryLogRecord(SummaryData data) {
+            this.data = data;
+        }
+
+        @Override
+        public synchronized <T> ReadWriteLogRecord setAttribute(AttributeKey<T> key, T value) {
+            data = new SummaryData(data, data.getEpochNanos(),
+                    data.getAttributes().toBuilder().put(key, value).build());
+            return this;
+        }
+
+        @Override
+        public synchronized LogRecordData toLogRecordData() {
+            return data;
+        }
+    }
+
+    private static final class SummaryData implements LogRecordData {
+        private final LogRecordData sample;
+        private final long epochNanos;
+        private final Attributes attributes;
+
+        SummaryData(LogRecordData sample, long epochNanos, Attributes attributes) {
+            this.sample = sample;
+            this.epochNanos = epochNanos;
+            this.attributes = attributes;
+        }
+
+        @Override
+        public Resource getResource() {
+            return sample.getResource();
+        }
+
+        @Override
+        public InstrumentationScopeInfo getInstrumentationScopeInfo() {
+            return sample.getInstrumentationScopeInfo();
+        }
+
+        @Override
+        public long getEpochNanos() {
+            return epochNanos;
+        }
+
+        @Override
+        public SpanContext getSpanContext() {
+            return SpanContext.getInvalid();
+        }
+
+        @Override
+        public Severity getSeverity() {
+            return sample.getSeverity();
+        }
+
+        @Override
+        public String getSeverityText() {
+            return sample.getSeverityText();
+        }
+
+        @Override
+        public Body getBody() {
+            return sample.getBody();
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public int getTotalAttributeCount() {
+            return attributes.size();
+        }
+    }
+
+    public static final class Builder {
+        private final LogRecordProcessor delegate;
+        private Duration window = Duration.ofSeconds(5);
+        private int tableSize = 1024;
+        private int maxTraceIds = 5;
+
+        private Builder(LogRecordProcessor delegate) {
+            this.delegate = delegate;
+        }
+
+        /** How long repeats of a record are collapsed after it passes (default: 5s). */
+        public Builder setWindow(Duration window) {
+            this.window = window;
+            return this;
+        }
+
+        /** Number of fingerprints tracked at once (default: 1024). */
+        public Builder setTableSize(int tableSize) {
+            this.tableSize = tableSize;
+            return this;
+        }
+
+        /** Number of distinct trace ids kept on each summary (default: 5). */
+        public Builder setMaxTraceIds(int maxTraceIds) {
+            this.maxTraceIds = maxTraceIds;
+            return this;
+        }
+
+        public BurstCollapsingLogRecordProcessor build() {
+            return new BurstCollapsingLogRecordProcessor(this);
+        }
+    }
+}
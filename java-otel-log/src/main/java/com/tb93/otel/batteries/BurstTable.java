@@ -0,0 +1,231 @@
+package com.tb93.otel.batteries;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/*
+ * Fixed-size fingerprint table behind BurstCollapsingAppender and
+ * BurstCollapsingLogRecordProcessor
+ * A fingerprint (scope/logger, level, message, exception type) hashes to one slot; the first
+ * event in a window passes, repeats only bump the slot's counters, and the repeats are handed
+ * to the sink as one Summary when the window closes (next occurrence, sweep, or eviction by
+ * another fingerprint taking the slot). Memory is bounded by the slot count
+ */
+final class BurstTable<T> {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final long windowNanos;
+    private final int maxTraceIds;
+    private final UnaryOperator<T> keepSample;
+    private final Consumer<Summary<T>> sink;
+
+    /**
+     * @param size        number of slots, rounded up to a power of two
+     * @param windowNanos how long repeats of a passed event are collapsed
+     * @param maxTraceIds sample trace ids kept per summary
+     * @param keepSample  turns the first repeat of a window into the summary's sample (e.g.
+     *                    resolves anything thread-bound); called at most once per window
+     * @param sink        receives a Summary for every window that saw repeats
+     */
+    BurstTable(int size, long windowNanos, int maxTraceIds, UnaryOperator<T> keepSample,
+            Consumer<Summary<T>> sink) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.windowNanos = windowNanos;
+        this.maxTraceIds = maxTraceIds;
+        this.keepSample = keepSample;
+        this.sink = sink;
+    }
+
+    /**
+     * Records one event. A summary of an earlier window, if any, is sent to the sink before
+     * this returns.
+     *
+     * @return true if the event should pass through
+     */
+    boolean admit(String scope, int level, String message, String exceptionType,
+            long epochNanos, String traceId, T event) {
+        int hash = hash(scope, level, message, exceptionType);
+        int index = hash & mask;
+        long now = System.nanoTime();
+        for (;;) {
+            Entry entry = slots.get(index);
+            if (entry != null && entry.matches(hash, scope, level, message, exceptionType)) {
+                Summary<T> summary;
+                synchronized (entry) {
+                    if (entry.evicted) {
+                        continue;
+                    }
+                    if (now - entry.windowStart < windowNanos) {
+                        entry.record(epochNanos, traceId, event);
+                        return false;
+                    }
+                    // window closed: this event opens the next one
+                    summary = entry.drain();
+                    entry.windowStart = now;
+                }
+                emit(summary);
+                return true;
+            }
+
+            Entry fresh = new Entry(hash, scope, level, message, exceptionType, now);
+            if (slots.compareAndSet(index, entry, fresh)) {
+                if (entry != null) {
+                    evict(entry);
+                }
+                return true;
+            }
+        }
+    }
+
+    /** Sends summaries for every window that has closed. */
+    void sweep() {
+        long now = System.nanoTime();
+        for (int i = 0; i < slots.length(); i++) {
+            Entry entry = slots.get(i);
+            if (entry == null) {
+                continue;
+            }
+            Summary<T> summary = null;
+            synchronized (entry) {
+                if (!entry.evicted && entry.count > 0 && now - entry.windowStart >= windowNanos) {
+                    summary = entry.drain();
+                }
+            }
+            emit(summary);
+        }
+    }
+
+    /** Sends summaries for every pending repeat, e.g. on shutdown. */
+    void flush() {
+        for (int i = 0; i < slots.length(); i++) {
+            Entry entry = slots.get(i);
+            if (entry != null) {
+                Summary<T> summary;
+                synchronized (entry) {
+                    summary = entry.evicted ? null : entry.drain();
+                }
+                emit(summary);
+            }
+        }
+    }
+
+    private void evict(Entry entry) {
+        Summary<T> summary;
+        synchronized (entry) {
+            entry.evicted = true;
+            summary = entry.drain();
+        }
+        emit(summary);
+    }
+
+    private void emit(Summary<T> summary) {
+        if (summary != null) {
+            sink.accept(summary);
+        }
+    }
+
+    private static int hash(String scope, int level, String message, String exceptionType) {
+        int hash = Objects.hashCode(scope);
+        hash = 31 * hash + level;
+        hash = 31 * hash + Objects.hashCode(message);
+        hash = 31 * hash + Objects.hashCode(exceptionType);
+        // spread the high bits, as HashMap does
+        return hash ^ (hash >>> 16);
+    }
+
+    /** Repeats of one fingerprint within one window. */
+    static final class Summary<T> {
+        final T sample;
+        final long count;
+        final long firstEpochNanos;
+        final long lastEpochNanos;
+        final List<String> traceIds;
+
+        Summary(T sample, long count, long firstEpochNanos, long lastEpochNanos,
+                List<String> traceIds) {
+            this.sample = sample;
+            this.count = count;
+            this.firstEpochNanos = firstEpochNanos;
+            this.lastEpochNanos = lastEpochNanos;
+            this.traceIds = traceIds;
+        }
+    }
+
+    private final class Entry {
+        final int hash;
+        final String scope;
+        final int level;
+        final String message;
+        final String exceptionType;
+
+        // guarded by this
+        long windowStart;
+        boolean evicted;
+        long count;
+        long firstEpochNanos;
+        long lastEpochNanos;
+        T sample;
+        String[] traceIds;
+        int traceIdCount;
+
+        Entry(int hash, String scope, int level, String message, String exceptionType,
+                long windowStart) {
+            this.hash = hash;
+            this.scope = scope;
+            this.level = level;
+            this.message = message;
+            this.exceptionType = exceptionType;
+            this.windowStart = windowStart;
+        }
+
+        boolean matches(int hash, String scope, int level, String message, String exceptionType) {
+            return this.hash == hash && this.level == level && Objects.equals(this.scope, scope)
+                    && Objects.equals(this.message, message)
+                    && Objects.equals(this.exceptionType, exceptionType);
+        }
+
+        void record(long epochNanos, String traceId, T event) {
+            if (count++ == 0) {
+                firstEpochNanos = epochNanos;
+                sample = keepSample.apply(event);
+            }
+            lastEpochNanos = epochNanos;
+            if (traceId != null && traceIdCount < maxTraceIds && !hasTraceId(traceId)) {
+                if (traceIds == null) {
+                    traceIds = new String[maxTraceIds];
+                }
+                traceIds[traceIdCount++] = traceId;
+            }
+        }
+
+        private boolean hasTraceId(String traceId) {
+            for (int i = 0; i < traceIdCount; i++) {
+                if (traceIds[i].equals(traceId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Summary<T> drain() {
+            if (count == 0) {
+                return null;
+            }
+            Summary<T> summary = new Summary<>(sample, count, firstEpochNanos, lastEpochNanos,
+                    traceIdCount == 0 ? List.of() : List.of(Arrays.copyOf(traceIds, traceIdCount)));
+            count = 0;
+            sample = null;
+            traceIdCount = 0;
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.tb93.otel.batteries;
+
+import ch.qos.logback.classic.spi.CallerData;
+import java.lang.StackWalker.StackFrame;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/*
+ * Caller data via StackWalker instead of logback's full Throwable stack trace
+ * The walk stops at the first frame outside the logging stack, and the resolved
+ * StackTraceElement is cached per callsite (class, method, bytecode index), so a hot log
+ * statement resolves file and line number only once
+ */
+public final class CallSiteCallerData {
+  // frames from these packages belong to the logging stack, not the caller
+  private static final String[] LOGGING_PACKAGES = {
+      "ch.qos.logback.",
+      "org.slf4j.",
+      "io.opentelemetry.instrumentation.logback.",
+      "net.logstash.logback.",
+      "co.elastic.logging.",
+      "java.lang.reflect.",
+      "jdk.internal.reflect.",
+      "jdk.proxy",
+      "com.sun.proxy."
+  };
+  // our appenders and event wrappers that sit between the log call and the capture; other
+  // classes of this package (processors, exporters, ...) are callers like any other
+  private static final Class<?>[] LOGGING_CLASSES = {
+      CallSiteCallerData.class,
+      CallerDataAppender.class,
+      BurstCollapsingAppender.class,
+      BurstTable.class,
+      SnapshotAppender.class,
+      PolyfillAppender.class,
+      PolyfillLoggingEvent.class,
+      LoggingEventSnapshot.class
+  };
+  private static final int MAX_CALL_SITES_PER_CLASS = 1024;
+
+  private static final StackWalker WALKER = StackWalker.getInstance(
+      StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+  private static final ClassValue<Boolean> IS_LOGGING_CLASS = new ClassValue<>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      // nested and lambda classes count as their enclosing class
+      Class<?> outer = type;
+      while (outer.getEnclosingClass() != null) {
+        outer = outer.getEnclosingClass();
+      }
+      for (Class<?> loggingClass : LOGGING_CLASSES) {
+        if (outer == loggingClass) {
+          return Boolean.TRUE;
+        }
+      }
+      String name = type.getName();
+      for (String prefix : LOGGING_PACKAGES) {
+        if (name.startsWith(prefix)) {
+          return Boolean.TRUE;
+        }
+      }
+      return Boolean.FALSE;
+    }
+  };
+
+  private static final ClassValue<ConcurrentHashMap<CallSite, StackTraceElement[]>> CALL_SITES = new ClassValue<>() {
+    @Override
+    protected ConcurrentHashMap<CallSite, StackTraceElement[]> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  private CallSiteCallerData() {
+  }
+
+  /**
+   * @return a single-element caller data array for the first frame outside the logging stack
+   *         (shared per callsite, do not modify), or an empty array if there is none
+   */
+  public static StackTraceElement[] capture() {
+    StackFrame frame = WALKER.walk(CallSiteCallerData::firstCallerFrame);
+    if (frame == null) {
+      return CallerData.EMPTY_CALLER_DATA_ARRAY;
+    }
+
+    ConcurrentHashMap<CallSite, StackTraceElement[]> callSites = CALL_SITES.get(frame.getDeclaringClass());
+    CallSite callSite = new CallSite(frame.getMethodName(), frame.getByteCodeIndex());
+    StackTraceElement[] callerData = callSites.get(callSite);
+    if (callerData == null) {
+      callerData = new StackTraceElement[] { frame.toStackTraceElement() };
+      // bound the cache for classes with generated or unusually many log statements
+      if (callSites.size() < MAX_CALL_SITES_PER_CLASS) {
+        StackTraceElement[] existing = callSites.putIfAbsent(callSite, callerData);
+        if (existing != null) {
+          callerData = existing;
+        }
+      }
+    }
+    return callerData;
+  }
+
+  private static StackFrame firstCallerFrame(Stream<StackFrame> frames) {
+    return frames.filter(frame -> !IS_LOGGING_CLASS.get(frame.getDeclaringClass()))
+        .findFirst().orElse(null);
+  }
+
+  private record CallSite(String methodName, int byteCodeIndex) {
+  }
+}
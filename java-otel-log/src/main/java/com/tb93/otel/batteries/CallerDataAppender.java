@@ -0,0 +1,78 @@
+package com.tb93.otel.batteries;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.CallerData;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import io.opentelemetry.api.common.Attributes;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Resolves caller data once per event, before any other appender asks for it
+ * Attach it as the first appender-ref of the root logger; it stores the result on the
+ * LoggingEvent itself, so the OTLP appender (captureCodeAttributes), the LogstashEncoder
+ * (includeCallerData) and the EcsEncoder (includeOrigin) all read the same cached value
+ * instead of each forcing logback's Throwable-based capture
+ */
+public class CallerDataAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+  private Level alwaysCaptureLevel = Level.TRACE;
+  private double sampleRate;
+  private LoggingTelemetry.Timer appendTimer;
+
+  /**
+   * Events at or above this level always get caller data. Defaults to TRACE (every event).
+   * {@code <alwaysCaptureLevel>WARN</alwaysCaptureLevel>}
+   *
+   * @param alwaysCaptureLevel A logback level name; OFF to rely on sampling alone
+   */
+  public void setAlwaysCaptureLevel(String alwaysCaptureLevel) {
+    this.alwaysCaptureLevel = Level.toLevel(alwaysCaptureLevel, Level.TRACE);
+  }
+
+  /**
+   * Fraction (0.0 - 1.0) of events below alwaysCaptureLevel that still get caller data.
+   * Defaults to 0. {@code <sampleRate>0.01</sampleRate>}
+   *
+   * @param sampleRate Sampling probability
+   */
+  public void setSampleRate(double sampleRate) {
+    this.sampleRate = sampleRate;
+  }
+
+  @Override
+  public void start() {
+    appendTimer = LoggingTelemetry.getGlobal().timer(LoggingTelemetry.Metric.APPENDER_DURATION,
+        Attributes.of(LoggingTelemetry.APPENDER, getName()));
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    appendTimer.close();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    if (!(event instanceof LoggingEvent) || event.hasCallerData()) {
+      return;
+    }
+    long start = appendTimer.start();
+    // an empty array keeps logback from falling back to its own capture later
+    ((LoggingEvent) event).setCallerData(shouldCapture(event.getLevel())
+        ? CallSiteCallerData.capture()
+        : CallerData.EMPTY_CALLER_DATA_ARRAY);
+    appendTimer.stop(start);
+  }
+
+  private boolean shouldCapture(Level level) {
+    if (level.isGreaterOrEqual(alwaysCaptureLevel)) {
+      return true;
+    }
+    return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+}
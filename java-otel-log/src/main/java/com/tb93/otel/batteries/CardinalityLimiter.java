@@ -0,0 +1,123 @@
+package com.tb93.otel.batteries;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.context.Context;
+
+/*
+ * Caps the number of distinct attribute sets one instrument will record
+ * Once the limit is reached, unseen sets are folded into a single otel.metric.overflow=true
+ * set, so dynamic dimensions (e.g. baggage session_id) can't grow SdkMeterProvider storage
+ * without bound. Seen sets are found without allocating: first by identity (memoized
+ * Attributes, e.g. from BaggageAttributeConverter, are the same instance every time), then
+ * by equality
+ */
+public final class CardinalityLimiter {
+    public static final Attributes OVERFLOW_ATTRIBUTES = Attributes.of(
+            AttributeKey.booleanKey("otel.metric.overflow"), true);
+
+    private static final int IDENTITY_CACHE_SIZE = 64;
+
+    private final int maxAttributeSets;
+    private final ConcurrentHashMap<Attributes, Boolean> admitted = new ConcurrentHashMap<>();
+    private final AtomicInteger admittedCount = new AtomicInteger();
+    private final AtomicReferenceArray<Attributes> lastAdmitted = new AtomicReferenceArray<>(
+            IDENTITY_CACHE_SIZE);
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param maxAttributeSets distinct attribute sets (including the empty set) to admit before
+     *                         overflowing
+     */
+    public CardinalityLimiter(int maxAttributeSets) {
+        this.maxAttributeSets = maxAttributeSets;
+    }
+
+    /**
+     * @return attributes if already admitted or still under the limit, otherwise
+     *         OVERFLOW_ATTRIBUTES
+     */
+    public Attributes limit(Attributes attributes) {
+        int index = System.identityHashCode(attributes) & (IDENTITY_CACHE_SIZE - 1);
+        if (lastAdmitted.get(index) == attributes) {
+            return attributes;
+        }
+        if (admitted.containsKey(attributes)) {
+            lastAdmitted.set(index, attributes);
+            return attributes;
+        }
+
+        // reserve a slot before admitting so concurrent callers can't overshoot the limit
+        int count;
+        do {
+            count = admittedCount.get();
+            if (count >= maxAttributeSets) {
+                rejectedCount.increment();
+                return OVERFLOW_ATTRIBUTES;
+            }
+        } while (!admittedCount.compareAndSet(count, count + 1));
+        if (admitted.putIfAbsent(attributes, Boolean.TRUE) != null) {
+            // lost a race admitting the same set
+            admittedCount.decrementAndGet();
+        }
+        lastAdmitted.set(index, attributes);
+        return attributes;
+    }
+
+    /** @return number of recordings folded into the overflow set */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /** @return number of distinct attribute sets admitted so far */
+    public int getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    /** Wraps a counter so every recording goes through the limiter. */
+    public static LongCounter limit(LongCounter counter, CardinalityLimiter limiter) {
+        return new LongCounter() {
+            @Override
+            public void add(long value) {
+                counter.add(value, limiter.limit(Attributes.empty()));
+            }
+
+            @Override
+            public void add(long value, Attributes attributes) {
+                counter.add(value, limiter.limit(attributes));
+            }
+
+            @Override
+            public void add(long value, Attributes attributes, Context context) {
+                counter.add(value, limiter.limit(attributes), context);
+            }
+        };
+    }
+
+    /** Wraps a histogram so every recording goes through the limiter. */
+    public static LongHistogram limit(LongHistogram histogram, CardinalityLimiter limiter) {
+        return new LongHistogram() {
+            @Override
+            public void record(long value) {
+                histogram.record(value, limiter.limit(Attributes.empty()));
+            }
+
+            @Override
+            public void record(long value, Attributes attributes) {
+                histogram.record(value, limiter.limit(attributes));
+            }
+
+            @Override
+            public void record(long value, Attributes attributes, Context context) {
+                histogram.record(value, limiter.limit(attributes), context);
+            }
+        };
+    }
+}
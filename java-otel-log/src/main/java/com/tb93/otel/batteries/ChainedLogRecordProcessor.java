@@ -0,0 +1,35 @@
+package com.tb93.otel.batteries;
+
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+
+/*
+ * Base of the wrapping log record processors of this package
+ * toLogRecordData() copies the record's attributes on every call, so a chain of these hands
+ * the copy taken by the first processor that needs it down to the others along with the
+ * record. None of them modify the record, which keeps the copy current along the chain
+ */
+abstract class ChainedLogRecordProcessor implements LogRecordProcessor {
+    @Override
+    public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+        onEmit(context, logRecord, logRecord.toLogRecordData());
+    }
+
+    /** Like onEmit(context, logRecord), logRecordData being logRecord.toLogRecordData(). */
+    abstract void onEmit(Context context, ReadWriteLogRecord logRecord, LogRecordData logRecordData);
+
+    /**
+     * Passes the record on to delegate, along with logRecordData if delegate takes it and it
+     * was taken (null otherwise).
+     */
+    static void emit(LogRecordProcessor delegate, Context context, ReadWriteLogRecord logRecord,
+            LogRecordData logRecordData) {
+        if (logRecordData != null && delegate instanceof ChainedLogRecordProcessor) {
+            ((ChainedLogRecordProcessor) delegate).onEmit(context, logRecord, logRecordData);
+        } else {
+            delegate.onEmit(context, logRecord);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.tb93.otel.batteries;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.DelegatingSpanData;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+
+/*
+ * Renders the exception events of spans (Span.recordException) through a StackTraceRenderer
+ * The SDK prints the full stack trace of every recorded exception when the span is exported;
+ * this exporter replaces those events with ones carrying exception.fingerprint and the cached
+ * (or, in FIRST_OCCURRENCE mode, omitted) stack trace. Span events can't be changed once
+ * recorded, so this wraps the exporter rather than being a SpanProcessor
+ * Fingerprints need the recorded Throwable, which only the SDK-internal ExceptionEventData
+ * keeps; that dependency is confined to RecordedExceptions, and with an SDK without the
+ * class exception events are exported unchanged
+ */
+public final class ExceptionRenderingSpanExporter implements SpanExporter {
+    private static final String EXCEPTION_EVENT_NAME = "exception";
+
+    private final SpanExporter delegate;
+    private final StackTraceRenderer renderer;
+
+    public ExceptionRenderingSpanExporter(SpanExporter delegate, StackTraceRenderer renderer) {
+        this.delegate = delegate;
+        this.renderer = renderer;
+    }
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+        List<SpanData> rendered = null;
+        int index = 0;
+        for (SpanData span : spans) {
+            SpanData replacement = render(span);
+            if (replacement != span) {
+                // only copy the batch once a span actually changes
+                if (rendered == null) {
+                    rendered = new ArrayList<>(spans);
+                }
+                rendered.set(index, replacement);
+            }
+            index++;
+        }
+        return delegate.export(rendered != null ? rendered : spans);
+    }
+
+    private SpanData render(SpanData span) {
+        List<EventData> events = span.getEvents();
+        List<EventData> rendered = null;
+        for (int i = 0; i < events.size(); i++) {
+            EventData event = events.get(i);
+            Throwable exception = EXCEPTION_EVENT_NAME.equals(event.getName())
+                    ? RecordedExceptions.get(event)
+                    : null;
+            if (exception != null) {
+                if (rendered == null) {
+                    rendered = new ArrayList<>(events.subList(0, i));
+                }
+                rendered.add(render(event, exception));
+            } else if (rendered != null) {
+                rendered.add(event);
+            }
+        }
+        return rendered == null ? span : new RenderedSpanData(span, rendered);
+    }
+
+    private EventData render(EventData event, Throwable exception) {
+        StackTraceRenderer.Rendering rendering = renderer.render(exception);
+        // the SDK's exception.* attributes are replaced, the ones passed to recordException kept
+        AttributesBuilder attributes = event.getAttributes().toBuilder()
+                .remove(SemanticAttributes.EXCEPTION_TYPE)
+                .remove(SemanticAttributes.EXCEPTION_MESSAGE)
+                .remove(SemanticAttributes.EXCEPTION_STACKTRACE);
+        // same type name as the SDK's own exception events
+        String type = exception.getClass().getCanonicalName();
+        attributes.put(SemanticAttributes.EXCEPTION_TYPE,
+                type != null ? type : exception.getClass().getName());
+        if (rendering.getMessage() != null) {
+            attributes.put(SemanticAttributes.EXCEPTION_MESSAGE, rendering.getMessage());
+        }
+        if (rendering.isStackTraceIncluded()) {
+            attributes.put(SemanticAttributes.EXCEPTION_STACKTRACE, rendering.getJavaStackTrace());
+        }
+        attributes.put(StackTraceRenderer.FINGERPRINT, rendering.getFingerprint());
+        Attributes renderedAttributes = attributes.build();
+        // keeps the count of attributes the span limits dropped
+        int dropped = event.getTotalAttributeCount() - event.getAttributes().size();
+        return EventData.create(event.getEpochNanos(), event.getName(), renderedAttributes,
+                renderedAttributes.size() + dropped);
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return delegate.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return delegate.shutdown();
+    }
+
+    // the one place that touches io.opentelemetry.sdk.trace.internal, which has no
+    // compatibility guarantee; loaded on first use, so a missing class is caught here
+    private static final class RecordedExceptions {
+        private static final boolean AVAILABLE = isAvailable();
+
+        static Throwable get(EventData event) {
+            return AVAILABLE && event instanceof io.opentelemetry.sdk.trace.internal.data.ExceptionEventData
+                    ? ((io.opentelemetry.sdk.trace.internal.data.ExceptionEventData) event).getException()
+                    : null;
+        }
+
+        private static boolean isAvailable() {
+            try {
+                Class.forName("io.opentelemetry.sdk.trace.internal.data.ExceptionEventData", false,
+                        ExceptionRenderingSpanExporter.class.getClassLoader());
+                return true;
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        }
+    }
+
+    private static final class RenderedSpanData extends DelegatingSpanData {
+        private final List<EventData> events;
+
+        RenderedSpanData(SpanData delegate, List<EventData> events) {
+            super(delegate);
+            this.events = events;
+        }
+
+        @Override
+        public List<EventData> getEvents() {
+            return events;
+        }
+    }
+}
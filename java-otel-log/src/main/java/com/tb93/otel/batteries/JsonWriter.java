@@ -0,0 +1,145 @@
+package com.tb93.otel.batteries;
+
+import java.util.Arrays;
+
+/*
+ * Growable byte array with streaming JSON output
+ * Strings are escaped and encoded to UTF-8 straight into the array (malformed surrogates
+ * become '?', as with String.getBytes) and numbers are written digit by digit, so the only
+ * allocation per document is the final copy in toByteArray(); structure (braces, commas) is
+ * left to the caller, which knows the document's shape
+ */
+final class JsonWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[] bytes;
+    private int length;
+
+    JsonWriter(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    int length() {
+        return length;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    void clear() {
+        length = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+
+    void write(char c) {
+        ensure(1);
+        bytes[length++] = (byte) c;
+    }
+
+    void write(byte[] source) {
+        ensure(source.length);
+        System.arraycopy(source, 0, bytes, length, source.length);
+        length += source.length;
+    }
+
+    /** Writes ASCII text as is, e.g. a property name with its quotes and colon. */
+    void writeRaw(String ascii) {
+        int size = ascii.length();
+        ensure(size);
+        for (int i = 0; i < size; i++) {
+            bytes[length++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    /** Writes a quoted, escaped string. */
+    void writeString(String value) {
+        int chars = value.length();
+        // worst case: every char escaped as \\u00XX, or 3 UTF-8 bytes per char
+        ensure(chars * 6 + 2);
+        byte[] out = bytes;
+        int position = length;
+        out[position++] = '"';
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out[position++] = (byte) c;
+                    continue;
+                }
+                out[position++] = '\\';
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        out[position++] = (byte) c;
+                        break;
+                    case '\n':
+                        out[position++] = 'n';
+                        break;
+                    case '\r':
+                        out[position++] = 'r';
+                        break;
+                    case '\t':
+                        out[position++] = 't';
+                        break;
+                    default:
+                        out[position++] = 'u';
+                        out[position++] = '0';
+                        out[position++] = '0';
+                        out[position++] = HEX[c >>> 4];
+                        out[position++] = HEX[c & 0xF];
+                        break;
+                }
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >>> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                out[position++] = (byte) (0xE0 | (c >>> 12));
+                out[position++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[position++] = (byte) (0xF0 | (codePoint >>> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                out[position++] = '?';
+            }
+        }
+        out[position++] = '"';
+        length = position;
+    }
+
+    void writeLong(long value) {
+        ensure(20);
+        if (value == Long.MIN_VALUE) {
+            writeRaw("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int position = length + digits;
+        length = position;
+        do {
+            bytes[--position] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+    }
+}
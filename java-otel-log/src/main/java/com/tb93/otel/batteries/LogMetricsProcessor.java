@@ -0,0 +1,468 @@
+package com.tb93.otel.batteries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongCounter;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+
+/*
+ * Turns log records matching configured rules into counters and histograms
+ * A rule matches on logger (exact name, "prefix.*" or "*"), a severity range, a message
+ * template ("{}" stands for an argument) and attribute presence or values, e.g. someKey=93.
+ * Rules are compiled once: the logger test is resolved per logger name into a cached rule
+ * array, the template into literal fragments matched with startsWith/indexOf/endsWith, so
+ * the hot path needs no regex. Each metric's attribute sets go through its own
+ * CardinalityLimiter. A rule can suppress the records it matched, so the backend gets the
+ * aggregate instead of the lines; that is why this wraps the exporting processor
+ */
+public final class LogMetricsProcessor extends ChainedLogRecordProcessor {
+    private static final Rule[] NO_RULES = new Rule[0];
+    private static final TypedKeys REPEAT_COUNT = new TypedKeys(BurstCollapsingAppender.REPEAT_COUNT);
+
+    private final LogRecordProcessor delegate;
+    private final Rule[] rules;
+    private final int maxCachedLoggers;
+    private final ConcurrentHashMap<String, Rule[]> rulesByLogger = new ConcurrentHashMap<>();
+
+    private final LongAdder matchedCount = new LongAdder();
+    private final LongAdder suppressedCount = new LongAdder();
+    private final List<ObservableLongCounter> rejectedCounters = new ArrayList<>();
+    private final LoggingTelemetry.Registration suppressedRegistration;
+
+    private LogMetricsProcessor(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxCachedLoggers = builder.maxCachedLoggers;
+        this.rules = new Rule[builder.rules.size()];
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = new Rule(builder.rules.get(i), builder.meter);
+            rules[i] = rule;
+            rejectedCounters.add(builder.meter.counterBuilder(rule.name + ".cardinality_rejected")
+                    .setDescription(rule.name + " recordings folded into otel.metric.overflow")
+                    .setUnit("1")
+                    .buildWithCallback(measurement -> measurement.record(rule.limiter.getRejectedCount())));
+        }
+        this.suppressedRegistration = LoggingTelemetry.getGlobal().observe(LoggingTelemetry.Metric.DROPPED,
+                Attributes.of(LoggingTelemetry.COMPONENT, "log_metrics", LoggingTelemetry.REASON, "aggregated"),
+                suppressedCount::sum);
+    }
+
+    public static Builder builder(LogRecordProcessor delegate, Meter meter) {
+        return new Builder(delegate, meter);
+    }
+
+    /** @return a rule adding 1 to the counter name for each matched record */
+    public static RuleBuilder counter(String name) {
+        return new RuleBuilder(name, null);
+    }
+
+    /** @return a rule recording the numeric attribute valueKey of each matched record */
+    public static RuleBuilder histogram(String name, String valueKey) {
+        return new RuleBuilder(name, valueKey);
+    }
+
+    @Override
+    void onEmit(Context context, ReadWriteLogRecord logRecord, LogRecordData logRecordData) {
+        boolean suppress = false;
+        for (Rule rule : rulesFor(logRecordData.getInstrumentationScopeInfo().getName())) {
+            if (rule.matches(logRecordData)) {
+                matchedCount.increment();
+                rule.record(context, logRecordData);
+                suppress |= rule.suppress;
+            }
+        }
+        if (suppress) {
+            suppressedCount.increment();
+            return;
+        }
+        emit(delegate, context, logRecord, logRecordData);
+    }
+
+    private Rule[] rulesFor(String loggerName) {
+        Rule[] loggerRules = rulesByLogger.get(loggerName);
+        if (loggerRules != null) {
+            return loggerRules;
+        }
+        loggerRules = NO_RULES;
+        for (Rule rule : rules) {
+            if (rule.matchesLogger(loggerName)) {
+                loggerRules = Arrays.copyOf(loggerRules, loggerRules.length + 1);
+                loggerRules[loggerRules.length - 1] = rule;
+            }
+        }
+        // past the limit, unseen logger names are resolved on every record instead
+        if (rulesByLogger.size() < maxCachedLoggers) {
+            rulesByLogger.putIfAbsent(loggerName, loggerRules);
+        }
+        return loggerRules;
+    }
+
+    /** @return number of rule matches, a record matching two rules counts twice */
+    public long getMatchedCount() {
+        return matchedCount.sum();
+    }
+
+    /** @return number of records not passed to the wrapped processor */
+    public long getSuppressedCount() {
+        return suppressedCount.sum();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        suppressedRegistration.close();
+        rejectedCounters.forEach(ObservableLongCounter::close);
+        return delegate.shutdown();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return delegate.forceFlush();
+    }
+
+    private static final class Rule {
+        private final String name;
+        private final String loggerName;
+        private final String loggerPrefix;
+        private final int minSeverity;
+        private final int maxSeverity;
+        // message template split at "{}"; null matches any body
+        private final String[] templateFragments;
+        private final TypedKeys[] requiredKeys;
+        private final String[] requiredValues;
+        private final AttributeKey<String>[] labelKeys;
+        private final TypedKeys[] labelSources;
+        private final Function<Context, Attributes> contextLabels;
+        private final TypedKeys valueKeys;
+        private final boolean suppress;
+        private final CardinalityLimiter limiter;
+        // label sets built so far, so a known combination is neither rebuilt nor looked up by
+        // the limiter; it admits maxLabelSets sets, so that many entries cover all admitted ones
+        private final ConcurrentHashMap<LabelValues, Attributes> labelSets = new ConcurrentHashMap<>();
+        private final int maxCachedLabelSets;
+        private final LongCounter counter;
+        private final LongHistogram histogram;
+
+        @SuppressWarnings("unchecked")
+        Rule(RuleBuilder builder, Meter meter) {
+            this.name = builder.name;
+            String logger = builder.logger;
+            if (logger == null || "*".equals(logger)) {
+                this.loggerName = null;
+                this.loggerPrefix = "";
+            } else if (logger.endsWith(".*")) {
+                this.loggerName = logger.substring(0, logger.length() - 2);
+                this.loggerPrefix = logger.substring(0, logger.length() - 1);
+            } else {
+                this.loggerName = logger;
+                this.loggerPrefix = null;
+            }
+            this.minSeverity = builder.minSeverity.getSeverityNumber();
+            this.maxSeverity = builder.maxSeverity.getSeverityNumber();
+            this.templateFragments = builder.messageTemplate == null
+                    ? null
+                    : builder.messageTemplate.split("\\{\\}", -1);
+            this.requiredKeys = new TypedKeys[builder.requiredKeys.size()];
+            this.requiredValues = builder.requiredValues.toArray(new String[0]);
+            for (int i = 0; i < requiredKeys.length; i++) {
+                requiredKeys[i] = new TypedKeys(builder.requiredKeys.get(i));
+            }
+            this.labelKeys = builder.labelKeys.stream().map(AttributeKey::stringKey)
+                    .toArray(AttributeKey[]::new);
+            this.labelSources = builder.labelKeys.stream().map(TypedKeys::new).toArray(TypedKeys[]::new);
+            this.contextLabels = builder.contextLabels;
+            this.valueKeys = builder.valueKey != null ? new TypedKeys(builder.valueKey) : null;
+            this.suppress = builder.suppress;
+            this.limiter = new CardinalityLimiter(builder.maxLabelSets);
+            this.maxCachedLabelSets = builder.maxLabelSets;
+            if (valueKeys == null) {
+                this.counter = CardinalityLimiter.limit(meter.counterBuilder(name)
+                        .setDescription(builder.description).setUnit(builder.unit).build(), limiter);
+                this.histogram = null;
+            } else {
+                this.counter = null;
+                this.histogram = CardinalityLimiter.limit(meter.histogramBuilder(name)
+                        .setDescription(builder.description).setUnit(builder.unit).ofLongs().build(), limiter);
+            }
+        }
+
+        boolean matchesLogger(String name) {
+            return name.equals(loggerName) || (loggerPrefix != null && name.startsWith(loggerPrefix));
+        }
+
+        boolean matches(LogRecordData logRecordData) {
+            int severity = logRecordData.getSeverity().getSeverityNumber();
+            if (severity < minSeverity || severity > maxSeverity) {
+                return false;
+            }
+            if (templateFragments != null && !matchesTemplate(logRecordData.getBody().asString())) {
+                return false;
+            }
+            Attributes attributes = logRecordData.getAttributes();
+            for (int i = 0; i < requiredKeys.length; i++) {
+                Object value = requiredKeys[i].get(attributes);
+                if (value == null || (requiredValues[i] != null && !requiredValues[i].equals(value.toString()))) {
+                    return false;
+                }
+            }
+            return valueKeys == null || valueKeys.getLong(attributes) != null;
+        }
+
+        // literal fragments in order: the first at the start, the last at the end
+        private boolean matchesTemplate(String body) {
+            String[] fragments = templateFragments;
+            if (fragments.length == 1) {
+                return fragments[0].equals(body);
+            }
+            String last = fragments[fragments.length - 1];
+            if (!body.startsWith(fragments[0]) || !body.endsWith(last)) {
+                return false;
+            }
+            int from = fragments[0].length();
+            int end = body.length() - last.length();
+            for (int i = 1; i < fragments.length - 1; i++) {
+                int index = body.indexOf(fragments[i], from);
+                if (index < 0) {
+                    return false;
+                }
+                from = index + fragments[i].length();
+            }
+            return from <= end;
+        }
+
+        void record(Context context, LogRecordData logRecordData) {
+            Attributes attributes = logRecordData.getAttributes();
+            Attributes labels = labels(context, attributes);
+            if (counter != null) {
+                // a BurstCollapsingAppender summary stands for repeat.count records
+                Long repeatCount = REPEAT_COUNT.getLong(attributes);
+                counter.add(repeatCount != null && repeatCount > 0 ? repeatCount : 1, labels);
+            } else {
+                histogram.record(valueKeys.getLong(attributes), labels);
+            }
+        }
+
+        private Attributes labels(Context context, Attributes attributes) {
+            Attributes fromContext = contextLabels != null ? contextLabels.apply(context) : Attributes.empty();
+            if (labelKeys.length == 0) {
+                return fromContext;
+            }
+            String[] values = new String[labelKeys.length];
+            for (int i = 0; i < labelKeys.length; i++) {
+                Object value = labelSources[i].get(attributes);
+                if (value != null) {
+                    values[i] = value.toString();
+                }
+            }
+            LabelValues key = new LabelValues(fromContext, Arrays.asList(values));
+            Attributes labels = labelSets.get(key);
+            if (labels != null) {
+                return labels;
+            }
+            AttributesBuilder builder = fromContext.toBuilder();
+            for (int i = 0; i < labelKeys.length; i++) {
+                if (values[i] != null) {
+                    builder.put(labelKeys[i], values[i]);
+                }
+            }
+            labels = builder.build();
+            if (labelSets.size() < maxCachedLabelSets) {
+                Attributes existing = labelSets.putIfAbsent(key, labels);
+                if (existing != null) {
+                    labels = existing;
+                }
+            }
+            return labels;
+        }
+    }
+
+    private record LabelValues(Attributes fromContext, List<String> values) {
+    }
+
+    /*
+     * One attribute name under each type it may arrive as: the OTel logback appender turns
+     * key/values into strings, other sources keep longs, doubles and booleans
+     */
+    private static final class TypedKeys {
+        private final AttributeKey<String> stringKey;
+        private final AttributeKey<Long> longKey;
+        private final AttributeKey<Double> doubleKey;
+        private final AttributeKey<Boolean> booleanKey;
+
+        TypedKeys(String name) {
+            this.stringKey = AttributeKey.stringKey(name);
+            this.longKey = AttributeKey.longKey(name);
+            this.doubleKey = AttributeKey.doubleKey(name);
+            this.booleanKey = AttributeKey.booleanKey(name);
+        }
+
+        Object get(Attributes attributes) {
+            Object value = attributes.get(stringKey);
+            if (value == null) {
+                value = attributes.get(longKey);
+            }
+            if (value == null) {
+                value = attributes.get(doubleKey);
+            }
+            if (value == null) {
+                value = attributes.get(booleanKey);
+            }
+            return value;
+        }
+
+        Long getLong(Attributes attributes) {
+            Long value = attributes.get(longKey);
+            if (value != null) {
+                return value;
+            }
+            Double number = attributes.get(doubleKey);
+            if (number != null) {
+                return Math.round(number);
+            }
+            String text = attributes.get(stringKey);
+            if (text == null) {
+                return null;
+            }
+            try {
+                return Long.parseLong(text.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public static final class RuleBuilder {
+        private final String name;
+        private final String valueKey;
+        private String description = "";
+        private String unit = "1";
+        private String logger;
+        private Severity minSeverity = Severity.UNDEFINED_SEVERITY_NUMBER;
+        private Severity maxSeverity = Severity.FATAL4;
+        private String messageTemplate;
+        private final List<String> requiredKeys = new ArrayList<>();
+        private final List<String> requiredValues = new ArrayList<>();
+        private final List<String> labelKeys = new ArrayList<>();
+        private Function<Context, Attributes> contextLabels;
+        private int maxLabelSets = 100;
+        private boolean suppress;
+
+        private RuleBuilder(String name, String valueKey) {
+            this.name = name;
+            this.valueKey = valueKey;
+        }
+
+        public RuleBuilder setDescription(String description) {
+            this.description = description;
+            return this;
+        }
+
+        /** Unit of the metric (default: "1"). */
+        public RuleBuilder setUnit(String unit) {
+            this.unit = unit;
+            return this;
+        }
+
+        /** Logger name, "prefix.*" for a logger and its children or "*" (default) for any. */
+        public RuleBuilder setLogger(String logger) {
+            this.logger = logger;
+            return this;
+        }
+
+        /** Severities to match, inclusive (default: all). */
+        public RuleBuilder setSeverityRange(Severity minSeverity, Severity maxSeverity) {
+            this.minSeverity = minSeverity;
+            this.maxSeverity = maxSeverity;
+            return this;
+        }
+
+        /**
+         * slf4j message template, e.g. "user {} logged in", matched against the formatted body
+         * (default: any body).
+         */
+        public RuleBuilder setMessageTemplate(String messageTemplate) {
+            this.messageTemplate = messageTemplate;
+            return this;
+        }
+
+        /** Only match records carrying the attribute, with any value. */
+        public RuleBuilder requireAttribute(String key) {
+            return requireAttribute(key, null);
+        }
+
+        /** Only match records whose attribute has this value, compared as a string. */
+        public RuleBuilder requireAttribute(String key, String value) {
+            requiredKeys.add(key);
+            requiredValues.add(value);
+            return this;
+        }
+
+        /** Copies these record attributes onto the metric as string labels. */
+        public RuleBuilder addLabelKeys(String... keys) {
+            labelKeys.addAll(Arrays.asList(keys));
+            return this;
+        }
+
+        /**
+         * Labels taken from the record's context, e.g. converted baggage; memoized attributes
+         * are admitted by the limiter without a lookup.
+         */
+        public RuleBuilder setContextLabels(Function<Context, Attributes> contextLabels) {
+            this.contextLabels = contextLabels;
+            return this;
+        }
+
+        /** Distinct label sets before overflowing into otel.metric.overflow (default: 100). */
+        public RuleBuilder setMaxLabelSets(int maxLabelSets) {
+            this.maxLabelSets = maxLabelSets;
+            return this;
+        }
+
+        /** Don't pass matched records on to the wrapped processor (default: false). */
+        public RuleBuilder setSuppress(boolean suppress) {
+            this.suppress = suppress;
+            return this;
+        }
+    }
+
+    public static final class Builder {
+        private final LogRecordProcessor delegate;
+        private final Meter meter;
+        private final List<RuleBuilder> rules = new ArrayList<>();
+        private int maxCachedLoggers = 1024;
+
+        private Builder(LogRecordProcessor delegate, Meter meter) {
+            this.delegate = delegate;
+            this.meter = meter;
+        }
+
+        public Builder addRule(RuleBuilder rule) {
+            rules.add(rule);
+            return this;
+        }
+
+        /** Maximum number of logger names whose matching rules are cached. */
+        public Builder setMaxCachedLoggers(int maxCachedLoggers) {
+            this.maxCachedLoggers = maxCachedLoggers;
+            return this;
+        }
+
+        public LogMetricsProcessor build() {
+            return new LogMetricsProcessor(this);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.tb93.otel.batteries;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import io.opentelemetry.api.baggage.Baggage;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.instrumentation.logback.mdc.v1_0.internal.UnionMap;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+/*
+ * Immutable, fully resolved copy of a logging event, built once by SnapshotAppender
+ * Holds everything every sink needs: OTel context (trace_id, span_id, trace_flags,
+ * baggage.*) merged into MDC the same way the OTel MDC appender does, key/values, caller
+ * data, the formatted message and the exception's StackTraceRenderer rendering
+ * (exception.fingerprint is added to MDC); per-sink PolyfillAppender views are computed at
+ * most once and shared
+ */
+public final class LoggingEventSnapshot implements ILoggingEvent {
+  private final String threadName;
+  private final Level level;
+  private final String message;
+  private final Object[] argumentArray;
+  private final String formattedMessage;
+  private final String loggerName;
+  private final LoggerContextVO loggerContextVO;
+  private final IThrowableProxy throwableProxy;
+  private final StackTraceElement[] callerData;
+  private final List<Marker> markerList;
+  private final Map<String, String> mdcPropertyMap;
+  private final Map<String, String> mdc;
+  private final long timeStamp;
+  private final int nanoseconds;
+  private final Instant instant;
+  private final long sequenceNumber;
+  private final List<KeyValuePair> keyValuePairs;
+  private final StackTraceRenderer.Rendering exceptionRendering;
+
+  // [kvAsMDC * 2 + kvAsStructured]; only touched on the logging thread
+  private final PolyfillLoggingEvent[] views = new PolyfillLoggingEvent[4];
+  private LoggingEventSnapshot exceptionAttributesView;
+
+  @SuppressWarnings("deprecation")
+  private LoggingEventSnapshot(ILoggingEvent event, Map<String, String> mdcPropertyMap,
+      StackTraceRenderer.Rendering exceptionRendering, IThrowableProxy throwableProxy,
+      List<KeyValuePair> keyValuePairs) {
+    this.threadName = event.getThreadName();
+    this.level = event.getLevel();
+    this.message = event.getMessage();
+    this.argumentArray = event.getArgumentArray();
+    this.formattedMessage = event.getFormattedMessage();
+    this.loggerName = event.getLoggerName();
+    LoggerContextVO oldVo = event.getLoggerContextVO();
+    this.loggerContextVO = oldVo != null
+        ? new LoggerContextVO(oldVo.getName(), mdcPropertyMap, oldVo.getBirthTime())
+        : null;
+    this.throwableProxy = throwableProxy;
+    // CallerDataAppender (if attached first) has already put a cheap value here
+    this.callerData = event.getCallerData();
+    this.markerList = event.getMarkerList();
+    this.mdcPropertyMap = mdcPropertyMap;
+    this.mdc = event.getMdc();
+    this.timeStamp = event.getTimeStamp();
+    this.nanoseconds = event.getNanoseconds();
+    this.instant = event.getInstant();
+    this.sequenceNumber = event.getSequenceNumber();
+    this.keyValuePairs = keyValuePairs;
+    this.exceptionRendering = exceptionRendering;
+  }
+
+  /**
+   * Resolves an event against the current OTel context.
+   *
+   * @param addBaggage True to add baggage entries to MDC as "baggage.key"
+   * @param stackTraceRenderer Renders (or, after the first occurrence, summarizes) the
+   *     exception once for every sink
+   */
+  public static LoggingEventSnapshot capture(ILoggingEvent event, Context context,
+      BaggageAttributeConverter baggageConverter, boolean addBaggage,
+      StackTraceRenderer stackTraceRenderer) {
+    IThrowableProxy throwableProxy = event.getThrowableProxy();
+    StackTraceRenderer.Rendering rendering = throwableProxy != null
+        ? stackTraceRenderer.render(throwableProxy)
+        : null;
+    Map<String, String> eventContext = event.getMDCPropertyMap();
+    // context may already have been added upstream
+    boolean hasContext = eventContext != null && eventContext.containsKey("trace_id");
+    if (hasContext && rendering == null) {
+      return new LoggingEventSnapshot(event, eventContext, null, null, event.getKeyValuePairs());
+    }
+
+    Map<String, String> contextData = new HashMap<>();
+    if (!hasContext) {
+      SpanContext spanContext = Span.fromContext(context).getSpanContext();
+      if (spanContext.isValid()) {
+        contextData.put("trace_id", spanContext.getTraceId());
+        contextData.put("span_id", spanContext.getSpanId());
+        contextData.put("trace_flags", spanContext.getTraceFlags().asHex());
+      }
+      if (addBaggage) {
+        Baggage.fromContext(context).forEach((key, value) -> {
+          if (baggageConverter.isIncluded(key)) {
+            contextData.put(baggageConverter.attributeKey(key).getKey(), value.getValue());
+          }
+        });
+      }
+    }
+    if (rendering != null) {
+      contextData.put(StackTraceRenderer.FINGERPRINT, rendering.getFingerprint());
+      if (!rendering.isStackTraceIncluded() && rendering.getMessage() != null) {
+        contextData.put(SemanticAttributes.EXCEPTION_MESSAGE.getKey(), rendering.getMessage());
+      }
+    }
+    return new LoggingEventSnapshot(event,
+        eventContext == null ? contextData : new UnionMap<>(eventContext, contextData),
+        rendering, throwableProxy, event.getKeyValuePairs());
+  }
+
+  /**
+   * @return the snapshot behind an event, unwrapping PolyfillAppender views, or null
+   */
+  public static LoggingEventSnapshot of(ILoggingEvent event) {
+    if (event instanceof PolyfillLoggingEvent) {
+      event = ((PolyfillLoggingEvent) event).getDelegate();
+    }
+    return event instanceof LoggingEventSnapshot ? (LoggingEventSnapshot) event : null;
+  }
+
+  // shared PolyfillAppender view for one key/value configuration
+  ILoggingEvent view(boolean addKeyValuePairsAsMDC, boolean addKeyValuePairsAsStructured) {
+    if (!addKeyValuePairsAsMDC && !addKeyValuePairsAsStructured) {
+      return this;
+    }
+    int index = (addKeyValuePairsAsMDC ? 2 : 0) + (addKeyValuePairsAsStructured ? 1 : 0);
+    PolyfillLoggingEvent view = views[index];
+    if (view == null) {
+      view = new PolyfillLoggingEvent(this, addKeyValuePairsAsMDC, addKeyValuePairsAsStructured);
+      // resolve eagerly so async workers never race on lazy state
+      view.prepareForDeferredProcessing();
+      views[index] = view;
+    }
+    return view;
+  }
+
+  /**
+   * @return the exception's rendering, or null if the event has no exception
+   */
+  public StackTraceRenderer.Rendering getExceptionRendering() {
+    return exceptionRendering;
+  }
+
+  /*
+   * View for the OTel logback appender: it would render the throwable itself, so the
+   * exception is hidden and handed over as exception.* key/values (captured as attributes
+   * with captureKeyValuePairAttributes) from the shared rendering instead
+   */
+  ILoggingEvent exceptionAttributesView() {
+    if (exceptionRendering == null) {
+      return this;
+    }
+    LoggingEventSnapshot view = exceptionAttributesView;
+    if (view == null) {
+      List<KeyValuePair> exceptionKeyValuePairs = new ArrayList<>();
+      if (keyValuePairs != null) {
+        exceptionKeyValuePairs.addAll(keyValuePairs);
+      }
+      exceptionKeyValuePairs.add(new KeyValuePair(SemanticAttributes.EXCEPTION_TYPE.getKey(),
+          exceptionRendering.getType()));
+      if (exceptionRendering.getMessage() != null) {
+        exceptionKeyValuePairs.add(new KeyValuePair(
+            SemanticAttributes.EXCEPTION_MESSAGE.getKey(), exceptionRendering.getMessage()));
+      }
+      if (exceptionRendering.isStackTraceIncluded()) {
+        exceptionKeyValuePairs.add(new KeyValuePair(
+            SemanticAttributes.EXCEPTION_STACKTRACE.getKey(),
+            exceptionRendering.getJavaStackTrace()));
+      }
+      exceptionKeyValuePairs.add(new KeyValuePair(StackTraceRenderer.FINGERPRINT,
+          exceptionRendering.getFingerprint()));
+      view = new LoggingEventSnapshot(this, mdcPropertyMap, exceptionRendering, null,
+          exceptionKeyValuePairs);
+      exceptionAttributesView = view;
+    }
+    return view;
+  }
+
+  @Override
+  public String getThreadName() {
+    return threadName;
+  }
+
+  @Override
+  public Level getLevel() {
+    return level;
+  }
+
+  @Override
+  public String getMessage() {
+    return message;
+  }
+
+  @Override
+  public Object[] getArgumentArray() {
+    return argumentArray;
+  }
+
+  @Override
+  public String getFormattedMessage() {
+    return formattedMessage;
+  }
+
+  @Override
+  public String getLoggerName() {
+    return loggerName;
+  }
+
+  @Override
+  public LoggerContextVO getLoggerContextVO() {
+    return loggerContextVO;
+  }
+
+  @Override
+  public IThrowableProxy getThrowableProxy() {
+    return throwableProxy;
+  }
+
+  @Override
+  public StackTraceElement[] getCallerData() {
+    return callerData;
+  }
+
+  @Override
+  public boolean hasCallerData() {
+    return callerData != null;
+  }
+
+  @Override
+  public List<Marker> getMarkerList() {
+    return markerList;
+  }
+
+  @Override
+  public Map<String, String> getMDCPropertyMap() {
+    return mdcPropertyMap;
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public Map<String, String> getMdc() {
+    return mdc;
+  }
+
+  @Override
+  public long getTimeStamp() {
+    return timeStamp;
+  }
+
+  @Override
+  public int getNanoseconds() {
+    return nanoseconds;
+  }
+
+  @Override
+  public Instant getInstant() {
+    return instant;
+  }
+
+  @Override
+  public long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  @Override
+  public List<KeyValuePair> getKeyValuePairs() {
+    return keyValuePairs;
+  }
+
+  @Override
+  public void prepareForDeferredProcessing() {
+    // already fully resolved
+  }
+}
@@ -0,0 +1,341 @@
+package com.tb93.otel.batteries;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.logs.export.LogRecordExporter;
+import io.opentelemetry.sdk.metrics.Aggregation;
+import io.opentelemetry.sdk.metrics.InstrumentSelector;
+import io.opentelemetry.sdk.metrics.SdkMeterProviderBuilder;
+import io.opentelemetry.sdk.metrics.View;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+/*
+ * Self-telemetry of the logging pipeline, published through the app's MeterProvider
+ * Components bind their metrics when they start, which for logback appenders is before the
+ * SDK exists: timers record nothing until install(), and counters and queue depths are the
+ * components' own LongAdders, read in collection callbacks. The hot path pays for two
+ * nanoTime calls and one histogram record against a pre-bound attribute set, nothing else
+ */
+public final class LoggingTelemetry {
+    public enum Kind {
+        TIMER, COUNTER, UP_DOWN_COUNTER
+    }
+
+    public enum Metric {
+        APPENDER_DURATION("logging.appender.duration", Kind.TIMER, "ns",
+                "Time spent in an appender, including the appenders attached to it"),
+        WRAP_DURATION("logging.polyfill.wrap.duration", Kind.TIMER, "ns",
+                "Time spent in PolyfillAppender.wrapEvent"),
+        BAGGAGE_DURATION("logging.baggage.duration", Kind.TIMER, "ns",
+                "Time spent copying baggage onto a log record or span"),
+        EXPORT_DURATION("logging.export.duration", Kind.TIMER, "ns",
+                "Duration of an OTLP export call"),
+        SINK_EVENTS("logging.sink.events", Kind.COUNTER, "1",
+                "Events written by a sink"),
+        SINK_BYTES("logging.sink.bytes", Kind.COUNTER, "By",
+                "Bytes written by a sink"),
+        DROPPED("logging.dropped", Kind.COUNTER, "1",
+                "Events dropped (or collapsed) by a pipeline component"),
+        EXPORT_FAILURES("logging.export.failures", Kind.COUNTER, "1",
+                "Failed OTLP export calls"),
+        QUEUE_DEPTH("logging.queue.depth", Kind.UP_DOWN_COUNTER, "1",
+                "Events waiting in a queue"),
+        TRACKED_SPANS("logging.span_events.tracked_spans", Kind.UP_DOWN_COUNTER, "1",
+                "Open spans tracked for log records to attach to");
+
+        private final String name;
+        private final Kind kind;
+        private final String unit;
+        private final String description;
+
+        Metric(String name, Kind kind, String unit, String description) {
+            this.name = name;
+            this.kind = kind;
+            this.unit = unit;
+            this.description = description;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static final AttributeKey<String> APPENDER = AttributeKey.stringKey("appender");
+    public static final AttributeKey<String> SINK = AttributeKey.stringKey("sink");
+    public static final AttributeKey<String> COMPONENT = AttributeKey.stringKey("component");
+    public static final AttributeKey<String> REASON = AttributeKey.stringKey("reason");
+    public static final AttributeKey<String> QUEUE = AttributeKey.stringKey("queue");
+    public static final AttributeKey<String> SIGNAL = AttributeKey.stringKey("signal");
+
+    public static final String INSTRUMENTATION_SCOPE = "com.tb93.otel.batteries";
+
+    // appends take microseconds, exports up to seconds
+    private static final List<Double> DURATION_BUCKETS = List.of(
+            250d, 500d, 1_000d, 2_500d, 5_000d, 10_000d, 25_000d, 50_000d, 100_000d, 250_000d,
+            500_000d, 1_000_000d, 10_000_000d, 100_000_000d, 1_000_000_000d, 10_000_000_000d);
+
+    private static final LoggingTelemetry GLOBAL = new LoggingTelemetry();
+
+    private final Collection<Timer> timers = new CopyOnWriteArrayList<>();
+    private final Map<Metric, Collection<Source>> sources = new EnumMap<>(Metric.class);
+    // guarded by this
+    private Map<Metric, LongHistogram> histograms;
+
+    // package-private for tests, which need an instance that is not installed yet
+    LoggingTelemetry() {
+        for (Metric metric : Metric.values()) {
+            if (metric.kind != Kind.TIMER) {
+                sources.put(metric, new CopyOnWriteArrayList<>());
+            }
+        }
+    }
+
+    /** The instance every component registers with. */
+    public static LoggingTelemetry getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * Sets histogram buckets suited to the pipeline's durations (the SDK defaults are meant for
+     * milliseconds).
+     */
+    public static SdkMeterProviderBuilder registerViews(SdkMeterProviderBuilder builder) {
+        for (Metric metric : Metric.values()) {
+            if (metric.kind == Kind.TIMER) {
+                builder.registerView(
+                        InstrumentSelector.builder()
+                                .setMeterName(INSTRUMENTATION_SCOPE)
+                                .setName(metric.name)
+                                .build(),
+                        View.builder()
+                                .setAggregation(Aggregation.explicitBucketHistogram(DURATION_BUCKETS))
+                                .build());
+            }
+        }
+        return builder;
+    }
+
+    /** Publishes every metric registered so far, and any registered later, to meterProvider. */
+    public synchronized void install(MeterProvider meterProvider) {
+        if (histograms != null) {
+            return;
+        }
+        Meter meter = meterProvider.get(INSTRUMENTATION_SCOPE);
+        Map<Metric, LongHistogram> created = new EnumMap<>(Metric.class);
+        for (Metric metric : Metric.values()) {
+            switch (metric.kind) {
+                case TIMER:
+                    created.put(metric, meter.histogramBuilder(metric.name)
+                            .setDescription(metric.description)
+                            .setUnit(metric.unit)
+                            .ofLongs()
+                            .build());
+                    break;
+                case COUNTER:
+                    meter.counterBuilder(metric.name)
+                            .setDescription(metric.description)
+                            .setUnit(metric.unit)
+                            .buildWithCallback(measurement -> observe(metric, measurement));
+                    break;
+                default:
+                    meter.upDownCounterBuilder(metric.name)
+                            .setDescription(metric.description)
+                            .setUnit(metric.unit)
+                            .buildWithCallback(measurement -> observe(metric, measurement));
+                    break;
+            }
+        }
+        histograms = created;
+        for (Timer timer : timers) {
+            timer.histogram = created.get(timer.metric);
+        }
+    }
+
+    private void observe(Metric metric, ObservableLongMeasurement measurement) {
+        for (Source source : sources.get(metric)) {
+            measurement.record(source.value.getAsLong(), source.attributes);
+        }
+    }
+
+    /** @return a timer for a TIMER metric, recording once install() has run */
+    public synchronized Timer timer(Metric metric, Attributes attributes) {
+        if (metric.kind != Kind.TIMER) {
+            throw new IllegalArgumentException(metric.name + " is not a timer");
+        }
+        Timer timer = new Timer(metric, attributes);
+        if (histograms != null) {
+            timer.histogram = histograms.get(metric);
+        }
+        timers.add(timer);
+        return timer;
+    }
+
+    /**
+     * Publishes value, read at collection time, for a COUNTER (monotonic) or UP_DOWN_COUNTER
+     * metric.
+     */
+    public Registration observe(Metric metric, Attributes attributes, LongSupplier value) {
+        if (metric.kind == Kind.TIMER) {
+            throw new IllegalArgumentException(metric.name + " is not observable");
+        }
+        Source source = new Source(metric, attributes, value);
+        sources.get(metric).add(source);
+        return source;
+    }
+
+    /**
+     * Reads the current value of every registered source of a COUNTER or UP_DOWN_COUNTER
+     * metric, e.g. for a report outside the metrics pipeline.
+     */
+    public void read(Metric metric, ObjLongConsumer<Attributes> consumer) {
+        if (metric.kind == Kind.TIMER) {
+            throw new IllegalArgumentException(metric.name + " is not observable");
+        }
+        for (Source source : sources.get(metric)) {
+            consumer.accept(source.attributes, source.value.getAsLong());
+        }
+    }
+
+    /** Records EXPORT_DURATION and EXPORT_FAILURES of an exporter. */
+    public SpanExporter timed(SpanExporter exporter, String signal) {
+        ExportTimer timer = new ExportTimer(signal);
+        return new SpanExporter() {
+            @Override
+            public CompletableResultCode export(Collection<SpanData> spans) {
+                return timer.record(() -> exporter.export(spans));
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return exporter.flush();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                timer.close();
+                return exporter.shutdown();
+            }
+        };
+    }
+
+    /** Records EXPORT_DURATION and EXPORT_FAILURES of an exporter. */
+    public LogRecordExporter timed(LogRecordExporter exporter, String signal) {
+        ExportTimer timer = new ExportTimer(signal);
+        return new LogRecordExporter() {
+            @Override
+            public CompletableResultCode export(Collection<LogRecordData> logs) {
+                return timer.record(() -> exporter.export(logs));
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return exporter.flush();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                timer.close();
+                return exporter.shutdown();
+            }
+        };
+    }
+
+    /** Unpublishes a metric, e.g. when its component stops. */
+    public interface Registration {
+        void close();
+    }
+
+    /** Duration histogram with a pre-bound attribute set. */
+    public final class Timer implements Registration {
+        private final Metric metric;
+        private final Attributes attributes;
+        private volatile LongHistogram histogram;
+
+        private Timer(Metric metric, Attributes attributes) {
+            this.metric = metric;
+            this.attributes = attributes;
+        }
+
+        /** @return the start time to pass to stop(), or 0 while not installed */
+        public long start() {
+            return histogram != null ? System.nanoTime() : 0;
+        }
+
+        public void stop(long start) {
+            LongHistogram bound = histogram;
+            if (bound != null && start != 0) {
+                bound.record(System.nanoTime() - start, attributes);
+            }
+        }
+
+        @Override
+        public void close() {
+            timers.remove(this);
+        }
+    }
+
+    private final class Source implements Registration {
+        final Metric metric;
+        final Attributes attributes;
+        final LongSupplier value;
+
+        Source(Metric metric, Attributes attributes, LongSupplier value) {
+            this.metric = metric;
+            this.attributes = attributes;
+            this.value = value;
+        }
+
+        @Override
+        public void close() {
+            sources.get(metric).remove(this);
+        }
+    }
+
+    // exports complete asynchronously, so this costs one callback per batch
+    private final class ExportTimer {
+        private final Timer timer;
+        private final LongAdder failures = new LongAdder();
+        private final Registration failureRegistration;
+
+        ExportTimer(String signal) {
+            Attributes attributes = Attributes.of(SIGNAL, signal);
+            this.timer = timer(Metric.EXPORT_DURATION, attributes);
+            this.failureRegistration = observe(Metric.EXPORT_FAILURES, attributes, failures::sum);
+        }
+
+        CompletableResultCode record(Supplier<CompletableResultCode> export) {
+            // started before export() so its synchronous part (marshaling, or all of it) counts
+            long start = timer.start();
+            CompletableResultCode result = export.get();
+            result.whenComplete(() -> {
+                timer.stop(start);
+                if (!result.isSuccess()) {
+                    failures.increment();
+                }
+            });
+            return result;
+        }
+
+        void close() {
+            timer.close();
+            failureRegistration.close();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.tb93.otel.batteries;
+
+/*
+ * Encodes each event as one line of OTLP/JSON: an ExportLogsServiceRequest holding the
+ * resource, the logger as instrumentation scope and one LogRecord, as read by the
+ * collector's otlpjsonfile receiver without any operators
+ * trace_id, span_id and trace_flags are taken from MDC (put there by SnapshotAppender or the
+ * OTel MDC appender) into the record's traceId, spanId and flags; every other MDC entry
+ * (baggage.*, exception.fingerprint, ...) and every key/value pair becomes an attribute
+ * under its own name. Exceptions come from the snapshot's StackTraceRenderer rendering, with
+ * exception.type and exception.message already split out of the stack trace
+ * The resource and the JSON around the record are encoded once at start; records are written
+ * into pooled scratch buffers, so a line costs one byte[] allocation
+ */
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.core.encoder.EncoderBase;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.AttributeType;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.slf4j.event.KeyValuePair;
+
+public class OtlpJsonEncoder extends EncoderBase<ILoggingEvent> {
+  // scratch buffers that grew past this are not pooled again
+  private static final int MAX_POOLED_LINE = 64 * 1024;
+  private static final String EXCEPTION_PREFIX = "exception.";
+
+  private String serviceName;
+  private boolean captureCodeAttributes;
+  private boolean captureKeyValuePairAttributes = true;
+
+  // {"resourceLogs":[{"resource":{...},"scopeLogs":[{"scope":{"name":
+  private byte[] prefix;
+  private final AtomicReferenceArray<JsonWriter> writers;
+  private final int writerMask;
+
+  public OtlpJsonEncoder() {
+    int size = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+    this.writers = new AtomicReferenceArray<>(size);
+    this.writerMask = size - 1;
+  }
+
+  /**
+   * service.name of the Resource; the rest of it is the SDK's default Resource.
+   * {@code <serviceName>${OTEL_SERVICE_NAME}</serviceName>}
+   *
+   * @param serviceName The service name
+   */
+  public void setServiceName(String serviceName) {
+    this.serviceName = serviceName;
+  }
+
+  /**
+   * Adds code.namespace, code.function, code.filepath and code.lineno from caller data.
+   *
+   * @param captureCodeAttributes True to add code attributes
+   */
+  public void setCaptureCodeAttributes(boolean captureCodeAttributes) {
+    this.captureCodeAttributes = captureCodeAttributes;
+  }
+
+  /**
+   * Adds slf4j key/value pairs as attributes; numbers and booleans keep their JSON type.
+   * Defaults to true.
+   *
+   * @param captureKeyValuePairAttributes True to add key/value pairs
+   */
+  public void setCaptureKeyValuePairAttributes(boolean captureKeyValuePairAttributes) {
+    this.captureKeyValuePairAttributes = captureKeyValuePairAttributes;
+  }
+
+  @Override
+  public void start() {
+    Resource resource = Resource.getDefault();
+    if (serviceName != null && !serviceName.isBlank()) {
+      resource = resource.merge(Resource.create(
+          Attributes.of(ResourceAttributes.SERVICE_NAME, serviceName.trim())));
+    }
+    JsonWriter json = new JsonWriter(512);
+    json.writeRaw("{\"resourceLogs\":[{\"resource\":{\"attributes\":[");
+    boolean[] first = {true};
+    resource.getAttributes().forEach((key, value) -> {
+      if (!first[0]) {
+        json.write(',');
+      }
+      first[0] = false;
+      writeResourceAttribute(json, key, value);
+    });
+    json.writeRaw("]},");
+    if (resource.getSchemaUrl() != null) {
+      json.writeRaw("\"schemaUrl\":");
+      json.writeString(resource.getSchemaUrl());
+      json.write(',');
+    }
+    json.writeRaw("\"scopeLogs\":[{\"scope\":{\"name\":");
+    prefix = json.toByteArray();
+    super.start();
+  }
+
+  private static void writeResourceAttribute(JsonWriter json, AttributeKey<?> key, Object value) {
+    json.writeRaw("{\"key\":");
+    json.writeString(key.getKey());
+    json.writeRaw(",\"value\":");
+    if (key.getType() == AttributeType.LONG) {
+      writeLongValue(json, (Long) value);
+    } else if (key.getType() == AttributeType.BOOLEAN || key.getType() == AttributeType.DOUBLE) {
+      writeScalarValue(json, value);
+    } else {
+      writeStringValue(json, String.valueOf(value));
+    }
+    json.write('}');
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return null;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return null;
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    int slot = (int) Thread.currentThread().getId() & writerMask;
+    JsonWriter json = writers.getAndSet(slot, null);
+    if (json == null) {
+      json = new JsonWriter(1024);
+    }
+    try {
+      json.clear();
+      writeLine(json, event);
+      return json.toByteArray();
+    } finally {
+      if (json.capacity() <= MAX_POOLED_LINE) {
+        writers.lazySet(slot, json);
+      }
+    }
+  }
+
+  private void writeLine(JsonWriter json, ILoggingEvent event) {
+    json.write(prefix);
+    String loggerName = event.getLoggerName();
+    json.writeString(loggerName == null || loggerName.isEmpty() ? "ROOT" : loggerName);
+    json.writeRaw("},\"logRecords\":[{");
+
+    Instant instant = event.getInstant();
+    json.writeRaw("\"timeUnixNano\":\"");
+    if (instant != null) {
+      json.writeLong(instant.getEpochSecond() * 1_000_000_000L + instant.getNano());
+    } else {
+      json.writeLong(event.getTimeStamp() * 1_000_000L);
+    }
+    json.write('"');
+    Level level = event.getLevel();
+    if (level != null) {
+      json.writeRaw(",\"severityNumber\":");
+      json.writeLong(OtlpProtobufAppender.severity(level).getSeverityNumber());
+      json.writeRaw(",\"severityText\":");
+      json.writeString(level.levelStr);
+    }
+    json.writeRaw(",\"body\":");
+    String message = event.getFormattedMessage();
+    writeStringValue(json, message != null ? message : "");
+
+    json.writeRaw(",\"attributes\":[");
+    boolean first = true;
+    Map<String, String> mdc = event.getMDCPropertyMap();
+    IThrowableProxy throwableProxy = event.getThrowableProxy();
+    StackTraceRenderer.Rendering rendering = null;
+    if (throwableProxy != null) {
+      LoggingEventSnapshot snapshot = LoggingEventSnapshot.of(event);
+      rendering = snapshot != null ? snapshot.getExceptionRendering() : null;
+      if (rendering == null) {
+        rendering = StackTraceRenderer.getDefault().render(throwableProxy);
+      }
+      first = writeStringAttribute(json, first, SemanticAttributes.EXCEPTION_TYPE.getKey(),
+          rendering.getType());
+      if (rendering.getMessage() != null) {
+        first = writeStringAttribute(json, first, SemanticAttributes.EXCEPTION_MESSAGE.getKey(),
+            rendering.getMessage());
+      }
+      if (rendering.isStackTraceIncluded()) {
+        first = writeStringAttribute(json, first, SemanticAttributes.EXCEPTION_STACKTRACE.getKey(),
+            rendering.getStackTrace());
+      }
+      first = writeStringAttribute(json, first, StackTraceRenderer.FINGERPRINT,
+          rendering.getFingerprint());
+    }
+    if (mdc != null) {
+      for (Map.Entry<String, String> entry : mdc.entrySet()) {
+        String key = entry.getKey();
+        if (key == null || entry.getValue() == null || isRecordField(key)
+            || (rendering != null && key.startsWith(EXCEPTION_PREFIX))) {
+          continue;
+        }
+        first = writeStringAttribute(json, first, key, entry.getValue());
+      }
+    }
+    if (captureCodeAttributes) {
+      StackTraceElement[] callerData = event.getCallerData();
+      if (callerData != null && callerData.length > 0) {
+        StackTraceElement caller = callerData[0];
+        first = writeStringAttribute(json, first, SemanticAttributes.CODE_NAMESPACE.getKey(),
+            caller.getClassName());
+        first = writeStringAttribute(json, first, SemanticAttributes.CODE_FUNCTION.getKey(),
+            caller.getMethodName());
+        if (caller.getFileName() != null) {
+          first = writeStringAttribute(json, first, SemanticAttributes.CODE_FILEPATH.getKey(),
+              caller.getFileName());
+        }
+        if (caller.getLineNumber() > 0) {
+          first = writeKey(json, first, SemanticAttributes.CODE_LINENO.getKey());
+          writeLongValue(json, caller.getLineNumber());
+          json.write('}');
+        }
+      }
+    }
+    if (captureKeyValuePairAttributes) {
+      List<KeyValuePair> keyValuePairs = event.getKeyValuePairs();
+      if (keyValuePairs != null) {
+        for (KeyValuePair keyValuePair : keyValuePairs) {
+          if (keyValuePair.key == null || keyValuePair.value == null) {
+            continue;
+          }
+          first = writeKey(json, first, keyValuePair.key);
+          writeObjectValue(json, keyValuePair.value);
+          json.write('}');
+        }
+      }
+    }
+    json.write(']');
+
+    if (mdc != null) {
+      String traceFlags = mdc.get("trace_flags");
+      if (traceFlags != null && traceFlags.length() == 2) {
+        json.writeRaw(",\"flags\":");
+        json.writeLong(Character.digit(traceFlags.charAt(0), 16) << 4
+            | Character.digit(traceFlags.charAt(1), 16));
+      }
+      String traceId = mdc.get("trace_id");
+      String spanId = mdc.get("span_id");
+      if (traceId != null && spanId != null) {
+        json.writeRaw(",\"traceId\":");
+        json.writeString(traceId);
+        json.writeRaw(",\"spanId\":");
+        json.writeString(spanId);
+      }
+    }
+    json.writeRaw("}]}]}]}\n");
+  }
+
+  private static boolean isRecordField(String key) {
+    return "trace_id".equals(key) || "span_id".equals(key) || "trace_flags".equals(key);
+  }
+
+  // {"key":"...","value": (value and closing brace follow)
+  private static boolean writeKey(JsonWriter json, boolean first, String key) {
+    if (!first) {
+      json.write(',');
+    }
+    json.writeRaw("{\"key\":");
+    json.writeString(key);
+    json.writeRaw(",\"value\":");
+    return false;
+  }
+
+  private static boolean writeStringAttribute(JsonWriter json, boolean first, String key,
+      String value) {
+    writeKey(json, first, key);
+    writeStringValue(json, value);
+    json.write('}');
+    return false;
+  }
+
+  private static void writeStringValue(JsonWriter json, String value) {
+    json.writeRaw("{\"stringValue\":");
+    json.writeString(value);
+    json.write('}');
+  }
+
+  // int64 is a JSON string in OTLP/JSON
+  private static void writeLongValue(JsonWriter json, long value) {
+    json.writeRaw("{\"intValue\":\"");
+    json.writeLong(value);
+    json.writeRaw("\"}");
+  }
+
+  private static void writeScalarValue(JsonWriter json, Object value) {
+    if (value instanceof Boolean) {
+      json.writeRaw((Boolean) value ? "{\"boolValue\":true}" : "{\"boolValue\":false}");
+      return;
+    }
+    double number = ((Number) value).doubleValue();
+    json.writeRaw("{\"doubleValue\":");
+    if (Double.isFinite(number)) {
+      json.writeRaw(Double.toString(number));
+    } else {
+      // protobuf JSON spells these as strings
+      json.writeString(Double.isNaN(number) ? "NaN" : number > 0 ? "Infinity" : "-Infinity");
+    }
+    json.write('}');
+  }
+
+  private static void writeObjectValue(JsonWriter json, Object value) {
+    if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      writeLongValue(json, ((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float || value instanceof Boolean) {
+      writeScalarValue(json, value);
+    } else {
+      writeStringValue(json, value.toString());
+    }
+  }
+}
@@ -0,0 +1,940 @@
+package com.tb93.otel.batteries;
+
+/*
+ * Model 1 without the SDK in the middle: serializes logback events straight into OTLP
+ * ExportLogsServiceRequest protobuf
+ * Produces the same records as the OpenTelemetryAppender (with the same capture* settings)
+ * followed by the SDK's BatchLogRecordProcessor and OTLP exporter, but each event is encoded
+ * once, on the calling thread, into a pooled scratch buffer and copied into a pooled batch
+ * buffer grouped by logger (scope). The Resource and scope messages are encoded once and
+ * reused by every batch. A single exporter thread sends full batches, and whatever is
+ * pending every scheduleDelay, over gRPC or HTTP/protobuf
+ * SDK LogRecordProcessors (sampling, burst collapsing) are not applied on this path
+ */
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import io.opentelemetry.api.baggage.Baggage;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.exporter.internal.marshal.Marshaler;
+import io.opentelemetry.exporter.internal.otlp.InstrumentationScopeMarshaler;
+import io.opentelemetry.exporter.internal.otlp.ResourceMarshaler;
+import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import okio.BufferedSink;
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+public class OtlpProtobufAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+  // the SDK's default LogLimits
+  private static final int MAX_ATTRIBUTES = 128;
+  // scopes (logger names) whose encoding is cached, per appender and per batch
+  private static final int MAX_SCOPES = 1024;
+  // scratch buffers that grew past this are not pooled again
+  private static final int MAX_POOLED_RECORD = 64 * 1024;
+  private static final String MDC_PREFIX = "logback.mdc.";
+
+  private String endpoint = "http://localhost:4317";
+  private String protocol = "grpc";
+  private String serviceName;
+  private int timeout = 10000;
+  private int maxExportBatchSize = 512;
+  private int maxQueueSize = 2048;
+  private int scheduleDelay = 1000;
+  private boolean captureExperimentalAttributes;
+  private boolean captureCodeAttributes;
+  private boolean captureMarkerAttribute;
+  private boolean captureKeyValuePairAttributes;
+  private List<String> captureMdcAttributes = List.of();
+  private boolean captureAllMdcAttributes;
+  private boolean addBaggage;
+  private BaggageAttributeConverter baggageConverter = BaggageAttributeConverter.getDefault();
+
+  private OtlpTransport transport;
+  private byte[] resource;
+  private byte[] resourceSchemaUrl;
+  private final ConcurrentHashMap<String, byte[]> scopes = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, String> mdcKeys = new ConcurrentHashMap<>();
+  private final AtomicReferenceArray<RecordEncoder> encoders;
+  private final int encoderMask;
+
+  private final ReentrantLock batchLock = new ReentrantLock();
+  private final Condition batchReady = batchLock.newCondition();
+  // guarded by batchLock
+  private Batch filling;
+  private final ArrayDeque<Batch> ready = new ArrayDeque<>();
+  private final ArrayDeque<Batch> free = new ArrayDeque<>();
+  private boolean stopping;
+  private Thread exporter;
+  private Thread shutdownHook;
+
+  private final LongAdder exportedCount = new LongAdder();
+  private final LongAdder exportedBytes = new LongAdder();
+  private final LongAdder droppedCount = new LongAdder();
+  private final LongAdder failedCount = new LongAdder();
+  private final LongAdder failedExports = new LongAdder();
+  private LoggingTelemetry.Timer appendTimer;
+  private LoggingTelemetry.Timer exportTimer;
+  private List<LoggingTelemetry.Registration> registrations = List.of();
+
+  public OtlpProtobufAppender() {
+    int size = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+    this.encoders = new AtomicReferenceArray<>(size);
+    this.encoderMask = size - 1;
+  }
+
+  /**
+   * OTLP endpoint. Defaults to http://localhost:4317.
+   * {@code <endpoint>${OTEL_EXPORTER_OTLP_ENDPOINT}</endpoint>}
+   *
+   * @param endpoint Base URL of the collector
+   */
+  public void setEndpoint(String endpoint) {
+    if (endpoint != null && !endpoint.isBlank()) {
+      this.endpoint = endpoint.trim();
+    }
+  }
+
+  /**
+   * OTLP protocol: grpc (default) or http/protobuf.
+   *
+   * @param protocol Protocol name, as in OTEL_EXPORTER_OTLP_PROTOCOL
+   */
+  public void setProtocol(String protocol) {
+    if (protocol != null && !protocol.isBlank()) {
+      this.protocol = protocol;
+    }
+  }
+
+  /**
+   * service.name of the Resource; the rest of it is the SDK's default Resource.
+   * {@code <serviceName>${OTEL_SERVICE_NAME}</serviceName>}
+   *
+   * @param serviceName The service name
+   */
+  public void setServiceName(String serviceName) {
+    this.serviceName = serviceName;
+  }
+
+  /**
+   * Timeout of one export request, in milliseconds. Defaults to 10000.
+   *
+   * @param timeout Timeout in milliseconds
+   */
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Records per export request. Defaults to 512, like the BatchLogRecordProcessor.
+   *
+   * @param maxExportBatchSize Records per batch
+   */
+  public void setMaxExportBatchSize(int maxExportBatchSize) {
+    this.maxExportBatchSize = maxExportBatchSize;
+  }
+
+  /**
+   * Records held in memory, counting the batch being sent; newer records are dropped beyond
+   * it. Defaults to 2048, like the BatchLogRecordProcessor.
+   *
+   * @param maxQueueSize Records queued
+   */
+  public void setMaxQueueSize(int maxQueueSize) {
+    this.maxQueueSize = maxQueueSize;
+  }
+
+  /**
+   * Send whatever is pending at least this often, in milliseconds. Defaults to 1000.
+   *
+   * @param scheduleDelay Upper bound on how long a record waits in memory
+   */
+  public void setScheduleDelay(int scheduleDelay) {
+    this.scheduleDelay = scheduleDelay;
+  }
+
+  /**
+   * Same as the OpenTelemetryAppender setting: adds thread.name and thread.id.
+   *
+   * @param captureExperimentalAttributes True to add thread attributes
+   */
+  public void setCaptureExperimentalAttributes(boolean captureExperimentalAttributes) {
+    this.captureExperimentalAttributes = captureExperimentalAttributes;
+  }
+
+  /**
+   * Same as the OpenTelemetryAppender setting: adds code.* attributes from caller data.
+   *
+   * @param captureCodeAttributes True to add code attributes
+   */
+  public void setCaptureCodeAttributes(boolean captureCodeAttributes) {
+    this.captureCodeAttributes = captureCodeAttributes;
+  }
+
+  /**
+   * Same as the OpenTelemetryAppender setting: adds logback.marker.
+   *
+   * @param captureMarkerAttribute True to add marker names
+   */
+  public void setCaptureMarkerAttribute(boolean captureMarkerAttribute) {
+    this.captureMarkerAttribute = captureMarkerAttribute;
+  }
+
+  /**
+   * Same as the OpenTelemetryAppender setting: adds slf4j key/value pairs as attributes.
+   *
+   * @param captureKeyValuePairAttributes True to add key/value pairs
+   */
+  public void setCaptureKeyValuePairAttributes(boolean captureKeyValuePairAttributes) {
+    this.captureKeyValuePairAttributes = captureKeyValuePairAttributes;
+  }
+
+  public boolean isCaptureKeyValuePairAttributes() {
+    return captureKeyValuePairAttributes;
+  }
+
+  /**
+   * Same as the OpenTelemetryAppender setting: comma separated MDC keys to add as
+   * logback.mdc.* attributes, or * for all of them.
+   *
+   * @param attributes MDC keys
+   */
+  public void setCaptureMdcAttributes(String attributes) {
+    List<String> keys = new ArrayList<>();
+    if (attributes != null) {
+      for (String key : attributes.split(",")) {
+        if (!key.isBlank()) {
+          keys.add(key.trim());
+        }
+      }
+    }
+    this.captureMdcAttributes = List.copyOf(keys);
+    this.captureAllMdcAttributes = keys.size() == 1 && "*".equals(keys.get(0));
+  }
+
+  /**
+   * When set to true, baggage is added as "baggage.key" attributes, like the
+   * AddBaggageLogProcessor does for records going through the SDK.
+   *
+   * @param addBaggage True to add baggage
+   */
+  public void setAddBaggage(boolean addBaggage) {
+    this.addBaggage = addBaggage;
+  }
+
+  public void setBaggageConverter(BaggageAttributeConverter baggageConverter) {
+    this.baggageConverter = baggageConverter;
+  }
+
+  @Override
+  public void start() {
+    OtlpTransport.Wire wire;
+    try {
+      wire = OtlpTransport.Wire.of(protocol);
+    } catch (IllegalArgumentException e) {
+      addError(e.getMessage() + " for appender named [" + name + "].");
+      return;
+    }
+    if (maxExportBatchSize < 1 || maxQueueSize < 1 || scheduleDelay < 1 || timeout < 1) {
+      addError("Invalid batch limits for appender named [" + name + "].");
+      return;
+    }
+
+    Resource otelResource = Resource.getDefault();
+    if (serviceName != null && !serviceName.isBlank()) {
+      otelResource = otelResource.merge(Resource.create(
+          Attributes.of(ResourceAttributes.SERVICE_NAME, serviceName.trim())));
+    }
+    resource = serialize(ResourceMarshaler.create(otelResource));
+    resourceSchemaUrl = otelResource.getSchemaUrl() != null
+        ? otelResource.getSchemaUrl().getBytes(StandardCharsets.UTF_8)
+        : null;
+    transport = new OtlpTransport(endpoint, wire, PersistentExportQueue.Signal.LOGS,
+        Duration.ofMillis(timeout));
+
+    // one batch filling, one being sent, the rest queued
+    int batches = Math.max(2, (maxQueueSize + maxExportBatchSize - 1) / maxExportBatchSize);
+    batchLock.lock();
+    try {
+      stopping = false;
+      filling = new Batch();
+      for (int i = 1; i < batches; i++) {
+        free.add(new Batch());
+      }
+    } finally {
+      batchLock.unlock();
+    }
+
+    LoggingTelemetry telemetry = LoggingTelemetry.getGlobal();
+    Attributes sink = Attributes.of(LoggingTelemetry.SINK, getName());
+    appendTimer = telemetry.timer(LoggingTelemetry.Metric.APPENDER_DURATION,
+        Attributes.of(LoggingTelemetry.APPENDER, getName()));
+    exportTimer = telemetry.timer(LoggingTelemetry.Metric.EXPORT_DURATION,
+        Attributes.of(LoggingTelemetry.SIGNAL, "logs"));
+    registrations = List.of(appendTimer, exportTimer,
+        telemetry.observe(LoggingTelemetry.Metric.SINK_EVENTS, sink, exportedCount::sum),
+        telemetry.observe(LoggingTelemetry.Metric.SINK_BYTES, sink, exportedBytes::sum),
+        telemetry.observe(LoggingTelemetry.Metric.EXPORT_FAILURES,
+            Attributes.of(LoggingTelemetry.SIGNAL, "logs"), failedExports::sum),
+        telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+            Attributes.of(LoggingTelemetry.COMPONENT, getName(), LoggingTelemetry.REASON, "queue_full"),
+            droppedCount::sum),
+        telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+            Attributes.of(LoggingTelemetry.COMPONENT, getName(), LoggingTelemetry.REASON, "export_failed"),
+            failedCount::sum));
+
+    exporter = new Thread(this::runExporter, "OtlpProtobufAppender-Exporter-" + getName());
+    exporter.setDaemon(true);
+    exporter.start();
+    // send what is pending on JVM exit even if logback's own shutdown hook isn't configured
+    shutdownHook = new Thread(this::stop, "OtlpProtobufAppender-Shutdown-" + getName());
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    batchLock.lock();
+    try {
+      stopping = true;
+      batchReady.signal();
+    } finally {
+      batchLock.unlock();
+    }
+    try {
+      // the exporter sends everything pending before it exits
+      exporter.join(timeout + (long) scheduleDelay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    transport.shutdown();
+    registrations.forEach(LoggingTelemetry.Registration::close);
+    registrations = List.of();
+    if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // JVM is already shutting down
+      }
+    }
+    shutdownHook = null;
+  }
+
+  /**
+   * @return number of records the endpoint accepted
+   */
+  public long getExportedCount() {
+    return exportedCount.sum();
+  }
+
+  /**
+   * @return number of records dropped because every batch buffer was full
+   */
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  /**
+   * @return number of records in export requests that failed
+   */
+  public long getFailedCount() {
+    return failedCount.sum();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    long start = appendTimer.start();
+    int slot = (int) Thread.currentThread().getId() & encoderMask;
+    RecordEncoder encoder = encoders.getAndSet(slot, null);
+    if (encoder == null) {
+      encoder = new RecordEncoder();
+    }
+    try {
+      encoder.encode(event);
+      String scopeName = scopeName(event);
+      byte[] scope = scope(scopeName);
+      batchLock.lock();
+      try {
+        if (filling.records >= maxExportBatchSize && !rotate()) {
+          // same as the BatchLogRecordProcessor: the newest record is dropped
+          droppedCount.increment();
+          return;
+        }
+        filling.add(scopeName, scope, encoder.record);
+        if (filling.records >= maxExportBatchSize) {
+          rotate();
+        }
+      } finally {
+        batchLock.unlock();
+      }
+    } finally {
+      if (encoder.record.capacity() <= MAX_POOLED_RECORD) {
+        encoders.lazySet(slot, encoder);
+      }
+      appendTimer.stop(start);
+    }
+  }
+
+  private static String scopeName(ILoggingEvent event) {
+    String loggerName = event.getLoggerName();
+    return loggerName == null || loggerName.isEmpty() ? "ROOT" : loggerName;
+  }
+
+  private byte[] scope(String scopeName) {
+    byte[] scope = scopes.get(scopeName);
+    if (scope == null) {
+      scope = serialize(InstrumentationScopeMarshaler.create(InstrumentationScopeInfo.create(scopeName)));
+      if (scopes.size() < MAX_SCOPES) {
+        scopes.put(scopeName, scope);
+      }
+    }
+    return scope;
+  }
+
+  private static byte[] serialize(Marshaler marshaler) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(marshaler.getBinarySerializedSize());
+    try {
+      marshaler.writeBinaryTo(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  // guarded by batchLock; queues the filling batch for export if a spare is free
+  private boolean rotate() {
+    Batch next = free.poll();
+    if (next == null) {
+      return false;
+    }
+    ready.add(filling);
+    filling = next;
+    batchReady.signal();
+    return true;
+  }
+
+  private void runExporter() {
+    boolean failing = false;
+    for (;;) {
+      Batch batch;
+      batchLock.lock();
+      try {
+        if (ready.isEmpty() && !stopping) {
+          try {
+            batchReady.await(scheduleDelay, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException e) {
+            stopping = true;
+          }
+        }
+        if (ready.isEmpty() && filling.records > 0) {
+          rotate();
+        }
+        batch = ready.poll();
+        if (batch == null) {
+          if (stopping) {
+            return;
+          }
+          continue;
+        }
+      } finally {
+        batchLock.unlock();
+      }
+
+      batch.seal();
+      long start = exportTimer.start();
+      OtlpTransport.Status status = transport.send(batch);
+      exportTimer.stop(start);
+      if (status.outcome == OtlpTransport.Outcome.SENT) {
+        exportedCount.add(batch.records);
+        exportedBytes.add(batch.size);
+        if (failing) {
+          addInfo("Export to [" + transport.getUrl() + "] resumed.");
+          failing = false;
+        }
+      } else {
+        // like the SDK exporter: no retry, the batch is lost
+        failedCount.add(batch.records);
+        failedExports.increment();
+        if (!failing) {
+          addWarn("Export of " + batch.records + " records to [" + transport.getUrl() + "] failed ("
+              + status.detail + ").");
+          failing = true;
+        }
+      }
+
+      batchLock.lock();
+      try {
+        batch.clear();
+        free.add(batch);
+      } finally {
+        batchLock.unlock();
+      }
+    }
+  }
+
+  static Severity severity(Level level) {
+    switch (level.levelInt) {
+      case Level.ALL_INT:
+      case Level.TRACE_INT:
+        return Severity.TRACE;
+      case Level.DEBUG_INT:
+        return Severity.DEBUG;
+      case Level.INFO_INT:
+        return Severity.INFO;
+      case Level.WARN_INT:
+        return Severity.WARN;
+      case Level.ERROR_INT:
+        return Severity.ERROR;
+      default:
+        return Severity.UNDEFINED_SEVERITY_NUMBER;
+    }
+  }
+
+  private String mdcKey(String key) {
+    String prefixed = mdcKeys.get(key);
+    if (prefixed == null) {
+      prefixed = MDC_PREFIX + key;
+      if (mdcKeys.size() < MAX_SCOPES) {
+        mdcKeys.put(key, prefixed);
+      }
+    }
+    return prefixed;
+  }
+
+  /*
+   * One LogRecord message, encoded the way the SDK's LogMarshaler would encode the record the
+   * OpenTelemetryAppender emits: attributes deduplicated (last value wins), capped at the
+   * default LogLimits and sorted by key
+   */
+  private final class RecordEncoder {
+    static final byte STRING = 0;
+    static final byte LONG = 1;
+    static final byte MARKERS = 2;
+
+    final ProtoBuffer record = new ProtoBuffer(1024);
+    private String[] keys = new String[16];
+    private byte[] types = new byte[16];
+    private Object[] values = new Object[16];
+    private long[] longs = new long[16];
+    private int[] valueSizes = new int[16];
+    private int count;
+    private int total;
+    private final BiConsumer<AttributeKey<?>, Object> baggageAttribute =
+        (key, value) -> putLimited(key.getKey(), value.toString());
+
+    void encode(ILoggingEvent event) {
+      record.clear();
+      count = 0;
+      collectAttributes(event);
+      sortAttributes();
+      total = count;
+      if (count > MAX_ATTRIBUTES) {
+        Arrays.fill(values, MAX_ATTRIBUTES, count, null);
+        count = MAX_ATTRIBUTES;
+      }
+      // added by the AddBaggageLogProcessor, after the appender's attributes
+      if (addBaggage) {
+        Attributes baggage = baggageConverter.convert(Baggage.fromContext(Context.current()));
+        if (!baggage.isEmpty()) {
+          baggage.forEach(baggageAttribute);
+          sortAttributes();
+        }
+      }
+
+      long epochNanos = TimeUnit.MILLISECONDS.toNanos(event.getTimeStamp());
+      if (epochNanos != 0) {
+        record.writeTag(1, ProtoBuffer.FIXED64);
+        record.writeFixed64(epochNanos);
+      }
+      Level level = event.getLevel();
+      if (level != null) {
+        int severityNumber = severity(level).getSeverityNumber();
+        if (severityNumber != 0) {
+          record.writeTag(2, ProtoBuffer.VARINT);
+          record.writeVarint(severityNumber);
+        }
+        writeString(3, level.levelStr);
+      }
+      // the SDK writes string_value even when empty (StringAnyValueMarshaler), and a missing
+      // body as an empty string
+      String body = event.getFormattedMessage();
+      if (body == null) {
+        body = "";
+      }
+      int bodyLength = ProtoBuffer.utf8Length(body);
+      record.writeTag(5, ProtoBuffer.LEN);
+      record.writeVarint(ProtoBuffer.lenFieldSize(1, bodyLength));
+      record.writeTag(1, ProtoBuffer.LEN);
+      record.writeVarint(bodyLength);
+      record.writeUtf8(body, bodyLength);
+      for (int i = 0; i < count; i++) {
+        writeAttribute(i);
+      }
+      if (total > count) {
+        record.writeTag(7, ProtoBuffer.VARINT);
+        record.writeVarint(total - count);
+      }
+      SpanContext spanContext = Span.fromContext(Context.current()).getSpanContext();
+      int flags = spanContext.getTraceFlags().asByte() & 0xFF;
+      if (flags != 0) {
+        record.writeTag(8, ProtoBuffer.FIXED32);
+        record.writeFixed32(flags);
+      }
+      if (spanContext.isValid()) {
+        record.writeTag(9, ProtoBuffer.LEN);
+        record.writeVarint(16);
+        record.writeBase16(spanContext.getTraceId());
+        record.writeTag(10, ProtoBuffer.LEN);
+        record.writeVarint(8);
+        record.writeBase16(spanContext.getSpanId());
+      }
+      Arrays.fill(values, 0, count, null);
+    }
+
+    // the OpenTelemetryAppender's LoggingEventMapper, attribute for attribute
+    private void collectAttributes(ILoggingEvent event) {
+      IThrowableProxy throwableProxy = event.getThrowableProxy();
+      if (throwableProxy instanceof ThrowableProxy) {
+        Throwable throwable = ((ThrowableProxy) throwableProxy).getThrowable();
+        if (throwable != null) {
+          put(SemanticAttributes.EXCEPTION_TYPE.getKey(), throwable.getClass().getName());
+          put(SemanticAttributes.EXCEPTION_MESSAGE.getKey(), throwable.getMessage());
+          StringWriter stackTrace = new StringWriter();
+          throwable.printStackTrace(new PrintWriter(stackTrace));
+          put(SemanticAttributes.EXCEPTION_STACKTRACE.getKey(), stackTrace.toString());
+        }
+      }
+      Map<String, String> mdc = event.getMDCPropertyMap();
+      if (captureAllMdcAttributes) {
+        for (Map.Entry<String, String> entry : mdc.entrySet()) {
+          put(mdcKey(entry.getKey()), entry.getValue());
+        }
+      } else {
+        for (String key : captureMdcAttributes) {
+          put(mdcKey(key), mdc.get(key));
+        }
+      }
+      if (captureExperimentalAttributes) {
+        Thread thread = Thread.currentThread();
+        put(SemanticAttributes.THREAD_NAME.getKey(), thread.getName());
+        putLong(SemanticAttributes.THREAD_ID.getKey(), thread.getId());
+      }
+      if (captureCodeAttributes) {
+        StackTraceElement[] callerData = event.getCallerData();
+        if (callerData != null && callerData.length > 0) {
+          StackTraceElement caller = callerData[0];
+          put(SemanticAttributes.CODE_FILEPATH.getKey(), caller.getFileName());
+          put(SemanticAttributes.CODE_NAMESPACE.getKey(), caller.getClassName());
+          put(SemanticAttributes.CODE_FUNCTION.getKey(), caller.getMethodName());
+          if (caller.getLineNumber() > 0) {
+            putLong(SemanticAttributes.CODE_LINENO.getKey(), caller.getLineNumber());
+          }
+        }
+      }
+      if (captureMarkerAttribute) {
+        List<Marker> markers = event.getMarkerList();
+        if (markers != null && !markers.isEmpty()) {
+          put("logback.marker", MARKERS, markers, 0);
+        }
+      }
+      if (captureKeyValuePairAttributes) {
+        List<KeyValuePair> keyValuePairs = event.getKeyValuePairs();
+        if (keyValuePairs != null) {
+          for (KeyValuePair keyValuePair : keyValuePairs) {
+            if (keyValuePair.value != null) {
+              put(keyValuePair.key, keyValuePair.value.toString());
+            }
+          }
+        }
+      }
+    }
+
+    private void put(String key, String value) {
+      if (value != null) {
+        put(key, STRING, value, 0);
+      }
+    }
+
+    private void putLong(String key, long value) {
+      put(key, LONG, null, value);
+    }
+
+    // Attributes.builder(): the last value of a key wins
+    private void put(String key, byte type, Object value, long longValue) {
+      if (key == null || key.isEmpty()) {
+        return;
+      }
+      int index = indexOf(key);
+      if (index < 0) {
+        index = count++;
+        if (index == keys.length) {
+          grow();
+        }
+        keys[index] = key;
+      }
+      types[index] = type;
+      values[index] = value;
+      longs[index] = longValue;
+    }
+
+    // AttributesMap: every put counts towards the total, new keys only fit below the limit
+    private void putLimited(String key, String value) {
+      total++;
+      int index = indexOf(key);
+      if (index < 0) {
+        if (count >= MAX_ATTRIBUTES) {
+          return;
+        }
+        index = count++;
+        if (index == keys.length) {
+          grow();
+        }
+        keys[index] = key;
+      }
+      types[index] = STRING;
+      values[index] = value;
+    }
+
+    private int indexOf(String key) {
+      for (int i = 0; i < count; i++) {
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private void grow() {
+      int size = keys.length * 2;
+      keys = Arrays.copyOf(keys, size);
+      types = Arrays.copyOf(types, size);
+      values = Arrays.copyOf(values, size);
+      longs = Arrays.copyOf(longs, size);
+      valueSizes = Arrays.copyOf(valueSizes, size);
+    }
+
+    // insertion sort of the parallel arrays; attribute counts are small
+    private void sortAttributes() {
+      for (int i = 1; i < count; i++) {
+        String key = keys[i];
+        byte type = types[i];
+        Object value = values[i];
+        long longValue = longs[i];
+        int j = i - 1;
+        while (j >= 0 && keys[j].compareTo(key) > 0) {
+          keys[j + 1] = keys[j];
+          types[j + 1] = types[j];
+          values[j + 1] = values[j];
+          longs[j + 1] = longs[j];
+          j--;
+        }
+        keys[j + 1] = key;
+        types[j + 1] = type;
+        values[j + 1] = value;
+        longs[j + 1] = longValue;
+      }
+    }
+
+    private void writeString(int field, String value) {
+      if (value == null || value.isEmpty()) {
+        return;
+      }
+      int length = ProtoBuffer.utf8Length(value);
+      record.writeTag(field, ProtoBuffer.LEN);
+      record.writeVarint(length);
+      record.writeUtf8(value, length);
+    }
+
+    // KeyValue { key = 1; AnyValue value = 2 }
+    private void writeAttribute(int index) {
+      String key = keys[index];
+      int keyLength = ProtoBuffer.utf8Length(key);
+      int anyValueSize = anyValueSize(index);
+      record.writeTag(6, ProtoBuffer.LEN);
+      record.writeVarint(ProtoBuffer.lenFieldSize(1, keyLength) + ProtoBuffer.lenFieldSize(2, anyValueSize));
+      record.writeTag(1, ProtoBuffer.LEN);
+      record.writeVarint(keyLength);
+      record.writeUtf8(key, keyLength);
+      record.writeTag(2, ProtoBuffer.LEN);
+      record.writeVarint(anyValueSize);
+      switch (types[index]) {
+        case STRING:
+          record.writeTag(1, ProtoBuffer.LEN);
+          record.writeVarint(valueSizes[index]);
+          record.writeUtf8((String) values[index], valueSizes[index]);
+          break;
+        case LONG:
+          record.writeTag(3, ProtoBuffer.VARINT);
+          record.writeVarint(longs[index]);
+          break;
+        default:
+          // AnyValue { ArrayValue array_value = 5 { repeated AnyValue values = 1 } }
+          record.writeTag(5, ProtoBuffer.LEN);
+          record.writeVarint(valueSizes[index]);
+          for (Object marker : (List<?>) values[index]) {
+            String markerName = ((Marker) marker).getName();
+            int nameLength = ProtoBuffer.utf8Length(markerName);
+            record.writeTag(1, ProtoBuffer.LEN);
+            record.writeVarint(ProtoBuffer.lenFieldSize(1, nameLength));
+            record.writeTag(1, ProtoBuffer.LEN);
+            record.writeVarint(nameLength);
+            record.writeUtf8(markerName, nameLength);
+          }
+          break;
+      }
+    }
+
+    // also leaves the size of the string or array in valueSizes for writeAttribute
+    private int anyValueSize(int index) {
+      switch (types[index]) {
+        case STRING:
+          valueSizes[index] = ProtoBuffer.utf8Length((String) values[index]);
+          return ProtoBuffer.lenFieldSize(1, valueSizes[index]);
+        case LONG:
+          return 1 + ProtoBuffer.varintSize(longs[index]);
+        default:
+          int arraySize = 0;
+          for (Object marker : (List<?>) values[index]) {
+            int nameLength = ProtoBuffer.utf8Length(((Marker) marker).getName());
+            arraySize += ProtoBuffer.lenFieldSize(1, ProtoBuffer.lenFieldSize(1, nameLength));
+          }
+          valueSizes[index] = arraySize;
+          return ProtoBuffer.lenFieldSize(5, arraySize);
+      }
+    }
+  }
+
+  // ScopeLogs { InstrumentationScope scope = 1; repeated LogRecord log_records = 2 }
+  private static final class ScopeRecords {
+    static final int INITIAL_CAPACITY = 4096;
+
+    final byte[] scope;
+    ProtoBuffer records = new ProtoBuffer(INITIAL_CAPACITY);
+    int size;
+
+    ScopeRecords(byte[] scope) {
+      this.scope = scope;
+    }
+
+    void clear() {
+      // a burst shouldn't pin its buffer: give it back once a batch uses under a quarter
+      if (records.capacity() > INITIAL_CAPACITY && records.length() < records.capacity() / 4) {
+        records = new ProtoBuffer(INITIAL_CAPACITY);
+      } else {
+        records.clear();
+      }
+    }
+  }
+
+  // ExportLogsServiceRequest { repeated ResourceLogs resource_logs = 1 }, with one ResourceLogs
+  private final class Batch implements OtlpTransport.Payload {
+    private final Map<String, ScopeRecords> byName = new HashMap<>();
+    private final List<ScopeRecords> active = new ArrayList<>();
+    int records;
+    long size;
+    private int resourceLogsSize;
+
+    void add(String scopeName, byte[] scope, ProtoBuffer record) {
+      ScopeRecords scopeRecords = byName.get(scopeName);
+      if (scopeRecords == null) {
+        scopeRecords = new ScopeRecords(scope);
+        byName.put(scopeName, scopeRecords);
+      }
+      if (scopeRecords.records.length() == 0) {
+        active.add(scopeRecords);
+      }
+      scopeRecords.records.writeTag(2, ProtoBuffer.LEN);
+      scopeRecords.records.writeVarint(record.length());
+      scopeRecords.records.write(record);
+      records++;
+    }
+
+    void seal() {
+      int resourceLogs = ProtoBuffer.lenFieldSize(1, resource.length);
+      for (ScopeRecords scopeRecords : active) {
+        scopeRecords.size = ProtoBuffer.lenFieldSize(1, scopeRecords.scope.length)
+            + scopeRecords.records.length();
+        resourceLogs += ProtoBuffer.lenFieldSize(2, scopeRecords.size);
+      }
+      if (resourceSchemaUrl != null) {
+        resourceLogs += ProtoBuffer.lenFieldSize(3, resourceSchemaUrl.length);
+      }
+      resourceLogsSize = resourceLogs;
+      size = ProtoBuffer.lenFieldSize(1, resourceLogs);
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      sink.writeByte(1 << 3 | ProtoBuffer.LEN);
+      ProtoBuffer.writeVarint(sink, resourceLogsSize);
+      sink.writeByte(1 << 3 | ProtoBuffer.LEN);
+      ProtoBuffer.writeVarint(sink, resource.length);
+      sink.write(resource);
+      for (ScopeRecords scopeRecords : active) {
+        sink.writeByte(2 << 3 | ProtoBuffer.LEN);
+        ProtoBuffer.writeVarint(sink, scopeRecords.size);
+        sink.writeByte(1 << 3 | ProtoBuffer.LEN);
+        ProtoBuffer.writeVarint(sink, scopeRecords.scope.length);
+        sink.write(scopeRecords.scope);
+        scopeRecords.records.writeTo(sink);
+      }
+      if (resourceSchemaUrl != null) {
+        sink.writeByte(3 << 3 | ProtoBuffer.LEN);
+        ProtoBuffer.writeVarint(sink, resourceSchemaUrl.length);
+        sink.write(resourceSchemaUrl);
+      }
+    }
+
+    void clear() {
+      // scopes that sat out a whole batch are dropped along with their buffers
+      if (active.size() < byName.size()) {
+        byName.values().removeIf(scopeRecords -> scopeRecords.records.length() == 0);
+      }
+      for (ScopeRecords scopeRecords : active) {
+        scopeRecords.clear();
+      }
+      active.clear();
+      records = 0;
+      size = 0;
+    }
+  }
+}
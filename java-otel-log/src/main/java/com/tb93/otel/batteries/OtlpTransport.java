@@ -0,0 +1,159 @@
+package com.tb93.otel.batteries;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+/*
+ * Sends already-serialized OTLP export requests over gRPC or HTTP/protobuf
+ * Shared by PersistentExportQueue and OtlpProtobufAppender, which both hold complete
+ * protobuf payloads and have no use for the SDK exporters' marshal-on-export path. gRPC is
+ * spoken directly over OkHttp's HTTP/2 (length-prefixed message, grpc-status in the headers
+ * or trailers), so no gRPC runtime is needed
+ */
+final class OtlpTransport {
+    enum Wire {
+        GRPC, HTTP_PROTOBUF;
+
+        /** @return the wire for an OTLP protocol name: grpc or http/protobuf */
+        static Wire of(String protocol) {
+            String normalized = protocol.trim().toLowerCase(Locale.ROOT);
+            if ("grpc".equals(normalized)) {
+                return GRPC;
+            }
+            if ("http/protobuf".equals(normalized)) {
+                return HTTP_PROTOBUF;
+            }
+            throw new IllegalArgumentException("Unsupported OTLP protocol: " + protocol);
+        }
+    }
+
+    enum Outcome {
+        SENT, RETRY, REJECTED
+    }
+
+    /** A serialized export request, or several concatenated ones. */
+    interface Payload {
+        long size();
+
+        void writeTo(BufferedSink sink) throws IOException;
+    }
+
+    static final class Status {
+        final Outcome outcome;
+        final String detail;
+
+        Status(Outcome outcome, String detail) {
+            this.outcome = outcome;
+            this.detail = detail;
+        }
+    }
+
+    private static final MediaType GRPC_MEDIA_TYPE = MediaType.get("application/grpc");
+    private static final MediaType PROTOBUF_MEDIA_TYPE = MediaType.get("application/x-protobuf");
+    // per the OTLP spec
+    private static final Set<String> RETRYABLE_GRPC_STATUS = Set.of("1", "4", "8", "10", "11", "14", "15");
+    private static final Set<Integer> RETRYABLE_HTTP_STATUS = Set.of(429, 502, 503, 504);
+    private static final Status SENT = new Status(Outcome.SENT, "OK");
+    private static final Status UNAVAILABLE = new Status(Outcome.RETRY, "unavailable");
+
+    private final Wire wire;
+    private final String url;
+    private final OkHttpClient client;
+
+    OtlpTransport(String endpoint, Wire wire, PersistentExportQueue.Signal signal, Duration timeout) {
+        String base = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        this.wire = wire;
+        this.url = base + (wire == Wire.GRPC ? signal.grpcPath : signal.httpPath);
+        OkHttpClient.Builder builder = new OkHttpClient.Builder().callTimeout(timeout);
+        if (wire == Wire.GRPC) {
+            // plaintext gRPC is HTTP/2 without an upgrade
+            builder.protocols(base.startsWith("http://")
+                    ? List.of(Protocol.H2_PRIOR_KNOWLEDGE)
+                    : List.of(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        }
+        this.client = builder.build();
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    /** Sends payload on the calling thread. */
+    Status send(Payload payload) {
+        boolean grpc = wire == Wire.GRPC;
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return grpc ? GRPC_MEDIA_TYPE : PROTOBUF_MEDIA_TYPE;
+            }
+
+            @Override
+            public long contentLength() {
+                return grpc ? 5L + payload.size() : payload.size();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                if (grpc) {
+                    // gRPC message prefix: uncompressed flag and length; concatenated requests
+                    // decode as one request holding all their resource logs / spans
+                    sink.writeByte(0);
+                    sink.writeInt((int) payload.size());
+                }
+                payload.writeTo(sink);
+            }
+        };
+        Request.Builder request = new Request.Builder().url(url).post(body);
+        if (grpc) {
+            request.header("te", "trailers");
+        }
+        try (Response response = client.newCall(request.build()).execute()) {
+            // the gRPC status may be in the trailers, which follow the body
+            response.body().bytes();
+            return grpc ? grpcStatus(response) : httpStatus(response);
+        } catch (IOException | RuntimeException e) {
+            return UNAVAILABLE;
+        }
+    }
+
+    private static Status grpcStatus(Response response) throws IOException {
+        String status = response.header("grpc-status");
+        if (status == null) {
+            status = response.trailers().get("grpc-status");
+        }
+        if (status == null) {
+            return UNAVAILABLE;
+        }
+        if ("0".equals(status)) {
+            return SENT;
+        }
+        return new Status(RETRYABLE_GRPC_STATUS.contains(status) ? Outcome.RETRY : Outcome.REJECTED,
+                "gRPC status " + status);
+    }
+
+    private static Status httpStatus(Response response) {
+        if (response.isSuccessful()) {
+            return SENT;
+        }
+        return new Status(RETRYABLE_HTTP_STATUS.contains(response.code()) ? Outcome.RETRY : Outcome.REJECTED,
+                "HTTP status " + response.code());
+    }
+
+    /** Aborts calls in flight and releases connections and threads. */
+    void shutdown() {
+        client.dispatcher().cancelAll();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+}
@@ -0,0 +1,656 @@
+package com.tb93.otel.batteries;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.exporter.internal.marshal.Marshaler;
+import io.opentelemetry.exporter.internal.otlp.logs.LogsRequestMarshaler;
+import io.opentelemetry.exporter.internal.otlp.traces.TraceRequestMarshaler;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.logs.export.LogRecordExporter;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import okio.BufferedSink;
+
+/*
+ * Write-ahead, disk-backed queue between the SDK's batch processors and an OTLP gRPC endpoint
+ * Every exported batch is serialized once, straight into a memory-mapped segment file, as an
+ * OTLP export request. A sender thread replays the segments in order with exponential backoff
+ * while the collector is slow or down (serialized requests concatenate into one merged
+ * request, so several batches go out per call) and deletes a segment once everything in it
+ * is acknowledged. Disk use is capped by dropping the oldest segment. Delivery is
+ * at-least-once: a request in flight when the process dies is sent again on the next start
+ */
+public final class PersistentExportQueue {
+    public enum Signal {
+        LOGS("/opentelemetry.proto.collector.logs.v1.LogsService/Export", "/v1/logs"),
+        SPANS("/opentelemetry.proto.collector.trace.v1.TraceService/Export", "/v1/traces");
+
+        final String grpcPath;
+        final String httpPath;
+
+        Signal(String grpcPath, String httpPath) {
+            this.grpcPath = grpcPath;
+            this.httpPath = httpPath;
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(PersistentExportQueue.class.getName());
+
+    // segment: [int magic][int unused][long acked offset] then entries
+    private static final int MAGIC = 0x4f545131;
+    private static final int ACKED_OFFSET = 8;
+    private static final int SEGMENT_HEADER = 16;
+    // entry: [int length][int items][int crc32] then the serialized export request
+    private static final int ENTRY_HEADER = 12;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Signal signal;
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxDiskUsage;
+    private final int maxRequestSize;
+    private final boolean fsync;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long shutdownTimeoutMillis;
+    private final OtlpTransport transport;
+
+    // guarded by lock
+    private final Object lock = new Object();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment active;
+    private long nextSequence;
+    private long diskUsage;
+    private boolean closing;
+
+    private final Thread sender;
+    private final LongAdder sentCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder retryCount = new LongAdder();
+    private final LoggingTelemetry.Timer exportTimer;
+    private final List<LoggingTelemetry.Registration> registrations;
+
+    private PersistentExportQueue(Builder builder) {
+        this.signal = builder.signal;
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        this.maxDiskUsage = builder.maxDiskUsage;
+        this.maxRequestSize = builder.maxRequestSize;
+        this.fsync = builder.fsync;
+        this.initialBackoffMillis = builder.initialBackoff.toMillis();
+        this.maxBackoffMillis = builder.maxBackoff.toMillis();
+        this.shutdownTimeoutMillis = builder.shutdownTimeout.toMillis();
+        this.transport = new OtlpTransport(builder.endpoint, OtlpTransport.Wire.GRPC, signal,
+                builder.timeout);
+
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open export queue in " + directory, e);
+        }
+
+        String queue = signal.name().toLowerCase(Locale.ROOT);
+        LoggingTelemetry telemetry = LoggingTelemetry.getGlobal();
+        Attributes signalAttributes = Attributes.of(LoggingTelemetry.SIGNAL, queue);
+        this.exportTimer = telemetry.timer(LoggingTelemetry.Metric.EXPORT_DURATION, signalAttributes);
+        this.registrations = List.of(exportTimer,
+                telemetry.observe(LoggingTelemetry.Metric.EXPORT_FAILURES, signalAttributes,
+                        retryCount::sum),
+                telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+                        Attributes.of(LoggingTelemetry.COMPONENT, "export_queue", LoggingTelemetry.SIGNAL,
+                                queue, LoggingTelemetry.REASON, "disk_full"),
+                        droppedCount::sum),
+                telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+                        Attributes.of(LoggingTelemetry.COMPONENT, "export_queue", LoggingTelemetry.SIGNAL,
+                                queue, LoggingTelemetry.REASON, "rejected"),
+                        rejectedCount::sum),
+                telemetry.observe(LoggingTelemetry.Metric.QUEUE_DEPTH,
+                        Attributes.of(LoggingTelemetry.QUEUE, "export_queue", LoggingTelemetry.SIGNAL, queue),
+                        this::getQueuedCount));
+
+        this.sender = new Thread(this::runSender, "PersistentExportQueue-Sender-" + signal);
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    public static Builder builder(Path directory, Signal signal) {
+        return new Builder(directory, signal);
+    }
+
+    /** @return an exporter for a BatchLogRecordProcessor, for a LOGS queue */
+    public LogRecordExporter asLogRecordExporter() {
+        if (signal != Signal.LOGS) {
+            throw new IllegalStateException("Not a LOGS queue: " + signal);
+        }
+        return new LogRecordExporter() {
+            @Override
+            public CompletableResultCode export(Collection<LogRecordData> logs) {
+                return append(LogsRequestMarshaler.create(logs), logs.size());
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return PersistentExportQueue.this.flush();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return PersistentExportQueue.this.shutdown();
+            }
+        };
+    }
+
+    /** @return an exporter for a BatchSpanProcessor, for a SPANS queue */
+    public SpanExporter asSpanExporter() {
+        if (signal != Signal.SPANS) {
+            throw new IllegalStateException("Not a SPANS queue: " + signal);
+        }
+        return new SpanExporter() {
+            @Override
+            public CompletableResultCode export(Collection<SpanData> spans) {
+                return append(TraceRequestMarshaler.create(spans), spans.size());
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return PersistentExportQueue.this.flush();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return PersistentExportQueue.this.shutdown();
+            }
+        };
+    }
+
+    /** @return number of records acknowledged by the endpoint */
+    public long getSentCount() {
+        return sentCount.sum();
+    }
+
+    /** @return number of records dropped to stay under the disk cap */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /** @return number of records the endpoint refused with a non-retryable status */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /** @return number of failed requests that were retried */
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+    /** @return number of records on disk waiting to be sent */
+    public long getQueuedCount() {
+        synchronized (lock) {
+            long queued = 0;
+            for (Segment segment : segments) {
+                queued += segment.pendingItems;
+            }
+            return queued;
+        }
+    }
+
+    /** @return bytes of segment files on disk */
+    public long getDiskUsage() {
+        synchronized (lock) {
+            return diskUsage;
+        }
+    }
+
+    private CompletableResultCode append(Marshaler request, int items) {
+        int size = request.getBinarySerializedSize();
+        int entrySize = ENTRY_HEADER + size;
+        synchronized (lock) {
+            if (closing) {
+                return CompletableResultCode.ofFailure();
+            }
+            try {
+                if (active == null || active.capacity - active.limit < entrySize) {
+                    if (!roll(entrySize)) {
+                        droppedCount.add(items);
+                        return CompletableResultCode.ofFailure();
+                    }
+                }
+                int offset = active.limit;
+                ByteBuffer payload = active.buffer.duplicate();
+                payload.position(offset + ENTRY_HEADER).limit(offset + entrySize);
+                request.writeBinaryTo(new ByteBufferOutputStream(payload));
+                CRC32 crc = new CRC32();
+                crc.update(payload.flip().position(offset + ENTRY_HEADER));
+                active.buffer.putInt(offset + 4, items);
+                active.buffer.putInt(offset + 8, (int) crc.getValue());
+                // the length goes last: a torn write leaves a zero length, the end marker
+                active.buffer.putInt(offset, size);
+                if (fsync) {
+                    active.buffer.force();
+                }
+                active.limit += entrySize;
+                active.pendingItems += items;
+                lock.notifyAll();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to queue " + signal + " for export", e);
+                droppedCount.add(items);
+                return CompletableResultCode.ofFailure();
+            }
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    // guarded by lock; seals the active segment and maps a new one with room for entrySize
+    private boolean roll(int entrySize) throws IOException {
+        long capacity = Math.max(segmentSize, (long) SEGMENT_HEADER + entrySize);
+        if (capacity > maxDiskUsage || capacity > Integer.MAX_VALUE) {
+            return false;
+        }
+        if (active != null) {
+            active.sealed = true;
+            if (active.acked == active.limit) {
+                delete(active);
+            }
+            active = null;
+        }
+        while (diskUsage + capacity > maxDiskUsage && !segments.isEmpty()) {
+            // the oldest data goes first; the sender skips acks for dropped segments
+            Segment oldest = segments.peekFirst();
+            droppedCount.add(oldest.pendingItems);
+            delete(oldest);
+        }
+        Path path = directory.resolve(String.format("%020d%s", nextSequence++, SEGMENT_SUFFIX));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(ACKED_OFFSET, SEGMENT_HEADER);
+        active = new Segment(path, buffer, SEGMENT_HEADER, SEGMENT_HEADER, 0);
+        segments.addLast(active);
+        diskUsage += capacity;
+        return true;
+    }
+
+    // guarded by lock
+    private void delete(Segment segment) {
+        segments.remove(segment);
+        segment.deleted = true;
+        // Java 17 has no public unmap: the mapping (and, on Linux, the deleted file's blocks)
+        // is released once the buffer is garbage collected, so no reference may outlive this;
+        // a batch in flight keeps its slices until the send returns
+        segment.buffer = null;
+        diskUsage -= segment.capacity;
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to delete export queue segment " + segment.path, e);
+        }
+    }
+
+    // reopens the segments left by an earlier run; they are sent before anything new
+    private void recover() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            try {
+                nextSequence = Math.max(nextSequence,
+                        Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) + 1);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                if (size < SEGMENT_HEADER || size > Integer.MAX_VALUE) {
+                    buffer = null;
+                } else {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                }
+            }
+            if (buffer == null || buffer.getInt(0) != MAGIC) {
+                Files.delete(path);
+                continue;
+            }
+            long acked = buffer.getLong(ACKED_OFFSET);
+            int offset = SEGMENT_HEADER;
+            long pendingItems = 0;
+            // stop at the end marker or the first torn entry
+            while (offset + ENTRY_HEADER <= buffer.capacity()) {
+                int length = buffer.getInt(offset);
+                if (length <= 0 || length > buffer.capacity() - offset - ENTRY_HEADER) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(buffer.duplicate().position(offset + ENTRY_HEADER)
+                        .limit(offset + ENTRY_HEADER + length));
+                if ((int) crc.getValue() != buffer.getInt(offset + 8)) {
+                    break;
+                }
+                if (offset >= acked) {
+                    pendingItems += buffer.getInt(offset + 4);
+                }
+                offset += ENTRY_HEADER + length;
+            }
+            int ackedOffset = (int) Math.max(SEGMENT_HEADER, Math.min(acked, offset));
+            if (ackedOffset == offset) {
+                Files.delete(path);
+                continue;
+            }
+            Segment segment = new Segment(path, buffer, offset, ackedOffset, pendingItems);
+            segment.sealed = true;
+            segments.addLast(segment);
+            diskUsage += segment.capacity;
+        }
+    }
+
+    private void runSender() {
+        long backoffMillis = initialBackoffMillis;
+        boolean failing = false;
+        for (;;) {
+            Batch batch;
+            synchronized (lock) {
+                while ((batch = nextBatch()) == null && !closing) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (batch == null) {
+                    // closing and drained
+                    return;
+                }
+            }
+
+            long start = exportTimer.start();
+            OtlpTransport.Status status = transport.send(batch);
+            exportTimer.stop(start);
+            if (status.outcome != OtlpTransport.Outcome.RETRY) {
+                if (status.outcome == OtlpTransport.Outcome.SENT) {
+                    if (failing) {
+                        logger.info("Export of " + signal + " resumed");
+                        failing = false;
+                    }
+                } else {
+                    // retrying won't help; don't let one bad request block the queue
+                    logger.warning("Export of " + signal + " rejected with " + status.detail
+                            + ", dropping " + batch.items + " records");
+                }
+                ack(batch, status.outcome == OtlpTransport.Outcome.SENT ? sentCount : rejectedCount);
+                backoffMillis = initialBackoffMillis;
+                continue;
+            }
+
+            retryCount.increment();
+            if (!failing) {
+                logger.warning("Export of " + signal + " to " + transport.getUrl() + " failed ("
+                        + status.detail + "), retrying; records are kept in " + directory);
+                failing = true;
+            }
+            synchronized (lock) {
+                if (closing) {
+                    // the rest is sent on the next start
+                    return;
+                }
+                try {
+                    // jitter keeps many instances from retrying in lockstep
+                    lock.wait(backoffMillis / 2 + (long) (Math.random() * backoffMillis / 2) + 1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+        }
+    }
+
+    // guarded by lock; the unacknowledged entries at the head of the queue, up to maxRequestSize
+    private Batch nextBatch() {
+        Segment segment = segments.peekFirst();
+        if (segment == null || segment.acked == segment.limit) {
+            return null;
+        }
+        List<ByteBuffer> payloads = new ArrayList<>();
+        int offset = segment.acked;
+        int size = 0;
+        int items = 0;
+        while (offset < segment.limit) {
+            int length = segment.buffer.getInt(offset);
+            if (!payloads.isEmpty() && size + length > maxRequestSize) {
+                break;
+            }
+            payloads.add(segment.buffer.duplicate()
+                    .position(offset + ENTRY_HEADER)
+                    .limit(offset + ENTRY_HEADER + length)
+                    .slice());
+            size += length;
+            items += segment.buffer.getInt(offset + 4);
+            offset += ENTRY_HEADER + length;
+        }
+        return new Batch(segment, offset, payloads, size, items);
+    }
+
+    private void ack(Batch batch, LongAdder outcomeCount) {
+        synchronized (lock) {
+            Segment segment = batch.segment;
+            if (segment.deleted) {
+                // dropped at the disk cap while in flight, and already counted then
+                return;
+            }
+            outcomeCount.add(batch.items);
+            segment.acked = batch.end;
+            segment.pendingItems -= batch.items;
+            segment.buffer.putLong(ACKED_OFFSET, batch.end);
+            if (segment.sealed && segment.acked == segment.limit) {
+                delete(segment);
+            }
+        }
+    }
+
+    private CompletableResultCode flush() {
+        synchronized (lock) {
+            // everything exported is already queued; make it durable
+            if (active != null) {
+                active.buffer.force();
+            }
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private CompletableResultCode shutdown() {
+        synchronized (lock) {
+            if (closing) {
+                return CompletableResultCode.ofSuccess();
+            }
+            closing = true;
+            lock.notifyAll();
+        }
+        try {
+            // let the sender drain while the endpoint keeps up
+            sender.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        transport.shutdown();
+        sender.interrupt();
+        flush();
+        registrations.forEach(LoggingTelemetry.Registration::close);
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private static final class Segment {
+        final Path path;
+        final int capacity;
+        // guarded by PersistentExportQueue.lock; null once deleted
+        MappedByteBuffer buffer;
+        int limit;
+        int acked;
+        long pendingItems;
+        boolean sealed;
+        boolean deleted;
+
+        Segment(Path path, MappedByteBuffer buffer, int limit, int acked, long pendingItems) {
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            this.limit = limit;
+            this.acked = acked;
+            this.pendingItems = pendingItems;
+        }
+    }
+
+    private static final class Batch implements OtlpTransport.Payload {
+        final Segment segment;
+        final int end;
+        final List<ByteBuffer> payloads;
+        final int size;
+        final int items;
+
+        Batch(Segment segment, int end, List<ByteBuffer> payloads, int size, int items) {
+            this.segment = segment;
+            this.end = end;
+            this.payloads = payloads;
+            this.size = size;
+            this.items = items;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            for (ByteBuffer payload : payloads) {
+                sink.write(payload.duplicate());
+            }
+        }
+    }
+
+    private static final class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.put(bytes, offset, length);
+        }
+    }
+
+    public static final class Builder {
+        private final Path directory;
+        private final Signal signal;
+        private String endpoint = "http://localhost:4317";
+        private int segmentSize = 8 * 1024 * 1024;
+        private long maxDiskUsage = 512L * 1024 * 1024;
+        private int maxRequestSize = 4 * 1024 * 1024;
+        private boolean fsync;
+        private Duration timeout = Duration.ofSeconds(10);
+        private Duration initialBackoff = Duration.ofSeconds(1);
+        private Duration maxBackoff = Duration.ofSeconds(30);
+        private Duration shutdownTimeout = Duration.ofSeconds(5);
+
+        private Builder(Path directory, Signal signal) {
+            this.directory = directory;
+            this.signal = signal;
+        }
+
+        /** OTLP gRPC endpoint (default: http://localhost:4317). */
+        public Builder setEndpoint(String endpoint) {
+            if (endpoint != null && !endpoint.isBlank()) {
+                this.endpoint = endpoint.trim();
+            }
+            return this;
+        }
+
+        /** Size of each segment file (default: 8MB); larger batches get a segment of their own. */
+        public Builder setSegmentSize(int segmentSize) {
+            this.segmentSize = Math.max(SEGMENT_HEADER + ENTRY_HEADER, segmentSize);
+            return this;
+        }
+
+        /** Disk cap for all segments (default: 512MB); the oldest segment is dropped beyond it. */
+        public Builder setMaxDiskUsage(long maxDiskUsage) {
+            this.maxDiskUsage = maxDiskUsage;
+            return this;
+        }
+
+        /** Largest request the sender builds by merging queued batches (default: 4MB). */
+        public Builder setMaxRequestSize(int maxRequestSize) {
+            this.maxRequestSize = maxRequestSize;
+            return this;
+        }
+
+        /**
+         * Force every batch to disk (default: false). Without it queued batches survive a
+         * process crash but not a power loss.
+         */
+        public Builder setFsync(boolean fsync) {
+            this.fsync = fsync;
+            return this;
+        }
+
+        /** Timeout of one export request (default: 10s). */
+        public Builder setTimeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /** Retry backoff, doubling from initialBackoff up to maxBackoff (default: 1s to 30s). */
+        public Builder setBackoff(Duration initialBackoff, Duration maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /** How long shutdown keeps sending queued batches (default: 5s); the rest stays on disk. */
+        public Builder setShutdownTimeout(Duration shutdownTimeout) {
+            this.shutdownTimeout = shutdownTimeout;
+            return this;
+        }
+
+        public PersistentExportQueue build() {
+            return new PersistentExportQueue(this);
+        }
+    }
+}
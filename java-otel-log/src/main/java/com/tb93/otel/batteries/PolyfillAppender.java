@@ -7,32 +7,61 @@ package com.tb93.otel.batteries;
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.classic.spi.LoggerContextVO;
 import ch.qos.logback.classic.spi.LoggingEventVO;
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.net.AbstractSocketAppender;
+import ch.qos.logback.core.net.server.AbstractServerSocketAppender;
 import ch.qos.logback.core.spi.AppenderAttachable;
 import ch.qos.logback.core.spi.AppenderAttachableImpl;
-import io.opentelemetry.context.Context;
-import io.opentelemetry.instrumentation.logback.mdc.v1_0.internal.UnionMap;
-import java.lang.reflect.Proxy;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import io.opentelemetry.api.common.Attributes;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import org.slf4j.event.KeyValuePair;
-import static net.logstash.logback.argument.StructuredArguments.keyValue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 public class PolyfillAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
     implements AppenderAttachable<ILoggingEvent> {
   private boolean addKeyValuePairsAsMDC;
   private boolean addKeyValuePairsAsStructured;
+  // true if any attached appender needs a serializable LoggingEventVO
+  private volatile boolean serializeEvents;
 
   private final AppenderAttachableImpl<ILoggingEvent> aai = new AppenderAttachableImpl<>();
 
+  /**
+   * What an async producer does when an appender's ring buffer is full.
+   */
+  public enum OverflowPolicy {
+    /** wait for the consumer to make room */
+    BLOCK,
+    /** evict the oldest queued event to make room */
+    DROP_OLDEST,
+    /** drop events below dropBelowLevel, block for the rest */
+    DROP_BELOW_LEVEL
+  }
+
+  public static final int DEFAULT_QUEUE_SIZE = 1024;
+  public static final int DEFAULT_MAX_FLUSH_TIME = 1000;
+  private static final long BLOCKED_PARK_NANOS = 100_000;
+
+  private boolean async;
+  private int queueSize = DEFAULT_QUEUE_SIZE;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+  private Level dropBelowLevel = Level.WARN;
+  private boolean includeCallerData = true;
+  private int maxFlushTime = DEFAULT_MAX_FLUSH_TIME;
+
+  private final List<AsyncWorker<ILoggingEvent>> workers = new CopyOnWriteArrayList<>();
+  private final LongAdder droppedCount = new LongAdder();
+  private Thread shutdownHook;
+  private LoggingTelemetry.Timer appendTimer;
+  private LoggingTelemetry.Timer wrapTimer;
+  private List<LoggingTelemetry.Registration> registrations = List.of();
+
   /**
    * When set to true this will enable addition of all KeyValue entries to MDC.
    * This can be done by
@@ -58,82 +87,254 @@ public class PolyfillAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
     this.addKeyValuePairsAsStructured = addKeyValuePairsAsStructured;
   }
 
-  public ILoggingEvent wrapEvent(ILoggingEvent event) {
-    Map<String, String> eventContext = event.getMDCPropertyMap();
-    Map<String, String> contextData = new HashMap<>();
-
-    // add slf4j keyvalue pairs to MDC (note that MDC is always string value)
-    if (addKeyValuePairsAsMDC) {
-      List<KeyValuePair> keyValuePairs = event.getKeyValuePairs();
-      if (keyValuePairs != null) {
-        keyValuePairs.forEach(
-            (keyValuePair) -> contextData.put(
-                keyValuePair.key, keyValuePair.value.toString()));
-      }
-    }
+  /**
+   * When set to true, events are captured on the calling thread and handed to each attached
+   * appender through its own bounded ring buffer and worker thread. This can be done by
+   * adding the following to the logback.xml config for this appender. {@code
+   * <async>true</async>}
+   *
+   * @param async True to fan out asynchronously
+   */
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
 
-    // convert slf4j keyvalue pairs to "structured data"
-    List<Object> eventArguments = new ArrayList<Object>();
-    if (event.getArgumentArray() != null) {
-      eventArguments.addAll(Arrays.asList(event.getArgumentArray()));
-    }
-    if (addKeyValuePairsAsStructured) {
-      List<KeyValuePair> keyValuePairs = event.getKeyValuePairs();
-      if (keyValuePairs != null) {
-        keyValuePairs.forEach(
-            (keyValuePair) -> eventArguments.add(
-                keyValue(keyValuePair.key, keyValuePair.value)));
-      }
-    }
+  /**
+   * Capacity of each appender's ring buffer in async mode, rounded up to a power of two.
+   *
+   * @param queueSize Number of preallocated slots per attached appender
+   */
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  /**
+   * What to do in async mode when a ring buffer is full: BLOCK (default), DROP_OLDEST or
+   * DROP_BELOW_LEVEL. {@code <overflowPolicy>DROP_BELOW_LEVEL</overflowPolicy>}
+   *
+   * @param overflowPolicy The overflow policy
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * With DROP_BELOW_LEVEL, events below this level are dropped on overflow; events at or above
+   * it block. Defaults to WARN.
+   *
+   * @param dropBelowLevel A logback level name
+   */
+  public void setDropBelowLevel(String dropBelowLevel) {
+    this.dropBelowLevel = Level.toLevel(dropBelowLevel, Level.WARN);
+  }
+
+  /**
+   * When set to true (default) caller data is captured on the calling thread before an event is
+   * queued in async mode; it cannot be recovered on the worker thread.
+   *
+   * @param includeCallerData True to capture caller data
+   */
+  public void setIncludeCallerData(boolean includeCallerData) {
+    this.includeCallerData = includeCallerData;
+  }
+
+  /**
+   * How long stop() waits for each worker to drain its queue, in milliseconds.
+   *
+   * @param maxFlushTime Drain timeout in milliseconds
+   */
+  public void setMaxFlushTime(int maxFlushTime) {
+    this.maxFlushTime = maxFlushTime;
+  }
 
-    if (eventContext == null) {
-      eventContext = contextData;
-    } else {
-      eventContext = new UnionMap<>(eventContext, contextData);
+  /**
+   * @return number of events dropped by the async overflow policy
+   */
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  /**
+   * @return number of events waiting in the async ring buffers, summed over all appenders
+   */
+  public long getQueuedCount() {
+    long queued = 0;
+    for (AsyncWorker<ILoggingEvent> worker : workers) {
+      queued += worker.getRing().size();
     }
-    Map<String, String> eventContextMap = eventContext;
-    LoggerContextVO oldVo = event.getLoggerContextVO();
-    // capture caller data here
-    StackTraceElement[] oldCallerData = event.getCallerData();
-    LoggerContextVO vo = oldVo != null
-        ? new LoggerContextVO(oldVo.getName(), eventContextMap, oldVo.getBirthTime())
-        : null;
+    return queued;
+  }
 
+  public ILoggingEvent wrapEvent(ILoggingEvent event) {
     // wrap old event and override specific methods to augment data returned
-    ILoggingEvent wrappedEvent = (ILoggingEvent) Proxy.newProxyInstance(
-        ILoggingEvent.class.getClassLoader(),
-        new Class<?>[] { ILoggingEvent.class },
-        (proxy, method, args) -> {
-          if ("getArgumentArray".equals(method.getName())) {
-            return eventArguments.toArray();
-          } else if ("getCallerData".equals(method.getName())) {
-            return oldCallerData;
-          } else if ("getMDCPropertyMap".equals(method.getName())) {
-            return eventContextMap;
-          } else if ("getLoggerContextVO".equals(method.getName())) {
-            return vo;
-          }
-          try {
-            return method.invoke(event, args);
-          } catch (Exception exception) {
-            System.out.println(exception);
-            throw exception.getCause();
-          }
-        });
+    ILoggingEvent wrappedEvent = event instanceof LoggingEventSnapshot
+        // resolved upstream by SnapshotAppender; share the view with other sinks
+        ? ((LoggingEventSnapshot) event).view(addKeyValuePairsAsMDC, addKeyValuePairsAsStructured)
+        : new PolyfillLoggingEvent(event, addKeyValuePairsAsMDC, addKeyValuePairsAsStructured);
+    if (!serializeEvents) {
+      return wrappedEvent;
+    }
+    // capture caller data here so LoggingEventVO picks it up
+    wrappedEvent.getCallerData();
     // https://github.com/qos-ch/logback/blob/9e833ec858953a2296afdc3292f8542fc08f2a45/logback-classic/src/main/java/ch/qos/logback/classic/net/LoggingEventPreSerializationTransformer.java#L29
     // LoggingEventPreSerializationTransformer accepts only subclasses of LoggingEvent and
     // LoggingEventVO, here we transform our wrapped event into a LoggingEventVO
     return LoggingEventVO.build(wrappedEvent);
   }
 
+  // only socket appenders serialize events; everyone else can take the wrapper as-is
+  private static boolean isSerializing(Appender<ILoggingEvent> appender) {
+    return appender instanceof AbstractSocketAppender
+        || appender instanceof AbstractServerSocketAppender;
+  }
+
+  private void updateSerializeEvents() {
+    boolean serialize = false;
+    for (Iterator<Appender<ILoggingEvent>> it = aai.iteratorForAppenders(); it.hasNext();) {
+      serialize |= isSerializing(it.next());
+    }
+    serializeEvents = serialize;
+  }
+
+  @Override
+  public void start() {
+    if (async) {
+      if (queueSize < 1) {
+        addError("Invalid queue size [" + queueSize + "]");
+        return;
+      }
+      for (Iterator<Appender<ILoggingEvent>> it = aai.iteratorForAppenders(); it.hasNext();) {
+        startWorker(it.next());
+      }
+      // drain on JVM exit even if logback's own shutdown hook isn't configured
+      shutdownHook = new Thread(this::stop, "PolyfillAppender-Shutdown-" + getName());
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+    LoggingTelemetry telemetry = LoggingTelemetry.getGlobal();
+    appendTimer = telemetry.timer(LoggingTelemetry.Metric.APPENDER_DURATION,
+        Attributes.of(LoggingTelemetry.APPENDER, getName()));
+    wrapTimer = telemetry.timer(LoggingTelemetry.Metric.WRAP_DURATION,
+        Attributes.of(LoggingTelemetry.APPENDER, getName()));
+    registrations = List.of(appendTimer, wrapTimer,
+        telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+            Attributes.of(LoggingTelemetry.COMPONENT, getName(), LoggingTelemetry.REASON, "overflow"),
+            droppedCount::sum),
+        telemetry.observe(LoggingTelemetry.Metric.QUEUE_DEPTH,
+            Attributes.of(LoggingTelemetry.QUEUE, getName()), this::getQueuedCount));
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    for (AsyncWorker<ILoggingEvent> worker : workers) {
+      if (!worker.stop(maxFlushTime)) {
+        addWarn("Max flush time of " + maxFlushTime + "ms exceeded draining ["
+            + worker.getAppender().getName() + "]; queued events may be lost.");
+      }
+    }
+    workers.clear();
+    if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // JVM is already shutting down
+      }
+    }
+    shutdownHook = null;
+    registrations.forEach(LoggingTelemetry.Registration::close);
+    registrations = List.of();
+  }
+
+  private void startWorker(Appender<ILoggingEvent> appender) {
+    AsyncWorker<ILoggingEvent> worker = new AsyncWorker<>(new RingBuffer<>(queueSize), appender, this,
+        "PolyfillAppender-Worker-" + getName() + "-" + appender.getName());
+    workers.add(worker);
+    worker.start();
+  }
+
+  private void stopWorker(Appender<ILoggingEvent> appender) {
+    for (AsyncWorker<ILoggingEvent> worker : workers) {
+      if (worker.getAppender() == appender) {
+        workers.remove(worker);
+        worker.stop(maxFlushTime);
+      }
+    }
+  }
+
   @Override
   protected void append(ILoggingEvent event) {
-    aai.appendLoopOnAppenders(wrapEvent(event));
+    long start = appendTimer.start();
+    try {
+      dispatch(event);
+    } finally {
+      appendTimer.stop(start);
+    }
+  }
+
+  private void dispatch(ILoggingEvent event) {
+    long wrapStart = wrapTimer.start();
+    ILoggingEvent wrappedEvent = wrapEvent(event);
+    wrapTimer.stop(wrapStart);
+    if (workers.isEmpty()) {
+      aai.appendLoopOnAppenders(wrappedEvent);
+      return;
+    }
+
+    // capture everything thread-bound once, on the producer side
+    if (includeCallerData) {
+      wrappedEvent.getCallerData();
+    }
+    wrappedEvent.prepareForDeferredProcessing();
+    for (AsyncWorker<ILoggingEvent> worker : workers) {
+      enqueue(worker, wrappedEvent);
+    }
+  }
+
+  private void enqueue(AsyncWorker<ILoggingEvent> worker, ILoggingEvent event) {
+    if (worker.offer(event)) {
+      return;
+    }
+    switch (overflowPolicy) {
+      case DROP_OLDEST:
+        do {
+          if (worker.getRing().poll() != null) {
+            droppedCount.increment();
+          }
+        } while (!worker.offer(event));
+        return;
+      case DROP_BELOW_LEVEL:
+        if (!event.getLevel().isGreaterOrEqual(dropBelowLevel)) {
+          droppedCount.increment();
+          return;
+        }
+        break;
+      default:
+        break;
+    }
+    // block until the worker makes room (or goes away)
+    while (!worker.offer(event)) {
+      if (!worker.isRunning()) {
+        droppedCount.increment();
+        return;
+      }
+      worker.signal();
+      LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+    }
   }
 
   @Override
   public void addAppender(Appender<ILoggingEvent> appender) {
     aai.addAppender(appender);
+    if (isSerializing(appender)) {
+      serializeEvents = true;
+    }
+    if (async && isStarted()) {
+      startWorker(appender);
+    }
   }
 
   @Override
@@ -153,16 +354,30 @@ public class PolyfillAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
 
   @Override
   public void detachAndStopAllAppenders() {
+    for (AsyncWorker<ILoggingEvent> worker : workers) {
+      workers.remove(worker);
+      worker.stop(maxFlushTime);
+    }
     aai.detachAndStopAllAppenders();
+    serializeEvents = false;
   }
 
   @Override
   public boolean detachAppender(Appender<ILoggingEvent> appender) {
-    return aai.detachAppender(appender);
+    stopWorker(appender);
+    boolean detached = aai.detachAppender(appender);
+    updateSerializeEvents();
+    return detached;
   }
 
   @Override
   public boolean detachAppender(String name) {
-    return aai.detachAppender(name);
+    Appender<ILoggingEvent> appender = aai.getAppender(name);
+    if (appender != null) {
+      stopWorker(appender);
+    }
+    boolean detached = aai.detachAppender(name);
+    updateSerializeEvents();
+    return detached;
   }
 }
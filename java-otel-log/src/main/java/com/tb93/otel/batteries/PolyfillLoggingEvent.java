@@ -0,0 +1,209 @@
+package com.tb93.otel.batteries;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.ThrowableProxyVO;
+import io.opentelemetry.instrumentation.logback.mdc.v1_0.internal.UnionMap;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+
+/*
+ * Delegating ILoggingEvent used by PolyfillAppender
+ * Augmented views (arguments, MDC, context VO, formatted message) are computed
+ * lazily on first access; everything else is passed straight through
+ */
+final class PolyfillLoggingEvent implements ILoggingEvent {
+  private static final Object[] EMPTY_ARGUMENT_ARRAY = new Object[0];
+
+  private final ILoggingEvent event;
+  private final boolean addKeyValuePairsAsMDC;
+  private final boolean addKeyValuePairsAsStructured;
+
+  private Object[] argumentArray;
+  private boolean argumentArrayResolved;
+  private Map<String, String> mdcPropertyMap;
+  private LoggerContextVO loggerContextVO;
+  private boolean loggerContextVOResolved;
+  private IThrowableProxy throwableProxy;
+
+  PolyfillLoggingEvent(ILoggingEvent event, boolean addKeyValuePairsAsMDC,
+      boolean addKeyValuePairsAsStructured) {
+    this.event = event;
+    this.addKeyValuePairsAsMDC = addKeyValuePairsAsMDC;
+    this.addKeyValuePairsAsStructured = addKeyValuePairsAsStructured;
+  }
+
+  ILoggingEvent getDelegate() {
+    return event;
+  }
+
+  @Override
+  public Object[] getArgumentArray() {
+    if (!argumentArrayResolved) {
+      argumentArray = buildArgumentArray();
+      argumentArrayResolved = true;
+    }
+    return argumentArray;
+  }
+
+  private Object[] buildArgumentArray() {
+    Object[] eventArguments = event.getArgumentArray();
+    List<KeyValuePair> keyValuePairs = addKeyValuePairsAsStructured ? event.getKeyValuePairs() : null;
+    if (keyValuePairs == null || keyValuePairs.isEmpty()) {
+      // nothing to add; an empty array formats identically to no arguments
+      return eventArguments != null ? eventArguments : EMPTY_ARGUMENT_ARRAY;
+    }
+
+    // convert slf4j keyvalue pairs to "structured data"
+    int offset = eventArguments != null ? eventArguments.length : 0;
+    Object[] arguments = new Object[offset + keyValuePairs.size()];
+    if (offset > 0) {
+      System.arraycopy(eventArguments, 0, arguments, 0, offset);
+    }
+    for (int i = 0; i < keyValuePairs.size(); i++) {
+      KeyValuePair keyValuePair = keyValuePairs.get(i);
+      arguments[offset + i] = keyValue(keyValuePair.key, keyValuePair.value);
+    }
+    return arguments;
+  }
+
+  @Override
+  public String getFormattedMessage() {
+    // as formatted upstream: appended key/values are not placeholders of the message
+    return event.getFormattedMessage();
+  }
+
+  @Override
+  public Map<String, String> getMDCPropertyMap() {
+    if (mdcPropertyMap == null) {
+      mdcPropertyMap = buildMDCPropertyMap();
+    }
+    return mdcPropertyMap;
+  }
+
+  private Map<String, String> buildMDCPropertyMap() {
+    Map<String, String> eventContext = event.getMDCPropertyMap();
+    List<KeyValuePair> keyValuePairs = addKeyValuePairsAsMDC ? event.getKeyValuePairs() : null;
+    if (keyValuePairs == null || keyValuePairs.isEmpty()) {
+      return eventContext != null ? eventContext : Collections.emptyMap();
+    }
+
+    // add slf4j keyvalue pairs to MDC (note that MDC is always string value)
+    Map<String, String> contextData = new HashMap<>();
+    keyValuePairs.forEach(
+        (keyValuePair) -> contextData.put(
+            keyValuePair.key, keyValuePair.value.toString()));
+    return eventContext != null ? new UnionMap<>(eventContext, contextData) : contextData;
+  }
+
+  @Override
+  public LoggerContextVO getLoggerContextVO() {
+    if (!loggerContextVOResolved) {
+      LoggerContextVO oldVo = event.getLoggerContextVO();
+      loggerContextVO = oldVo != null
+          ? new LoggerContextVO(oldVo.getName(), getMDCPropertyMap(), oldVo.getBirthTime())
+          : null;
+      loggerContextVOResolved = true;
+    }
+    return loggerContextVO;
+  }
+
+  @Override
+  public String getThreadName() {
+    return event.getThreadName();
+  }
+
+  @Override
+  public Level getLevel() {
+    return event.getLevel();
+  }
+
+  @Override
+  public String getMessage() {
+    return event.getMessage();
+  }
+
+  @Override
+  public String getLoggerName() {
+    return event.getLoggerName();
+  }
+
+  @Override
+  public IThrowableProxy getThrowableProxy() {
+    // the proxy this replaced handed out LoggingEventVOs; encoders without a throwable
+    // converter (e.g. EcsEncoder) print a ThrowableProxyVO the way logback does
+    if (throwableProxy == null && event.getThrowableProxy() != null) {
+      throwableProxy = ThrowableProxyVO.build(event.getThrowableProxy());
+    }
+    return throwableProxy;
+  }
+
+  @Override
+  public StackTraceElement[] getCallerData() {
+    return event.getCallerData();
+  }
+
+  @Override
+  public boolean hasCallerData() {
+    return event.hasCallerData();
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public Marker getMarker() {
+    return event.getMarker();
+  }
+
+  @Override
+  public List<Marker> getMarkerList() {
+    return event.getMarkerList();
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public Map<String, String> getMdc() {
+    return event.getMdc();
+  }
+
+  @Override
+  public long getTimeStamp() {
+    return event.getTimeStamp();
+  }
+
+  @Override
+  public int getNanoseconds() {
+    return event.getNanoseconds();
+  }
+
+  @Override
+  public Instant getInstant() {
+    return event.getInstant();
+  }
+
+  @Override
+  public long getSequenceNumber() {
+    return event.getSequenceNumber();
+  }
+
+  @Override
+  public List<KeyValuePair> getKeyValuePairs() {
+    return event.getKeyValuePairs();
+  }
+
+  @Override
+  public void prepareForDeferredProcessing() {
+    event.prepareForDeferredProcessing();
+    // resolve lazy views on the producing thread before the event is handed off
+    getFormattedMessage();
+    getMDCPropertyMap();
+    getLoggerContextVO();
+  }
+}
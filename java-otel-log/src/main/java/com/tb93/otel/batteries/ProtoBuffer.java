@@ -0,0 +1,174 @@
+package com.tb93.otel.batteries;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import okio.BufferedSink;
+
+/*
+ * Growable byte array with the handful of protobuf encodings OTLP needs
+ * Strings are encoded to UTF-8 straight into the array (malformed surrogates become '?', as
+ * with String.getBytes), so writing an attribute doesn't allocate; callers compute sizes up
+ * front with utf8Length() and varintSize(), since every length prefix precedes its message
+ */
+final class ProtoBuffer {
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LEN = 2;
+    static final int FIXED32 = 5;
+
+    private byte[] bytes;
+    private int length;
+
+    ProtoBuffer(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    int length() {
+        return length;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    void clear() {
+        length = 0;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+
+    void writeTag(int field, int wireType) {
+        writeVarint((field << 3) | wireType);
+    }
+
+    void writeVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    void writeFixed32(int value) {
+        ensure(4);
+        for (int i = 0; i < 4; i++) {
+            bytes[length++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    void writeFixed64(long value) {
+        ensure(8);
+        for (int i = 0; i < 8; i++) {
+            bytes[length++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /** Writes the bytes of a lowercase base16 string, e.g. a trace id. */
+    void writeBase16(String hex) {
+        int size = hex.length() / 2;
+        ensure(size);
+        for (int i = 0; i < size; i++) {
+            bytes[length++] = (byte) ((nibble(hex.charAt(2 * i)) << 4) | nibble(hex.charAt(2 * i + 1)));
+        }
+    }
+
+    private static int nibble(char c) {
+        return c <= '9' ? c - '0' : (c | 0x20) - 'a' + 10;
+    }
+
+    /** @param utf8Length the value of utf8Length(value) */
+    void writeUtf8(String value, int utf8Length) {
+        ensure(utf8Length);
+        byte[] out = bytes;
+        int position = length;
+        int chars = value.length();
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >>> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                out[position++] = (byte) (0xE0 | (c >>> 12));
+                out[position++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[position++] = (byte) (0xF0 | (codePoint >>> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                out[position++] = '?';
+            }
+        }
+        length = position;
+    }
+
+    void write(byte[] source) {
+        ensure(source.length);
+        System.arraycopy(source, 0, bytes, length, source.length);
+        length += source.length;
+    }
+
+    void write(ProtoBuffer source) {
+        ensure(source.length);
+        System.arraycopy(source.bytes, 0, bytes, length, source.length);
+        length += source.length;
+    }
+
+    void writeTo(BufferedSink sink) throws IOException {
+        sink.write(bytes, 0, length);
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /** @return size of a length-delimited field holding length bytes, tag included */
+    static int lenFieldSize(int field, int length) {
+        return varintSize(field << 3) + varintSize(length) + length;
+    }
+
+    static int utf8Length(String value) {
+        int chars = value.length();
+        int size = chars;
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    size++;
+                } else if (!Character.isSurrogate(c)) {
+                    size += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < chars
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // two chars, four bytes
+                    size += 2;
+                    i++;
+                }
+            }
+        }
+        return size;
+    }
+
+    static void writeVarint(BufferedSink sink, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            sink.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        sink.writeByte((int) value);
+    }
+}
@@ -0,0 +1,89 @@
+package com.tb93.otel.batteries;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Bounded, preallocated, lock-free ring buffer (Dmitry Vyukov's bounded MPMC queue)
+ * Each slot carries a sequence number; producers and consumers claim positions with a
+ * single CAS and publish through the slot sequence, so no locks are taken on either side
+ */
+final class RingBuffer<E> {
+  private final int mask;
+  private final Object[] slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+
+  RingBuffer(int capacity) {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    slots = new Object[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  int capacity() {
+    return slots.length;
+  }
+
+  /** @return false if the buffer is full */
+  boolean offer(E element) {
+    long pos = tail.get();
+    for (;;) {
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          slots[index] = element;
+          // volatile write publishes the slot to the consumer
+          sequences.set(index, pos + 1);
+          return true;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        return false;
+      } else {
+        pos = tail.get();
+      }
+    }
+  }
+
+  /** @return the oldest element, or null if the buffer is empty */
+  @SuppressWarnings("unchecked")
+  E poll() {
+    long pos = head.get();
+    for (;;) {
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          E element = (E) slots[index];
+          slots[index] = null;
+          // hand the slot back to producers one lap later
+          sequences.set(index, pos + mask + 1);
+          return element;
+        }
+        pos = head.get();
+      } else if (diff < 0) {
+        return null;
+      } else {
+        pos = head.get();
+      }
+    }
+  }
+
+  boolean isEmpty() {
+    return head.get() >= tail.get();
+  }
+
+  int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, slots.length));
+  }
+}
@@ -0,0 +1,217 @@
+package com.tb93.otel.batteries;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+
+/*
+ * Decides which log records reach the wrapped processor (e.g. the BatchLogRecordProcessor)
+ * Records at or above alwaysKeepSeverity and records carrying an exception always pass;
+ * records inside an unsampled span are dropped along with their trace; everything else goes
+ * through a per-logger (or per-body) token bucket. Processors can't drop records for their
+ * siblings, so this one wraps the exporting processor instead of sitting next to it
+ */
+public final class SamplingLogRecordProcessor extends ChainedLogRecordProcessor {
+    public enum RateLimitKey {
+        LOGGER, BODY
+    }
+
+    private final LogRecordProcessor delegate;
+    private final int alwaysKeepSeverity;
+    private final boolean dropUnsampled;
+    private final RateLimitKey rateLimitKey;
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+    private final int maxBuckets;
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    // shared by every key seen after maxBuckets, so hostile keys can't grow the map
+    private final TokenBucket overflowBucket;
+
+    private final LongAdder sampledCount = new LongAdder();
+    private final LongAdder droppedUnsampledCount = new LongAdder();
+    private final LongAdder droppedRateLimitedCount = new LongAdder();
+    private final List<LoggingTelemetry.Registration> registrations;
+
+    private SamplingLogRecordProcessor(Builder builder) {
+        this.delegate = builder.delegate;
+        this.alwaysKeepSeverity = builder.alwaysKeepSeverity.getSeverityNumber();
+        this.dropUnsampled = builder.dropUnsampled;
+        this.rateLimitKey = builder.rateLimitKey;
+        this.emissionIntervalNanos = builder.recordsPerSecond > 0
+                ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / builder.recordsPerSecond))
+                : 0;
+        this.burstNanos = emissionIntervalNanos * Math.max(1, builder.burst);
+        this.maxBuckets = builder.maxBuckets;
+        this.overflowBucket = new TokenBucket();
+        LoggingTelemetry telemetry = LoggingTelemetry.getGlobal();
+        this.registrations = List.of(
+                telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+                        Attributes.of(LoggingTelemetry.COMPONENT, "sampling", LoggingTelemetry.REASON, "unsampled"),
+                        droppedUnsampledCount::sum),
+                telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+                        Attributes.of(LoggingTelemetry.COMPONENT, "sampling", LoggingTelemetry.REASON, "rate_limited"),
+                        droppedRateLimitedCount::sum));
+    }
+
+    public static Builder builder(LogRecordProcessor delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    void onEmit(Context context, ReadWriteLogRecord logRecord, LogRecordData logRecordData) {
+        if (shouldKeep(context, logRecordData)) {
+            sampledCount.increment();
+            emit(delegate, context, logRecord, logRecordData);
+        }
+    }
+
+    private boolean shouldKeep(Context context, LogRecordData logRecordData) {
+        if (logRecordData.getSeverity().getSeverityNumber() >= alwaysKeepSeverity) {
+            return true;
+        }
+        if (logRecordData.getAttributes().get(SemanticAttributes.EXCEPTION_TYPE) != null) {
+            return true;
+        }
+        SpanContext spanContext = Span.fromContext(context).getSpanContext();
+        if (dropUnsampled && spanContext.isValid() && !spanContext.isSampled()) {
+            droppedUnsampledCount.increment();
+            return false;
+        }
+        if (emissionIntervalNanos > 0 && !bucket(logRecordData).tryAcquire()) {
+            droppedRateLimitedCount.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private TokenBucket bucket(LogRecordData logRecordData) {
+        String key = rateLimitKey == RateLimitKey.BODY
+                ? logRecordData.getBody().asString()
+                : logRecordData.getInstrumentationScopeInfo().getName();
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxBuckets) {
+            return overflowBucket;
+        }
+        return buckets.computeIfAbsent(key, unused -> new TokenBucket());
+    }
+
+    /** @return number of records passed to the wrapped processor */
+    public long getSampledCount() {
+        return sampledCount.sum();
+    }
+
+    /** @return number of records dropped because their span was not sampled */
+    public long getDroppedUnsampledCount() {
+        return droppedUnsampledCount.sum();
+    }
+
+    /** @return number of records dropped by the rate limit */
+    public long getDroppedRateLimitedCount() {
+        return droppedRateLimitedCount.sum();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        registrations.forEach(LoggingTelemetry.Registration::close);
+        return delegate.shutdown();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return delegate.forceFlush();
+    }
+
+    /*
+     * Lock-free token bucket in its GCRA form: a single "theoretical arrival time" advanced by
+     * one emission interval per record, rejected once it runs further ahead of now than the
+     * burst allows
+     */
+    private final class TokenBucket {
+        private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+        boolean tryAcquire() {
+            long now = System.nanoTime();
+            for (;;) {
+                long arrival = theoreticalArrival.get();
+                long next = Math.max(arrival, now) + emissionIntervalNanos;
+                if (next - now > burstNanos) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(arrival, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final LogRecordProcessor delegate;
+        private Severity alwaysKeepSeverity = Severity.WARN;
+        private boolean dropUnsampled = true;
+        private RateLimitKey rateLimitKey = RateLimitKey.LOGGER;
+        private double recordsPerSecond;
+        private int burst = 1;
+        private int maxBuckets = 1024;
+
+        private Builder(LogRecordProcessor delegate) {
+            this.delegate = delegate;
+        }
+
+        /** Records at or above this severity always pass (default: WARN). */
+        public Builder setAlwaysKeepSeverity(Severity alwaysKeepSeverity) {
+            this.alwaysKeepSeverity = alwaysKeepSeverity;
+            return this;
+        }
+
+        /** Drop records emitted inside a span that was not sampled (default: true). */
+        public Builder setDropUnsampled(boolean dropUnsampled) {
+            this.dropUnsampled = dropUnsampled;
+            return this;
+        }
+
+        /**
+         * Records per second allowed per key, with bursts of up to burst records; 0 (default)
+         * disables rate limiting.
+         */
+        public Builder setRateLimit(double recordsPerSecond, int burst) {
+            this.recordsPerSecond = recordsPerSecond;
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * Rate limit per logger (default) or per body. The body is the formatted message, so it
+         * only matches the message template for messages without arguments.
+         */
+        public Builder setRateLimitKey(RateLimitKey rateLimitKey) {
+            this.rateLimitKey = rateLimitKey;
+            return this;
+        }
+
+        /** Maximum number of keys with their own bucket; later keys share one bucket. */
+        public Builder setMaxBuckets(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+            return this;
+        }
+
+        public SamplingLogRecordProcessor build() {
+            return new SamplingLogRecordProcessor(this);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.tb93.otel.batteries;
+
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+
+/*
+ * Throwable converter for the LogstashEncoder and EcsEncoder ({@code <throwableConverter>})
+ * Renders a stack trace the way the LogstashEncoder does by default, but only once per
+ * exception: when the event came through SnapshotAppender the snapshot's StackTraceRenderer
+ * rendering is reused by every other encoder (and, in FIRST_OCCURRENCE mode, shortened to
+ * its first line after the first occurrence); otherwise the shared FULL renderer caches it
+ */
+public class SharedThrowableConverter extends ThrowableHandlingConverter {
+  @Override
+  public String convert(ILoggingEvent event) {
+    IThrowableProxy throwableProxy = event.getThrowableProxy();
+    if (throwableProxy == null) {
+      return "";
+    }
+    LoggingEventSnapshot snapshot = LoggingEventSnapshot.of(event);
+    StackTraceRenderer.Rendering rendering = snapshot != null
+        ? snapshot.getExceptionRendering()
+        : null;
+    if (rendering == null) {
+      rendering = StackTraceRenderer.getDefault().render(throwableProxy);
+    }
+    return rendering.getStackTrace();
+  }
+}
@@ -0,0 +1,210 @@
+package com.tb93.otel.batteries;
+
+/*
+ * Shared upstream stage for running several logging models side by side
+ * Replaces one io.opentelemetry.instrumentation.logback.mdc.v1_0.OpenTelemetryAppender per
+ * model: the event is resolved once into a LoggingEventSnapshot and every attached
+ * appender (PolyfillAppender chains, the OTLP appender, ...) reads the same snapshot
+ * Exceptions are fingerprinted and rendered once by a StackTraceRenderer; the appenders named
+ * in exceptionAttributeAppenders (OTLP appenders that capture key/value pairs) and
+ * OtlpProtobufAppenders capturing key/value pairs get them as exception.* key/values from
+ * that rendering instead of printing their own, the others get the exception itself
+ */
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.context.Context;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+public class SnapshotAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+    implements AppenderAttachable<ILoggingEvent> {
+  private boolean addBaggage;
+  private BaggageAttributeConverter baggageConverter = BaggageAttributeConverter.getDefault();
+  private StackTraceRenderer.Mode exceptionMode = StackTraceRenderer.Mode.FULL;
+  private int exceptionWindow = (int) StackTraceRenderer.DEFAULT_WINDOW.toMillis();
+  private int exceptionCacheSize = StackTraceRenderer.DEFAULT_MAX_ENTRIES;
+  private StackTraceRenderer stackTraceRenderer;
+  private String[] exceptionAttributeAppenderNames = new String[0];
+  private LoggingTelemetry.Timer appendTimer;
+  // appenders that read exception.* key/values, resolved on start
+  private Set<Appender<ILoggingEvent>> exceptionAttributeAppenders = Set.of();
+
+  private final AppenderAttachableImpl<ILoggingEvent> aai = new AppenderAttachableImpl<>();
+
+  /**
+   * When set to true this will add baggage to the snapshot's MDC as "baggage.key", like the
+   * OTel MDC appender. {@code <addBaggage>true</addBaggage>}
+   *
+   * @param addBaggage True if baggage should be added to MDC
+   */
+  public void setAddBaggage(boolean addBaggage) {
+    this.addBaggage = addBaggage;
+  }
+
+  public void setBaggageConverter(BaggageAttributeConverter baggageConverter) {
+    this.baggageConverter = baggageConverter;
+  }
+
+  /**
+   * FULL (default) includes every stack trace; FIRST_OCCURRENCE includes it only the first
+   * time an exception's fingerprint is seen within the exception window, later occurrences
+   * carry exception.fingerprint and exception.message.
+   * {@code <exceptionMode>FIRST_OCCURRENCE</exceptionMode>}
+   *
+   * @param exceptionMode FULL or FIRST_OCCURRENCE
+   */
+  public void setExceptionMode(String exceptionMode) {
+    try {
+      this.exceptionMode = StackTraceRenderer.Mode.valueOf(
+          exceptionMode.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      addWarn("Unknown exception mode [" + exceptionMode + "], using FULL");
+      this.exceptionMode = StackTraceRenderer.Mode.FULL;
+    }
+  }
+
+  /**
+   * How long a full stack trace covers later occurrences in FIRST_OCCURRENCE mode, in
+   * milliseconds. Defaults to 60000.
+   *
+   * @param exceptionWindow Window in milliseconds
+   */
+  public void setExceptionWindow(int exceptionWindow) {
+    this.exceptionWindow = exceptionWindow;
+  }
+
+  /**
+   * Number of exception fingerprints whose rendered stack trace is cached. Defaults to 256.
+   *
+   * @param exceptionCacheSize Cached fingerprints
+   */
+  public void setExceptionCacheSize(int exceptionCacheSize) {
+    this.exceptionCacheSize = exceptionCacheSize;
+  }
+
+  /**
+   * Comma-separated names of attached appenders that get exceptions as exception.* key/values
+   * instead of the exception, e.g. OpenTelemetryAppenders with captureKeyValuePairAttributes
+   * on (they would drop the key/values otherwise). OtlpProtobufAppenders capturing key/value
+   * pairs are included without being named.
+   * {@code <exceptionAttributeAppenders>otel-otlp</exceptionAttributeAppenders>}
+   *
+   * @param exceptionAttributeAppenders Appender names
+   */
+  public void setExceptionAttributeAppenders(String exceptionAttributeAppenders) {
+    this.exceptionAttributeAppenderNames = Arrays.stream(exceptionAttributeAppenders.split(","))
+        .map(String::trim)
+        .filter(name -> !name.isEmpty())
+        .toArray(String[]::new);
+  }
+
+  @Override
+  public void start() {
+    stackTraceRenderer = StackTraceRenderer.builder()
+        .setMode(exceptionMode)
+        .setWindow(Duration.ofMillis(Math.max(0, exceptionWindow)))
+        .setMaxEntries(exceptionCacheSize)
+        .build();
+    Set<Appender<ILoggingEvent>> appenders = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (String name : exceptionAttributeAppenderNames) {
+      Appender<ILoggingEvent> appender = aai.getAppender(name);
+      if (appender == null) {
+        addWarn("No attached appender named [" + name + "] for exceptionAttributeAppenders");
+      } else {
+        appenders.add(appender);
+      }
+    }
+    Iterator<Appender<ILoggingEvent>> attached = aai.iteratorForAppenders();
+    while (attached.hasNext()) {
+      Appender<ILoggingEvent> appender = attached.next();
+      if (appender instanceof OtlpProtobufAppender
+          && ((OtlpProtobufAppender) appender).isCaptureKeyValuePairAttributes()) {
+        appenders.add(appender);
+      }
+    }
+    exceptionAttributeAppenders = appenders;
+    appendTimer = LoggingTelemetry.getGlobal().timer(LoggingTelemetry.Metric.APPENDER_DURATION,
+        Attributes.of(LoggingTelemetry.APPENDER, getName()));
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    appendTimer.close();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    long start = appendTimer.start();
+    try {
+      appendSnapshot(event);
+    } finally {
+      appendTimer.stop(start);
+    }
+  }
+
+  private void appendSnapshot(ILoggingEvent event) {
+    LoggingEventSnapshot snapshot = LoggingEventSnapshot.capture(event, Context.current(),
+        baggageConverter, addBaggage, stackTraceRenderer);
+    if (snapshot.getExceptionRendering() == null) {
+      aai.appendLoopOnAppenders(snapshot);
+      return;
+    }
+    Iterator<Appender<ILoggingEvent>> appenders = aai.iteratorForAppenders();
+    while (appenders.hasNext()) {
+      Appender<ILoggingEvent> appender = appenders.next();
+      appender.doAppend(exceptionAttributeAppenders.contains(appender)
+          ? snapshot.exceptionAttributesView()
+          : snapshot);
+    }
+  }
+
+  @Override
+  public void addAppender(Appender<ILoggingEvent> appender) {
+    aai.addAppender(appender);
+  }
+
+  @Override
+  public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+    return aai.iteratorForAppenders();
+  }
+
+  @Override
+  public Appender<ILoggingEvent> getAppender(String name) {
+    return aai.getAppender(name);
+  }
+
+  @Override
+  public boolean isAttached(Appender<ILoggingEvent> appender) {
+    return aai.isAttached(appender);
+  }
+
+  @Override
+  public void detachAndStopAllAppenders() {
+    aai.detachAndStopAllAppenders();
+  }
+
+  @Override
+  public boolean detachAppender(Appender<ILoggingEvent> appender) {
+    return aai.detachAppender(appender);
+  }
+
+  @Override
+  public boolean detachAppender(String name) {
+    return aai.detachAppender(name);
+  }
+}
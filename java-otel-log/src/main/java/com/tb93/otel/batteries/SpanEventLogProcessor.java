@@ -0,0 +1,246 @@
+package com.tb93.otel.batteries;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+
+/*
+ * Attaches log records emitted inside a recording span to that span as events, so they are
+ * exported once with the span instead of as separate OTLP log records repeating its trace
+ * and span ids and baggage
+ * The event is named after the body and carries the record's attributes (minus baggage.*,
+ * which AddBaggageSpanProcessor already put on the span) plus log.severity and log.logger.
+ * Records outside a span, at or above alwaysLogSeverity, or past a span's event cap go to the
+ * wrapped processor as usual. Event counts are kept per span from start to end, so
+ * asSpanProcessor() must be added to the SdkTracerProvider; spans that are never ended are
+ * evicted once they are older than maxSpanAge
+ */
+public final class SpanEventLogProcessor extends ChainedLogRecordProcessor {
+    public static final AttributeKey<String> LOG_SEVERITY = AttributeKey.stringKey("log.severity");
+    public static final AttributeKey<String> LOG_LOGGER = AttributeKey.stringKey("log.logger");
+
+    private final LogRecordProcessor delegate;
+    private final int alwaysLogSeverity;
+    private final int maxEventsPerSpan;
+    private final int maxSpans;
+    private final long maxSpanAgeNanos;
+    // recording spans that are started and not yet ended
+    private final ConcurrentHashMap<ReadableSpan, AtomicInteger> eventCounts = new ConcurrentHashMap<>();
+    // System.nanoTime() after which the next span start sweeps eventCounts
+    private final AtomicLong nextSweepNanos;
+
+    private final LongAdder attachedCount = new LongAdder();
+    private final LongAdder cappedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final List<LoggingTelemetry.Registration> registrations;
+
+    private SpanEventLogProcessor(Builder builder) {
+        this.delegate = builder.delegate;
+        this.alwaysLogSeverity = builder.alwaysLogSeverity.getSeverityNumber();
+        this.maxEventsPerSpan = builder.maxEventsPerSpan;
+        this.maxSpans = builder.maxSpans;
+        this.maxSpanAgeNanos = builder.maxSpanAge.toNanos();
+        this.nextSweepNanos = new AtomicLong(System.nanoTime() + maxSpanAgeNanos);
+        LoggingTelemetry telemetry = LoggingTelemetry.getGlobal();
+        this.registrations = List.of(
+                telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+                        Attributes.of(LoggingTelemetry.COMPONENT, "span_events", LoggingTelemetry.REASON, "span_event"),
+                        attachedCount::sum),
+                telemetry.observe(LoggingTelemetry.Metric.TRACKED_SPANS,
+                        Attributes.of(LoggingTelemetry.COMPONENT, "span_events"), this::getTrackedSpanCount));
+    }
+
+    public static Builder builder(LogRecordProcessor delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    void onEmit(Context context, ReadWriteLogRecord logRecord, LogRecordData logRecordData) {
+        if (!attach(context, logRecordData)) {
+            emit(delegate, context, logRecord, logRecordData);
+        }
+    }
+
+    private boolean attach(Context context, LogRecordData logRecordData) {
+        if (logRecordData.getSeverity().getSeverityNumber() >= alwaysLogSeverity) {
+            return false;
+        }
+        Span span = Span.fromContext(context);
+        if (!(span instanceof ReadWriteSpan) || !span.isRecording()) {
+            return false;
+        }
+        ReadWriteSpan readWriteSpan = (ReadWriteSpan) span;
+        AtomicInteger eventCount = eventCounts.get(readWriteSpan);
+        // not tracked: started before this processor, or over maxSpans
+        if (eventCount == null || readWriteSpan.hasEnded()) {
+            return false;
+        }
+        if (eventCount.incrementAndGet() > maxEventsPerSpan) {
+            cappedCount.increment();
+            return false;
+        }
+        String name = logRecordData.getBody().asString();
+        Attributes attributes = eventAttributes(logRecordData);
+        if (logRecordData.getEpochNanos() != 0) {
+            readWriteSpan.addEvent(name, attributes, logRecordData.getEpochNanos(), TimeUnit.NANOSECONDS);
+        } else {
+            readWriteSpan.addEvent(name, attributes);
+        }
+        attachedCount.increment();
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Attributes eventAttributes(LogRecordData logRecordData) {
+        AttributesBuilder attributes = Attributes.builder();
+        logRecordData.getAttributes().forEach((key, value) -> {
+            if (!key.getKey().startsWith(BaggageAttributeConverter.PREFIX)) {
+                attributes.put((AttributeKey<Object>) key, value);
+            }
+        });
+        String severityText = logRecordData.getSeverityText();
+        attributes.put(LOG_SEVERITY, severityText != null ? severityText : logRecordData.getSeverity().name());
+        attributes.put(LOG_LOGGER, logRecordData.getInstrumentationScopeInfo().getName());
+        return attributes.build();
+    }
+
+    /** @return the span processor that tracks recording spans; add it to the SdkTracerProvider */
+    public SpanProcessor asSpanProcessor() {
+        return new SpanProcessor() {
+            @Override
+            public void onStart(Context parentContext, ReadWriteSpan span) {
+                if (!span.isRecording()) {
+                    return;
+                }
+                long now = System.nanoTime();
+                long nextSweep = nextSweepNanos.get();
+                // once per maxSpanAge, or early when full; one thread sweeps at a time
+                if ((now - nextSweep >= 0 || eventCounts.size() >= maxSpans)
+                        && nextSweepNanos.compareAndSet(nextSweep, now + maxSpanAgeNanos)) {
+                    evictStaleSpans();
+                }
+                if (eventCounts.size() < maxSpans) {
+                    eventCounts.put(span, new AtomicInteger());
+                }
+            }
+
+            @Override
+            public boolean isStartRequired() {
+                return true;
+            }
+
+            @Override
+            public void onEnd(ReadableSpan span) {
+                eventCounts.remove(span);
+            }
+
+            @Override
+            public boolean isEndRequired() {
+                return true;
+            }
+        };
+    }
+
+    // spans whose end was never reported, e.g. leaked by code that started them without ending them
+    private void evictStaleSpans() {
+        eventCounts.keySet().removeIf(span -> {
+            if (span.hasEnded() || span.getLatencyNanos() > maxSpanAgeNanos) {
+                evictedCount.increment();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /** @return number of records attached to spans instead of passed to the wrapped processor */
+    public long getAttachedCount() {
+        return attachedCount.sum();
+    }
+
+    /** @return number of records passed to the wrapped processor because their span was at its cap */
+    public long getCappedCount() {
+        return cappedCount.sum();
+    }
+
+    /** @return number of spans dropped from tracking because they were not ended within maxSpanAge */
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    /** @return number of open spans currently tracked */
+    public long getTrackedSpanCount() {
+        return eventCounts.size();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        registrations.forEach(LoggingTelemetry.Registration::close);
+        return delegate.shutdown();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return delegate.forceFlush();
+    }
+
+    public static final class Builder {
+        private final LogRecordProcessor delegate;
+        private Severity alwaysLogSeverity = Severity.WARN;
+        private int maxEventsPerSpan = 32;
+        private int maxSpans = 4096;
+        private Duration maxSpanAge = Duration.ofMinutes(10);
+
+        private Builder(LogRecordProcessor delegate) {
+            this.delegate = delegate;
+        }
+
+        /** Records at or above this severity always go to the wrapped processor (default: WARN). */
+        public Builder setAlwaysLogSeverity(Severity alwaysLogSeverity) {
+            this.alwaysLogSeverity = alwaysLogSeverity;
+            return this;
+        }
+
+        /**
+         * Records attached to one span before the rest go to the wrapped processor (default: 32,
+         * within the SDK's default limit of 128 events per span).
+         */
+        public Builder setMaxEventsPerSpan(int maxEventsPerSpan) {
+            this.maxEventsPerSpan = maxEventsPerSpan;
+            return this;
+        }
+
+        /** Maximum number of open spans tracked; records in later spans are logged as usual. */
+        public Builder setMaxSpans(int maxSpans) {
+            this.maxSpans = maxSpans;
+            return this;
+        }
+
+        /** Age after which a span that was never ended is no longer tracked (default: 10 minutes). */
+        public Builder setMaxSpanAge(Duration maxSpanAge) {
+            this.maxSpanAge = maxSpanAge;
+            return this;
+        }
+
+        public SpanEventLogProcessor build() {
+            return new SpanEventLogProcessor(this);
+        }
+    }
+}
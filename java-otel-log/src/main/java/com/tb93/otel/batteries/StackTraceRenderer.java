@@ -0,0 +1,382 @@
+package com.tb93.otel.batteries;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.qos.logback.classic.pattern.ExtendedThrowableProxyConverter;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
+/*
+ * Shared exception renderer for the three logging models and spans
+ * An exception is fingerprinted by walking the class names and frames of it, its suppressed
+ * exceptions and its causes (no strings are built); the rendered stack trace is cached per
+ * fingerprint in a bounded LRU with the messages cut out, and each occurrence fills in its own
+ * (traces whose headers don't read "type: message", as with an overridden toString, are only
+ * reused while the messages match). In FIRST_OCCURRENCE mode
+ * the full trace is only included the first time a fingerprint is seen in a window; later
+ * occurrences carry just exception.fingerprint and exception.message
+ */
+public final class StackTraceRenderer {
+    public enum Mode {
+        FULL, FIRST_OCCURRENCE
+    }
+
+    public static final String FINGERPRINT = "exception.fingerprint";
+
+    public static final Duration DEFAULT_WINDOW = Duration.ofMinutes(1);
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final StackTraceRenderer DEFAULT = builder().build();
+
+    // guards against pathological cause/suppressed graphs
+    private static final int MAX_DEPTH = 32;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int CAUSE = 0x43415553;
+    private static final int SUPPRESSED = 0x53555050;
+
+    private static final ProxyRenderer PROXY_RENDERER = new ProxyRenderer();
+
+    static {
+        PROXY_RENDERER.start();
+    }
+
+    private final Mode mode;
+    private final long windowNanos;
+    // access-ordered LRU; guarded by itself
+    private final Map<Long, Entry> entries;
+
+    private StackTraceRenderer(Builder builder) {
+        this.mode = builder.mode;
+        this.windowNanos = builder.window.toNanos();
+        int maxEntries = builder.maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /** Shared renderer in FULL mode. */
+    public static StackTraceRenderer getDefault() {
+        return DEFAULT;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Renders a logback exception, in the format of logback's ExtendedThrowableProxyConverter. */
+    public Rendering render(IThrowableProxy proxy) {
+        List<String> types = new ArrayList<>(2);
+        List<String> messages = new ArrayList<>(2);
+        long hash = hash(proxy, FNV_OFFSET, types, messages, 0);
+        return render(hash, types, messages, proxy, null);
+    }
+
+    /** Renders an exception in the format of Throwable.printStackTrace. */
+    public Rendering render(Throwable throwable) {
+        List<String> types = new ArrayList<>(2);
+        List<String> messages = new ArrayList<>(2);
+        long hash = hash(throwable, FNV_OFFSET, types, messages, 0);
+        return render(hash, types, messages, null, throwable);
+    }
+
+    private Rendering render(long hash, List<String> types, List<String> messages,
+            IThrowableProxy proxy, Throwable throwable) {
+        long now = System.nanoTime();
+        Entry entry;
+        boolean includeStackTrace;
+        synchronized (entries) {
+            entry = entries.get(hash);
+            if (entry == null) {
+                entry = new Entry(toHex(hash));
+                entries.put(hash, entry);
+            }
+            boolean inWindow = entry.seen && now - entry.windowStart < windowNanos;
+            if (!inWindow) {
+                // first occurrence: opens the window
+                entry.seen = true;
+                entry.windowStart = now;
+            }
+            includeStackTrace = mode == Mode.FULL || !inWindow;
+        }
+        return new Rendering(entry, includeStackTrace, types, messages, proxy, throwable);
+    }
+
+    private static long hash(IThrowableProxy proxy, long hash, List<String> types,
+            List<String> messages, int depth) {
+        if (proxy == null || depth > MAX_DEPTH) {
+            return hash;
+        }
+        types.add(proxy.getClassName());
+        messages.add(proxy.getMessage());
+        hash = mix(hash, proxy.getClassName().hashCode());
+        StackTraceElementProxy[] frames = proxy.getStackTraceElementProxyArray();
+        if (frames != null) {
+            for (StackTraceElementProxy frame : frames) {
+                hash = mix(hash, frame.getStackTraceElement());
+            }
+        }
+        IThrowableProxy[] suppressed = proxy.getSuppressed();
+        if (suppressed != null) {
+            for (IThrowableProxy each : suppressed) {
+                hash = hash(each, mix(hash, SUPPRESSED), types, messages, depth + 1);
+            }
+        }
+        return hash(proxy.getCause(), mix(hash, CAUSE), types, messages, depth + 1);
+    }
+
+    private static long hash(Throwable throwable, long hash, List<String> types,
+            List<String> messages, int depth) {
+        if (throwable == null || depth > MAX_DEPTH) {
+            return hash;
+        }
+        types.add(throwable.getClass().getName());
+        messages.add(throwable.getMessage());
+        hash = mix(hash, throwable.getClass().getName().hashCode());
+        for (StackTraceElement frame : throwable.getStackTrace()) {
+            hash = mix(hash, frame);
+        }
+        for (Throwable each : throwable.getSuppressed()) {
+            hash = hash(each, mix(hash, SUPPRESSED), types, messages, depth + 1);
+        }
+        Throwable cause = throwable.getCause();
+        return hash(cause == throwable ? null : cause, mix(hash, CAUSE), types, messages, depth + 1);
+    }
+
+    private static long mix(long hash, StackTraceElement frame) {
+        hash = mix(hash, frame.getClassName().hashCode());
+        hash = mix(hash, frame.getMethodName().hashCode());
+        return mix(hash, frame.getLineNumber());
+    }
+
+    // FNV-1a over ints
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    private static String toHex(long hash) {
+        String hex = Long.toHexString(hash);
+        return "0".repeat(16 - hex.length()) + hex;
+    }
+
+    private static String printStackTrace(Throwable throwable) {
+        StringWriter stringWriter = new StringWriter();
+        try (PrintWriter printWriter = new PrintWriter(stringWriter)) {
+            throwable.printStackTrace(printWriter);
+        }
+        return stringWriter.toString();
+    }
+
+    /** One exception occurrence: its fingerprint and (maybe) its cached stack trace. */
+    public static final class Rendering {
+        private final Entry entry;
+        private final boolean includeStackTrace;
+        private final List<String> types;
+        private final List<String> messages;
+        private final IThrowableProxy proxy;
+        private final Throwable throwable;
+
+        private Rendering(Entry entry, boolean includeStackTrace, List<String> types,
+                List<String> messages, IThrowableProxy proxy, Throwable throwable) {
+            this.entry = entry;
+            this.includeStackTrace = includeStackTrace;
+            this.types = types;
+            this.messages = messages;
+            this.proxy = proxy;
+            this.throwable = throwable;
+        }
+
+        public String getFingerprint() {
+            return entry.fingerprint;
+        }
+
+        public String getType() {
+            return proxy != null ? proxy.getClassName() : throwable.getClass().getName();
+        }
+
+        public String getMessage() {
+            return messages.get(0);
+        }
+
+        /** @return false when only the fingerprint and message should be emitted */
+        public boolean isStackTraceIncluded() {
+            return includeStackTrace;
+        }
+
+        /**
+         * @return the stack trace in the format of the source (logback or printStackTrace), or
+         *         just its first line ("type: message") when the trace is not included
+         */
+        public String getStackTrace() {
+            if (!includeStackTrace) {
+                return getHeader();
+            }
+            return proxy != null ? getLogbackStackTrace() : getJavaStackTrace();
+        }
+
+        /**
+         * @return the full stack trace in the format of Throwable.printStackTrace, as the OTel
+         *         SDK and logback appender render it
+         */
+        public String getJavaStackTrace() {
+            Template template = entry.javaStackTrace;
+            String rendered = template != null ? template.fill(messages) : null;
+            if (rendered == null) {
+                Throwable source = throwable;
+                if (source == null && proxy instanceof ThrowableProxy) {
+                    source = ((ThrowableProxy) proxy).getThrowable();
+                }
+                if (source == null) {
+                    return getLogbackStackTrace();
+                }
+                rendered = printStackTrace(source);
+                if (template == null) {
+                    entry.javaStackTrace = new Template(rendered, types, messages);
+                }
+            }
+            return rendered;
+        }
+
+        private String getLogbackStackTrace() {
+            Template template = entry.logbackStackTrace;
+            String rendered = template != null ? template.fill(messages) : null;
+            if (rendered == null) {
+                rendered = PROXY_RENDERER.render(proxy);
+                if (template == null) {
+                    entry.logbackStackTrace = new Template(rendered, types, messages);
+                }
+            }
+            return rendered;
+        }
+
+        private String getHeader() {
+            String message = getMessage();
+            return message != null ? getType() + ": " + message : getType();
+        }
+    }
+
+    private static final class Entry {
+        final String fingerprint;
+        // rendered lazily, once per format unless the messages can't be cut out
+        volatile Template logbackStackTrace;
+        volatile Template javaStackTrace;
+        // guarded by StackTraceRenderer.entries
+        boolean seen;
+        long windowStart;
+
+        Entry(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    // a rendered stack trace and the text between the messages of its exceptions
+    private static final class Template {
+        final String text;
+        final List<String> messages;
+        // null when a header doesn't read "type: message"
+        final String[] literals;
+
+        Template(String text, List<String> types, List<String> messages) {
+            this.text = text;
+            this.messages = messages;
+            this.literals = cut(text, types, messages);
+        }
+
+        // headers come in the order the exceptions were hashed in: self, suppressed, cause
+        private static String[] cut(String text, List<String> types, List<String> messages) {
+            String[] literals = new String[messages.size() + 1];
+            int from = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                String message = messages.get(i);
+                if (message == null) {
+                    literals[i] = "";
+                    continue;
+                }
+                String header = types.get(i) + ": " + message;
+                int at = text.indexOf(header, from);
+                if (at < 0) {
+                    return null;
+                }
+                int start = at + header.length() - message.length();
+                literals[i] = text.substring(from, start);
+                from = start + message.length();
+            }
+            literals[messages.size()] = text.substring(from);
+            return literals;
+        }
+
+        /** @return the trace with the given messages, null if it has to be rendered anew */
+        String fill(List<String> messages) {
+            if (messages.equals(this.messages)) {
+                return text;
+            }
+            if (literals == null || messages.size() != this.messages.size()) {
+                return null;
+            }
+            StringBuilder builder = new StringBuilder(text.length() + 64);
+            for (int i = 0; i < messages.size(); i++) {
+                String message = messages.get(i);
+                if ((message == null) != (this.messages.get(i) == null)) {
+                    return null;
+                }
+                builder.append(literals[i]);
+                if (message != null) {
+                    builder.append(message);
+                }
+            }
+            return builder.append(literals[messages.size()]).toString();
+        }
+    }
+
+    // exposes the rendering behind the converter LogstashEncoder uses by default
+    private static final class ProxyRenderer extends ExtendedThrowableProxyConverter {
+        String render(IThrowableProxy proxy) {
+            return throwableProxyToString(proxy);
+        }
+    }
+
+    public static final class Builder {
+        private Mode mode = Mode.FULL;
+        private Duration window = DEFAULT_WINDOW;
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+        private Builder() {
+        }
+
+        /** FULL (default) or FIRST_OCCURRENCE. */
+        public Builder setMode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /** How long a full trace covers later occurrences in FIRST_OCCURRENCE mode. */
+        public Builder setWindow(Duration window) {
+            this.window = window;
+            return this;
+        }
+
+        /** Number of fingerprints whose rendering is cached. */
+        public Builder setMaxEntries(int maxEntries) {
+            this.maxEntries = Math.max(1, maxEntries);
+            return this;
+        }
+
+        public StackTraceRenderer build() {
+            return new StackTraceRenderer(this);
+        }
+    }
+}
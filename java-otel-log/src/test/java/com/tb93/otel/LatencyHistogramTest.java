@@ -0,0 +1,97 @@
+package com.tb93.otel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void valuesBelow128AreExact() {
+        for (long value = 0; value < 128; value++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(1_000_000);
+            assertEquals(value, histogram.getValueAtPercentile(50));
+        }
+    }
+
+    @Test
+    public void largerValuesAreWithinOneSixtyFourth() {
+        long[] values = {128, 129, 191, 255, 256, 1_000, 4_095, 123_456, 1_000_000_007L, 1L << 40, Long.MAX_VALUE / 4};
+        for (long value : values) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE / 2);
+            long reported = histogram.getValueAtPercentile(50);
+            assertTrue(value + " reported as " + reported, reported >= value);
+            assertTrue(value + " reported as " + reported, reported - value <= value / 64);
+        }
+    }
+
+    @Test
+    public void bucketEdgesOfAPowerOfTwo() {
+        // [1024, 2048) is split into 64 buckets of 16
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1024);
+        histogram.record(1039);
+        histogram.record(1040);
+        histogram.record(2047);
+        histogram.record(2048);
+        assertEquals(1039, histogram.getValueAtPercentile(20));
+        assertEquals(1039, histogram.getValueAtPercentile(40));
+        assertEquals(1055, histogram.getValueAtPercentile(60));
+        assertEquals(2047, histogram.getValueAtPercentile(80));
+        assertEquals(2048, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentileRanks() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        // 0 is the first value, 100 the last
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(1, histogram.getValueAtPercentile(1));
+        assertEquals(2, histogram.getValueAtPercentile(1.5));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(99.9));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesNeverExceedTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_001);
+        // the bucket's highest equivalent value is above the recorded one
+        assertEquals(1_000_001, histogram.getValueAtPercentile(100));
+        assertEquals(1_000_001, histogram.getMax());
+    }
+
+    @Test
+    public void minMaxMeanAndMerge() {
+        LatencyHistogram empty = new LatencyHistogram();
+        assertEquals(0, empty.getTotalCount());
+        assertEquals(0, empty.getMin());
+        assertEquals(0, empty.getMax());
+        assertEquals(0, empty.getMean(), 0);
+        assertEquals(0, empty.getValueAtPercentile(99));
+
+        LatencyHistogram first = new LatencyHistogram();
+        first.record(10);
+        first.record(-5);
+        LatencyHistogram second = new LatencyHistogram();
+        second.record(500);
+        first.add(second);
+        first.add(empty);
+
+        assertEquals(3, first.getTotalCount());
+        // negative values are recorded as 0
+        assertEquals(0, first.getMin());
+        assertEquals(500, first.getMax());
+        assertEquals(170, first.getMean(), 0);
+        assertEquals(10, first.getValueAtPercentile(50));
+    }
+}
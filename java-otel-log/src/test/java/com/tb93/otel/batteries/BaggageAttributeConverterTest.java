@@ -0,0 +1,82 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.opentelemetry.api.baggage.Baggage;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import java.util.List;
+import org.junit.Test;
+
+public class BaggageAttributeConverterTest {
+    @Test
+    public void convertsEntriesToPrefixedAttributes() {
+        Baggage baggage = Baggage.builder().put("session_id", "42").put("tenant", "acme").build();
+
+        assertEquals(Attributes.of(
+                AttributeKey.stringKey("baggage.session_id"), "42",
+                AttributeKey.stringKey("baggage.tenant"), "acme"),
+                BaggageAttributeConverter.getDefault().convert(baggage));
+        assertSame(Attributes.empty(), BaggageAttributeConverter.getDefault().convert(Baggage.empty()));
+    }
+
+    @Test
+    public void conversionIsMemoizedPerBaggageInstance() {
+        BaggageAttributeConverter converter = BaggageAttributeConverter.builder().build();
+        Baggage baggage = Baggage.builder().put("session_id", "42").build();
+        Attributes attributes = converter.convert(baggage);
+        assertSame(attributes, converter.convert(baggage));
+
+        // equal content, another instance: converted again
+        Baggage equal = Baggage.builder().put("session_id", "42").build();
+        Attributes converted = converter.convert(equal);
+        assertNotSame(attributes, converted);
+        assertEquals(attributes, converted);
+        assertSame(converted, converter.convert(equal));
+    }
+
+    @Test
+    public void deniedKeysWinOverAllowedKeys() {
+        BaggageAttributeConverter converter = BaggageAttributeConverter.builder()
+                .setKeyLists("session_id, tenant,", "tenant")
+                .build();
+        Baggage baggage = Baggage.builder()
+                .put("session_id", "42")
+                .put("tenant", "acme")
+                .put("user", "bob")
+                .build();
+
+        assertEquals(Attributes.of(AttributeKey.stringKey("baggage.session_id"), "42"),
+                converter.convert(baggage));
+        assertTrue(converter.isIncluded("session_id"));
+        assertFalse(converter.isIncluded("tenant"));
+        assertFalse(converter.isIncluded("user"));
+
+        BaggageAttributeConverter denyOnly = BaggageAttributeConverter.builder()
+                .setDeniedKeys(List.of("tenant"))
+                .build();
+        assertEquals(2, denyOnly.convert(baggage).size());
+        assertFalse(denyOnly.isIncluded("tenant"));
+    }
+
+    @Test
+    public void keysPastMaxKeysAreNotInterned() {
+        BaggageAttributeConverter converter = BaggageAttributeConverter.builder().setMaxKeys(1).build();
+        AttributeKey<String> interned = converter.attributeKey("first");
+        assertSame(interned, converter.attributeKey("first"));
+
+        AttributeKey<String> second = converter.attributeKey("second");
+        assertEquals("baggage.second", second.getKey());
+        assertNotSame(second, converter.attributeKey("second"));
+        assertEquals(second, converter.attributeKey("second"));
+
+        // conversion still carries every key
+        Baggage baggage = Baggage.builder().put("first", "1").put("second", "2").put("third", "3").build();
+        assertEquals("3", converter.convert(baggage).get(AttributeKey.stringKey("baggage.third")));
+        assertEquals(3, converter.convert(baggage).size());
+    }
+}
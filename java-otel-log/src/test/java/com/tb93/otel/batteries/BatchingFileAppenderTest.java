@@ -0,0 +1,135 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.core.ContextBase;
+import ch.qos.logback.core.encoder.EncoderBase;
+import ch.qos.logback.core.status.Status;
+import ch.qos.logback.core.util.FileSize;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchingFileAppenderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ContextBase context;
+    private Path file;
+    private BatchingFileAppender<String> appender;
+
+    @Before
+    public void setUp() {
+        context = new ContextBase();
+        file = folder.getRoot().toPath().resolve("test.log");
+        appender = new BatchingFileAppender<>();
+        appender.setContext(context);
+        appender.setName("file");
+        appender.setFile(file.toString());
+        appender.setEncoder(new LineEncoder());
+        appender.setMaxBatchEvents(1);
+    }
+
+    @After
+    public void tearDown() {
+        appender.stop();
+    }
+
+    @Test
+    public void rotationWritesFooterAndHeaderOnce() throws IOException {
+        appender.setMaxFileSize(new FileSize(20));
+        appender.setMaxHistory(10);
+        appender.start();
+        assertTrue(appender.isStarted());
+        for (int i = 0; i < 6; i++) {
+            appender.doAppend("event-" + i);
+        }
+        appender.stop();
+
+        List<String> events = new ArrayList<>();
+        for (int i = 10; i >= 0; i--) {
+            Path path = i == 0 ? file : file.resolveSibling("test.log." + i);
+            if (!Files.exists(path)) {
+                continue;
+            }
+            List<String> lines = Files.readAllLines(path);
+            if (lines.isEmpty()) {
+                continue;
+            }
+            assertEquals("header", lines.get(0));
+            assertEquals("footer", lines.get(lines.size() - 1));
+            events.addAll(lines.subList(1, lines.size() - 1));
+        }
+        assertEquals(List.of("event-0", "event-1", "event-2", "event-3", "event-4", "event-5"),
+                events);
+        assertEquals(0, appender.getDroppedCount());
+    }
+
+    @Test
+    public void failedRotationReportsErrorAndKeepsWriting() throws IOException {
+        // a non-empty directory in the way makes the rename fail
+        Files.createDirectories(file.resolveSibling("test.log.1").resolve("blocker"));
+        appender.setMaxFileSize(new FileSize(20));
+        appender.setMaxHistory(1);
+        appender.start();
+        for (int i = 0; i < 4; i++) {
+            appender.doAppend("event-" + i);
+        }
+        appender.stop();
+
+        assertTrue(hasError("Failed to rotate file"));
+        List<String> lines = Files.readAllLines(file);
+        assertEquals("header", lines.get(0));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(lines.contains("event-" + i));
+        }
+        assertEquals(0, appender.getDroppedCount());
+    }
+
+    @Test
+    public void stopCommitsPendingEvents() throws IOException {
+        appender.setMaxBatchEvents(1_000);
+        appender.setMaxBatchDelay(60_000);
+        appender.start();
+        appender.doAppend("pending");
+        assertFalse(Files.readAllLines(file).contains("pending"));
+        appender.stop();
+        assertEquals(List.of("header", "pending", "footer"), Files.readAllLines(file));
+    }
+
+    private boolean hasError(String prefix) {
+        for (Status status : context.getStatusManager().getCopyOfStatusList()) {
+            if (status.getLevel() == Status.ERROR && status.getMessage().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class LineEncoder extends EncoderBase<String> {
+        @Override
+        public byte[] headerBytes() {
+            return "header\n".getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] encode(String event) {
+            return (event + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] footerBytes() {
+            return "footer\n".getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.event.KeyValuePair;
+
+public class BurstCollapsingAppenderTest {
+    private LoggerContext loggerContext;
+    private Logger logger;
+    private ListAppender<ILoggingEvent> list;
+    private BurstCollapsingAppender appender;
+
+    @Before
+    public void setUp() {
+        loggerContext = new LoggerContext();
+        logger = loggerContext.getLogger("com.tb93.otel.test");
+        list = new ListAppender<>();
+        list.setContext(loggerContext);
+        list.start();
+        appender = new BurstCollapsingAppender();
+        appender.setContext(loggerContext);
+        appender.setName("burst");
+        appender.setWindow(60_000);
+        appender.addAppender(list);
+        appender.start();
+        logger.addAppender(appender);
+    }
+
+    @Test
+    public void repeatsBecomeOneSummaryOnStop() {
+        for (int i = 0; i < 5; i++) {
+            logger.warn("disk {} is full", "sda" + i, new IllegalStateException("full"));
+        }
+        logger.info("something else");
+        assertEquals(2, list.list.size());
+        assertEquals(4, appender.getCollapsedCount());
+
+        appender.stop();
+        assertEquals(3, list.list.size());
+        assertEquals(1, appender.getSummaryCount());
+        ILoggingEvent summary = list.list.get(2);
+        Map<String, Object> keyValues = keyValues(summary);
+        assertEquals(4L, keyValues.get(BurstCollapsingAppender.REPEAT_COUNT));
+        assertNull(keyValues.get(BurstCollapsingAppender.REPEAT_TRACE_IDS));
+        // the sample is the first repeat, formatted
+        assertEquals("disk sda1 is full", summary.getMessage());
+        assertEquals(IllegalStateException.class.getName(),
+                summary.getThrowableProxy().getClassName());
+        // resolved for the sample, since repeats skip CallerDataAppender
+        assertEquals(BurstCollapsingAppenderTest.class.getName(),
+                summary.getCallerData()[0].getClassName());
+    }
+
+    @Test
+    public void summariesPassThroughAnotherCollapsingStage() {
+        BurstCollapsingAppender outer = new BurstCollapsingAppender();
+        outer.setContext(loggerContext);
+        outer.setWindow(60_000);
+        outer.addAppender(appender);
+        outer.start();
+        logger.detachAppender(appender);
+        logger.addAppender(outer);
+
+        for (int i = 0; i < 3; i++) {
+            logger.info("repeated");
+        }
+        outer.stop();
+        // outer summary passes the inner stage untouched
+        assertEquals(2, list.list.size());
+        assertEquals(2L, keyValues(list.list.get(1)).get(BurstCollapsingAppender.REPEAT_COUNT));
+        assertEquals(0, appender.getCollapsedCount());
+    }
+
+    private static Map<String, Object> keyValues(ILoggingEvent event) {
+        Map<String, Object> keyValues = new HashMap<>();
+        for (KeyValuePair keyValuePair : event.getKeyValuePairs()) {
+            keyValues.put(keyValuePair.key, keyValuePair.value);
+        }
+        return keyValues;
+    }
+}
@@ -0,0 +1,103 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import io.opentelemetry.api.logs.Logger;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.SdkLoggerProvider;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BurstCollapsingLogRecordProcessorTest {
+    private final List<LogRecordData> exported = new CopyOnWriteArrayList<>();
+    private BurstCollapsingLogRecordProcessor processor;
+    private SdkLoggerProvider loggerProvider;
+    private Logger logger;
+
+    @Before
+    public void setUp() {
+        processor = BurstCollapsingLogRecordProcessor.builder(new LogRecordProcessor() {
+            @Override
+            public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+                exported.add(logRecord.toLogRecordData());
+            }
+        }).setWindow(Duration.ofMinutes(1)).setMaxTraceIds(2).build();
+        loggerProvider = SdkLoggerProvider.builder().addLogRecordProcessor(processor).build();
+        logger = loggerProvider.get("scope");
+    }
+
+    @After
+    public void tearDown() {
+        loggerProvider.shutdown();
+    }
+
+    @Test
+    public void repeatsBecomeOneSummaryRecord() {
+        for (int i = 0; i < 3; i++) {
+            emitInTrace("0af7651916cd43dd8448eb211c80319" + i, "repeated");
+        }
+        emit(Severity.WARN, "repeated");
+        emit(Severity.INFO, "other");
+        assertEquals(2, exported.size());
+        assertEquals(3, processor.getCollapsedCount());
+
+        CompletableResultCode result = processor.forceFlush();
+        assertFalse(result.isDone() && !result.isSuccess());
+        assertEquals(3, exported.size());
+        LogRecordData summary = exported.get(2);
+        assertEquals("repeated", summary.getBody().asString());
+        assertEquals(Long.valueOf(3),
+                summary.getAttributes().get(BurstCollapsingLogRecordProcessor.REPEAT_COUNT));
+        assertEquals(List.of("0af7651916cd43dd8448eb211c803191", "0af7651916cd43dd8448eb211c803192"),
+                summary.getAttributes().get(BurstCollapsingLogRecordProcessor.REPEAT_TRACE_IDS));
+        // the summary spans several traces, so it belongs to none
+        assertFalse(summary.getSpanContext().isValid());
+        assertEquals(1, processor.getSummaryCount());
+    }
+
+    @Test
+    public void summariesArePassedThrough() {
+        logger.logRecordBuilder()
+                .setSeverity(Severity.INFO)
+                .setBody("summary")
+                .setAttribute(BurstCollapsingLogRecordProcessor.REPEAT_COUNT, 10L)
+                .emit();
+        logger.logRecordBuilder()
+                .setSeverity(Severity.INFO)
+                .setBody("summary")
+                .setAttribute(BurstCollapsingLogRecordProcessor.REPEAT_COUNT, 10L)
+                .emit();
+        assertEquals(2, exported.size());
+        assertEquals(0, processor.getCollapsedCount());
+    }
+
+    private void emitInTrace(String traceId, String body) {
+        SpanContext spanContext = SpanContext.create(traceId, "b7ad6b7169203331",
+                TraceFlags.getSampled(), TraceState.getDefault());
+        Scope scope = Span.wrap(spanContext).makeCurrent();
+        try {
+            emit(Severity.WARN, body);
+        } finally {
+            scope.close();
+        }
+    }
+
+    private void emit(Severity severity, String body) {
+        logger.logRecordBuilder().setSeverity(severity).setBody(body).emit();
+    }
+}
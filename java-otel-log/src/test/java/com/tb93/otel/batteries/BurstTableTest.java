@@ -0,0 +1,131 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import org.junit.Test;
+
+public class BurstTableTest {
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    private final List<BurstTable.Summary<String>> summaries = new ArrayList<>();
+
+    @Test
+    public void firstPassesAndRepeatsAreSummarizedOnFlush() {
+        BurstTable<String> table = table(16, HOUR, 5);
+        assertTrue(admit(table, "a", 100, "t1", "first"));
+        assertFalse(admit(table, "a", 200, "t2", "second"));
+        assertFalse(admit(table, "a", 300, "t2", "third"));
+        assertFalse(admit(table, "a", 400, null, "fourth"));
+        assertTrue(summaries.isEmpty());
+
+        table.flush();
+        assertEquals(1, summaries.size());
+        BurstTable.Summary<String> summary = summaries.get(0);
+        assertEquals(3, summary.count);
+        assertEquals("second", summary.sample);
+        assertEquals(200, summary.firstEpochNanos);
+        assertEquals(400, summary.lastEpochNanos);
+        assertEquals(List.of("t2"), summary.traceIds);
+
+        // nothing left to flush
+        table.flush();
+        assertEquals(1, summaries.size());
+    }
+
+    @Test
+    public void fingerprintCoversLevelMessageAndExceptionType() {
+        BurstTable<String> table = table(16, HOUR, 5);
+        assertTrue(table.admit("scope", 20000, "a", null, 0, null, "e"));
+        assertTrue(table.admit("scope", 30000, "a", null, 0, null, "e"));
+        assertTrue(table.admit("scope", 20000, "b", null, 0, null, "e"));
+        assertTrue(table.admit("scope", 20000, "a", "java.io.IOException", 0, null, "e"));
+        assertTrue(table.admit("other", 20000, "a", null, 0, null, "e"));
+        assertFalse(table.admit("scope", 20000, "a", "java.io.IOException", 0, null, "e"));
+    }
+
+    @Test
+    public void nextOccurrenceAfterWindowPassesAndEmitsSummary() throws Exception {
+        BurstTable<String> table = table(16, TimeUnit.MILLISECONDS.toNanos(20), 5);
+        assertTrue(admit(table, "a", 1, null, "first"));
+        assertFalse(admit(table, "a", 2, null, "second"));
+        Thread.sleep(30);
+        assertTrue(admit(table, "a", 3, null, "third"));
+        assertEquals(1, summaries.size());
+        assertEquals(1, summaries.get(0).count);
+        assertEquals("second", summaries.get(0).sample);
+    }
+
+    @Test
+    public void sweepEmitsClosedWindowsOnly() throws Exception {
+        BurstTable<String> table = table(16, TimeUnit.MILLISECONDS.toNanos(20), 5);
+        admit(table, "a", 1, null, "a1");
+        admit(table, "a", 2, null, "a2");
+        admit(table, "b", 3, null, "b1");
+        table.sweep();
+        assertTrue(summaries.isEmpty());
+
+        Thread.sleep(30);
+        table.sweep();
+        // b had no repeats, so there is nothing to summarize
+        assertEquals(1, summaries.size());
+        assertEquals("a2", summaries.get(0).sample);
+        table.sweep();
+        assertEquals(1, summaries.size());
+    }
+
+    @Test
+    public void collidingFingerprintEvictsAndFlushesTheSlot() {
+        BurstTable<String> table = table(1, HOUR, 5);
+        admit(table, "a", 1, null, "a1");
+        admit(table, "a", 2, null, "a2");
+        assertTrue(admit(table, "b", 3, null, "b1"));
+        assertEquals(1, summaries.size());
+        assertEquals("a2", summaries.get(0).sample);
+        // a lost its slot, so it starts over
+        assertTrue(admit(table, "a", 4, null, "a3"));
+    }
+
+    @Test
+    public void keepsDistinctTraceIdsUpToTheLimit() {
+        BurstTable<String> table = table(16, HOUR, 2);
+        admit(table, "a", 1, "t0", "a");
+        admit(table, "a", 2, "t1", "a");
+        admit(table, "a", 3, "t1", "a");
+        admit(table, "a", 4, "t2", "a");
+        admit(table, "a", 5, "t3", "a");
+        table.flush();
+        assertEquals(4, summaries.get(0).count);
+        assertEquals(List.of("t1", "t2"), summaries.get(0).traceIds);
+    }
+
+    @Test
+    public void keepSampleRunsOncePerWindow() {
+        List<String> kept = new ArrayList<>();
+        BurstTable<String> table = new BurstTable<>(16, HOUR, 5, event -> {
+            kept.add(event);
+            return event.toUpperCase();
+        }, summaries::add);
+        admit(table, "a", 1, null, "one");
+        admit(table, "a", 2, null, "two");
+        admit(table, "a", 3, null, "three");
+        table.flush();
+        assertEquals(List.of("two"), kept);
+        assertEquals("TWO", summaries.get(0).sample);
+    }
+
+    private BurstTable<String> table(int size, long windowNanos, int maxTraceIds) {
+        return new BurstTable<>(size, windowNanos, maxTraceIds, UnaryOperator.identity(),
+                summaries::add);
+    }
+
+    private static boolean admit(BurstTable<String> table, String message, long epochNanos,
+            String traceId, String event) {
+        return table.admit("scope", 30000, message, null, epochNanos, traceId, event);
+    }
+}
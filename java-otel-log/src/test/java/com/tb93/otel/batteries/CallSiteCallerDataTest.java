@@ -0,0 +1,40 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.Test;
+
+public class CallSiteCallerDataTest {
+    @Test
+    public void callerInThisPackageIsNotSkipped() {
+        StackTraceElement[] callerData = CallSiteCallerData.capture();
+        assertEquals(CallSiteCallerDataTest.class.getName(), callerData[0].getClassName());
+        assertEquals("callerInThisPackageIsNotSkipped", callerData[0].getMethodName());
+    }
+
+    @Test
+    public void skipsLogbackAndCallerDataAppenderFrames() {
+        LoggerContext loggerContext = new LoggerContext();
+        Logger root = loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
+        CallerDataAppender callerData = new CallerDataAppender();
+        callerData.setContext(loggerContext);
+        callerData.start();
+        ListAppender<ILoggingEvent> list = new ListAppender<>();
+        list.setContext(loggerContext);
+        list.start();
+        root.addAppender(callerData);
+        root.addAppender(list);
+
+        loggerContext.getLogger("test").info("hello");
+
+        StackTraceElement caller = list.list.get(0).getCallerData()[0];
+        assertEquals(CallSiteCallerDataTest.class.getName(), caller.getClassName());
+        assertEquals("skipsLogbackAndCallerDataAppenderFrames", caller.getMethodName());
+        // the same call site resolves to the cached element
+        assertEquals(1, list.list.get(0).getCallerData().length);
+    }
+}
@@ -0,0 +1,107 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.context.Context;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class CardinalityLimiterTest {
+    private static final AttributeKey<String> SESSION_ID = AttributeKey.stringKey("baggage.session_id");
+
+    @Test
+    public void admitsUpToTheLimitThenOverflows() {
+        CardinalityLimiter limiter = new CardinalityLimiter(3);
+        assertSame(Attributes.empty(), limiter.limit(Attributes.empty()));
+        Attributes first = session("1");
+        Attributes second = session("2");
+        assertSame(first, limiter.limit(first));
+        assertSame(second, limiter.limit(second));
+        assertEquals(3, limiter.getAdmittedCount());
+
+        assertSame(CardinalityLimiter.OVERFLOW_ATTRIBUTES, limiter.limit(session("3")));
+        assertSame(CardinalityLimiter.OVERFLOW_ATTRIBUTES, limiter.limit(session("4")));
+        assertEquals(2, limiter.getRejectedCount());
+        assertEquals(3, limiter.getAdmittedCount());
+    }
+
+    @Test
+    public void admittedSetsStayAdmittedByEquality() {
+        CardinalityLimiter limiter = new CardinalityLimiter(1);
+        limiter.limit(session("1"));
+        // an equal but distinct instance, past the identity cache
+        Attributes equal = session("1");
+        assertSame(equal, limiter.limit(equal));
+        assertSame(CardinalityLimiter.OVERFLOW_ATTRIBUTES, limiter.limit(session("2")));
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void concurrentAdmissionNeverOvershoots() throws Exception {
+        int max = 100;
+        int threads = 8;
+        int perThread = 1_000;
+        CardinalityLimiter limiter = new CardinalityLimiter(max);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    // half the sets are shared between threads, half are unique
+                    limiter.limit(session(i % 2 == 0 ? "shared-" + i : thread + "-" + i));
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(30_000);
+            assertFalse(worker.isAlive());
+        }
+        assertEquals(max, limiter.getAdmittedCount());
+    }
+
+    @Test
+    public void limitedCounterRecordsOverflowAttributes() {
+        List<Attributes> recorded = new ArrayList<>();
+        LongCounter counter = new LongCounter() {
+            @Override
+            public void add(long value) {
+                add(value, Attributes.empty());
+            }
+
+            @Override
+            public void add(long value, Attributes attributes) {
+                recorded.add(attributes);
+            }
+
+            @Override
+            public void add(long value, Attributes attributes, Context context) {
+                recorded.add(attributes);
+            }
+        };
+        LongCounter limited = CardinalityLimiter.limit(counter, new CardinalityLimiter(1));
+        limited.add(1, session("1"));
+        limited.add(1, session("2"));
+        limited.add(1);
+        assertEquals(List.of(session("1"), CardinalityLimiter.OVERFLOW_ATTRIBUTES,
+                CardinalityLimiter.OVERFLOW_ATTRIBUTES), recorded);
+    }
+
+    private static Attributes session(String id) {
+        return Attributes.of(SESSION_ID, id);
+    }
+}
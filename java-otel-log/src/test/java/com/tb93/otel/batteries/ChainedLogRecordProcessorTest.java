@@ -0,0 +1,90 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.SdkLoggerProvider;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/*
+ * A chain of this package's processors takes one LogRecordData copy per record, whichever of
+ * them is in front
+ */
+public class ChainedLogRecordProcessorTest {
+    @Test
+    public void theChainCopiesEachRecordOnce() {
+        List<ReadWriteLogRecord> passed = new ArrayList<>();
+        LogRecordProcessor last = new LogRecordProcessor() {
+            @Override
+            public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+                passed.add(logRecord);
+            }
+        };
+        SpanEventLogProcessor spanEvents = SpanEventLogProcessor.builder(
+                SamplingLogRecordProcessor.builder(last).build()).build();
+        BurstCollapsingLogRecordProcessor burst = BurstCollapsingLogRecordProcessor.builder(spanEvents)
+                .setWindow(Duration.ofMinutes(1)).build();
+        SdkMeterProvider meterProvider = SdkMeterProvider.builder().build();
+        LogMetricsProcessor metrics = LogMetricsProcessor.builder(burst, meterProvider.get("test"))
+                .addRule(LogMetricsProcessor.counter("records"))
+                .build();
+
+        CountingLogRecord record = new CountingLogRecord();
+        metrics.onEmit(Context.root(), record);
+        assertEquals(1, passed.size());
+        assertEquals(1, record.copies.get());
+        assertEquals(1, metrics.getMatchedCount());
+
+        // no rule applies, yet the copy taken to find the rules is passed down
+        CountingLogRecord unmatched = new CountingLogRecord();
+        LogMetricsProcessor.builder(burst, meterProvider.get("test"))
+                .addRule(LogMetricsProcessor.counter("other").setLogger("other"))
+                .build()
+                .onEmit(Context.root(), unmatched);
+        assertEquals(1, unmatched.copies.get());
+
+        burst.shutdown();
+        meterProvider.shutdown();
+    }
+
+    // takes its data from an SDK record, counting the copies asked for
+    private static final class CountingLogRecord implements ReadWriteLogRecord {
+        private static final LogRecordData DATA = data();
+
+        final AtomicInteger copies = new AtomicInteger();
+
+        @Override
+        public <T> ReadWriteLogRecord setAttribute(AttributeKey<T> key, T value) {
+            return this;
+        }
+
+        @Override
+        public LogRecordData toLogRecordData() {
+            copies.incrementAndGet();
+            return DATA;
+        }
+
+        private static LogRecordData data() {
+            List<LogRecordData> emitted = new ArrayList<>();
+            SdkLoggerProvider provider = SdkLoggerProvider.builder().addLogRecordProcessor(new LogRecordProcessor() {
+                @Override
+                public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+                    emitted.add(logRecord.toLogRecordData());
+                }
+            }).build();
+            provider.get("scope").logRecordBuilder().setSeverity(Severity.INFO).setBody("body").emit();
+            provider.shutdown();
+            return emitted.get(0);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanLimits;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class ExceptionRenderingSpanExporterTest {
+    private static final AttributeKey<String> EXTRA = AttributeKey.stringKey("extra");
+
+    private final InMemorySpanExporter exported = InMemorySpanExporter.create();
+    private final InMemorySpanExporter unrendered = InMemorySpanExporter.create();
+    private SdkTracerProvider tracerProvider;
+
+    private void setUp(StackTraceRenderer.Mode mode, SpanLimits spanLimits) {
+        StackTraceRenderer renderer = StackTraceRenderer.builder().setMode(mode).build();
+        tracerProvider = SdkTracerProvider.builder()
+                .setSpanLimits(spanLimits)
+                .addSpanProcessor(SimpleSpanProcessor.create(new ExceptionRenderingSpanExporter(exported, renderer)))
+                .addSpanProcessor(SimpleSpanProcessor.create(unrendered))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        tracerProvider.shutdown();
+    }
+
+    @Test
+    public void repeatedExceptionsAreFingerprintOnlyInFirstOccurrenceMode() {
+        setUp(StackTraceRenderer.Mode.FIRST_OCCURRENCE, SpanLimits.getDefault());
+        for (int i = 0; i < 2; i++) {
+            Span span = tracerProvider.get("test").spanBuilder("span").startSpan();
+            span.recordException(failure("request " + i), Attributes.of(EXTRA, "value"));
+            span.addEvent("other");
+            span.end();
+        }
+
+        List<SpanData> spans = exported.getFinishedSpanItems();
+        assertEquals(2, spans.size());
+        EventData first = spans.get(0).getEvents().get(0);
+        EventData second = spans.get(1).getEvents().get(0);
+
+        assertEquals("exception", first.getName());
+        assertNotNull(first.getAttributes().get(SemanticAttributes.EXCEPTION_STACKTRACE));
+        assertEquals("request 0", first.getAttributes().get(SemanticAttributes.EXCEPTION_MESSAGE));
+        assertEquals("value", first.getAttributes().get(EXTRA));
+
+        assertNull(second.getAttributes().get(SemanticAttributes.EXCEPTION_STACKTRACE));
+        assertEquals(IllegalStateException.class.getCanonicalName(),
+                second.getAttributes().get(SemanticAttributes.EXCEPTION_TYPE));
+        assertEquals("request 1", second.getAttributes().get(SemanticAttributes.EXCEPTION_MESSAGE));
+        assertEquals(first.getAttributes().get(AttributeKey.stringKey(StackTraceRenderer.FINGERPRINT)),
+                second.getAttributes().get(AttributeKey.stringKey(StackTraceRenderer.FINGERPRINT)));
+        assertEquals("value", second.getAttributes().get(EXTRA));
+        assertEquals(second.getAttributes().size(), second.getTotalAttributeCount());
+        // other events pass unchanged
+        assertEquals("other", spans.get(1).getEvents().get(1).getName());
+    }
+
+    @Test
+    public void droppedAttributeCountIsKept() {
+        setUp(StackTraceRenderer.Mode.FULL, SpanLimits.builder().setMaxNumberOfAttributesPerEvent(4).build());
+        Span span = tracerProvider.get("test").spanBuilder("span").startSpan();
+        span.recordException(failure("failed"), Attributes.of(EXTRA, "value", AttributeKey.stringKey("more"), "x"));
+        span.end();
+
+        EventData event = exported.getFinishedSpanItems().get(0).getEvents().get(0);
+        EventData original = unrendered.getFinishedSpanItems().get(0).getEvents().get(0);
+        assertNotNull(event.getAttributes().get(AttributeKey.stringKey(StackTraceRenderer.FINGERPRINT)));
+        assertEquals(original.getTotalAttributeCount() - original.getAttributes().size(),
+                event.getTotalAttributeCount() - event.getAttributes().size());
+    }
+
+    // thrown from the same place each time, so every call has the same frames
+    private static IllegalStateException failure(String message) {
+        return new IllegalStateException(message);
+    }
+}
@@ -0,0 +1,74 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class JsonWriterTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void escapesQuotesBackslashesAndControlCharacters() throws IOException {
+        String value = "\"quoted\" back\\slash \n\r\t \u0000 \u0001 \u001f \u007f end";
+        String written = writeString(value);
+
+        assertEquals("\"\\\"quoted\\\" back\\\\slash \\n\\r\\t \\u0000 \\u0001 \\u001f \u007f end\"", written);
+        assertEquals(value, MAPPER.readValue(written, String.class));
+    }
+
+    @Test
+    public void encodesUtf8IncludingSurrogatePairs() throws IOException {
+        String value = "é ✓ 😀 􏿿";
+        JsonWriter json = new JsonWriter(1);
+        json.writeString(value);
+
+        assertEquals("\"" + value + "\"", new String(json.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(value, MAPPER.readValue(json.toByteArray(), String.class));
+    }
+
+    @Test
+    public void loneSurrogatesBecomeQuestionMarks() throws IOException {
+        String value = "high \uD83D end, low \uDE00 end, reversed \uDE00\uD83D, last \uD83D";
+        String written = writeString(value);
+
+        // as String.getBytes does
+        assertEquals("\"" + new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8)
+                + "\"", written);
+        assertEquals("high ? end, low ? end, reversed ??, last ?", MAPPER.readValue(written, String.class));
+    }
+
+    @Test
+    public void writesLongs() {
+        for (long value : new long[] {0, 7, -7, 10, 1_700_000_000_123_456_789L, Long.MAX_VALUE,
+            Long.MIN_VALUE, Long.MIN_VALUE + 1}) {
+            JsonWriter json = new JsonWriter(1);
+            json.writeLong(value);
+            assertEquals(Long.toString(value), new String(json.toByteArray(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void growsAndClears() {
+        JsonWriter json = new JsonWriter(16);
+        json.writeRaw("[");
+        json.writeString("x".repeat(100));
+        json.write(',');
+        json.writeLong(Long.MIN_VALUE);
+        json.write(']');
+        assertEquals("[\"" + "x".repeat(100) + "\"," + Long.MIN_VALUE + "]",
+                new String(json.toByteArray(), StandardCharsets.US_ASCII));
+
+        json.clear();
+        json.writeRaw("{}");
+        assertEquals("{}", new String(json.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    private static String writeString(String value) {
+        JsonWriter json = new JsonWriter(1);
+        json.writeString(value);
+        return new String(json.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,149 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.logs.Logger;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.SdkLoggerProvider;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogMetricsProcessorTest {
+    private static final AttributeKey<String> KIND = AttributeKey.stringKey("kind");
+
+    private final List<LogRecordData> passed = new CopyOnWriteArrayList<>();
+    private final Map<String, Map<Attributes, Long>> metrics = new HashMap<>();
+    private PeriodicMetricReader reader;
+    private SdkMeterProvider meterProvider;
+    private LogMetricsProcessor processor;
+    private SdkLoggerProvider loggerProvider;
+
+    @Before
+    public void setUp() {
+        reader = PeriodicMetricReader.builder(new MetricExporter() {
+            @Override
+            public CompletableResultCode export(Collection<MetricData> collected) {
+                for (MetricData metric : collected) {
+                    Map<Attributes, Long> points = new HashMap<>();
+                    for (LongPointData point : metric.getLongSumData().getPoints()) {
+                        points.put(point.getAttributes(), point.getValue());
+                    }
+                    metrics.put(metric.getName(), points);
+                }
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+                return AggregationTemporality.CUMULATIVE;
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return CompletableResultCode.ofSuccess();
+            }
+        }).setInterval(Duration.ofDays(1)).build();
+        meterProvider = SdkMeterProvider.builder().registerMetricReader(reader).build();
+        processor = LogMetricsProcessor.builder(new LogRecordProcessor() {
+            @Override
+            public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+                passed.add(logRecord.toLogRecordData());
+            }
+        }, meterProvider.get("test"))
+                .addRule(LogMetricsProcessor.counter("hits")
+                        .setLogger("app.*")
+                        .setSeverityRange(Severity.INFO, Severity.FATAL4)
+                        .setMessageTemplate("user {} logged in")
+                        .addLabelKeys("kind")
+                        .setMaxLabelSets(2))
+                .addRule(LogMetricsProcessor.counter("suppressed")
+                        .setLogger("app.quiet")
+                        .setSuppress(true))
+                .build();
+        loggerProvider = SdkLoggerProvider.builder().addLogRecordProcessor(processor).build();
+    }
+
+    @After
+    public void tearDown() {
+        loggerProvider.shutdown();
+        meterProvider.shutdown();
+    }
+
+    @Test
+    public void countsMatchingRecordsByLabel() {
+        Logger logger = loggerProvider.get("app.web");
+        emit(logger, Severity.INFO, "user bob logged in", "a");
+        emit(logger, Severity.WARN, "user alice logged in", "a");
+        emit(logger, Severity.INFO, "user carol logged in", "b");
+        // past maxLabelSets
+        emit(logger, Severity.INFO, "user dave logged in", "c");
+        // severity and template mismatches
+        emit(logger, Severity.DEBUG, "user bob logged in", "a");
+        emit(logger, Severity.INFO, "user bob logged out", "a");
+
+        assertEquals(6, passed.size());
+        assertEquals(4, processor.getMatchedCount());
+        collect();
+        Map<Attributes, Long> hits = metrics.get("hits");
+        assertEquals(Long.valueOf(2), hits.get(Attributes.of(KIND, "a")));
+        assertEquals(Long.valueOf(1), hits.get(Attributes.of(KIND, "b")));
+        assertEquals(Long.valueOf(1), hits.get(CardinalityLimiter.OVERFLOW_ATTRIBUTES));
+        assertEquals(Long.valueOf(1), metrics.get("hits.cardinality_rejected").get(Attributes.empty()));
+    }
+
+    @Test
+    public void recordsOfLoggersWithoutRulesPassThrough() {
+        emit(loggerProvider.get("other"), Severity.INFO, "user bob logged in", "a");
+        emit(loggerProvider.get("application"), Severity.INFO, "user bob logged in", "a");
+
+        assertEquals(2, passed.size());
+        assertEquals(0, processor.getMatchedCount());
+    }
+
+    @Test
+    public void suppressedRecordsAreCountedButNotPassedOn() {
+        Logger logger = loggerProvider.get("app.quiet");
+        emit(logger, Severity.INFO, "noise", "a");
+        emit(logger, Severity.INFO, "noise", "a");
+
+        assertEquals(0, passed.size());
+        assertEquals(2, processor.getSuppressedCount());
+        collect();
+        assertEquals(Long.valueOf(2), metrics.get("suppressed").get(Attributes.empty()));
+    }
+
+    private void emit(Logger logger, Severity severity, String body, String kind) {
+        logger.logRecordBuilder().setSeverity(severity).setBody(body).setAttribute(KIND, kind).emit();
+    }
+
+    private void collect() {
+        reader.forceFlush().join(10, TimeUnit.SECONDS);
+    }
+}
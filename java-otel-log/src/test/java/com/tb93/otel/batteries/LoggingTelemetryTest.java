@@ -0,0 +1,160 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.logs.export.LogRecordExporter;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggingTelemetryTest {
+    private static final Attributes APPENDER = Attributes.of(LoggingTelemetry.APPENDER, "test");
+    private static final Attributes DROPPED = Attributes.of(LoggingTelemetry.COMPONENT, "test",
+            LoggingTelemetry.REASON, "overflow");
+
+    private LoggingTelemetry telemetry;
+    private InMemoryMetricReader reader;
+    private SdkMeterProvider meterProvider;
+
+    @Before
+    public void setUp() {
+        telemetry = new LoggingTelemetry();
+        reader = InMemoryMetricReader.create();
+        meterProvider = LoggingTelemetry.registerViews(SdkMeterProvider.builder())
+                .registerMetricReader(reader)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        meterProvider.shutdown();
+    }
+
+    @Test
+    public void timersAreInertUntilInstalled() {
+        LoggingTelemetry.Timer timer = telemetry.timer(LoggingTelemetry.Metric.APPENDER_DURATION, APPENDER);
+        long start = timer.start();
+        assertEquals(0, start);
+        timer.stop(start);
+
+        telemetry.install(meterProvider);
+        start = timer.start();
+        assertNotEquals(0, start);
+        timer.stop(start);
+
+        // the timer created before install() is bound, and only its stop after install() counts
+        HistogramPointData point = histogram(collect().get("logging.appender.duration"), APPENDER);
+        assertEquals(1, point.getCount());
+        // timers created after install() are bound right away
+        assertNotEquals(0, telemetry.timer(LoggingTelemetry.Metric.WRAP_DURATION, APPENDER).start());
+    }
+
+    @Test
+    public void observedValuesAreReadUntilClosed() {
+        telemetry.install(meterProvider);
+        LoggingTelemetry.Registration registration = telemetry.observe(LoggingTelemetry.Metric.DROPPED,
+                DROPPED, () -> 5);
+
+        assertEquals(Long.valueOf(5), sum(collect().get("logging.dropped"), DROPPED));
+        Map<Attributes, Long> read = new HashMap<>();
+        telemetry.read(LoggingTelemetry.Metric.DROPPED, read::put);
+        assertEquals(Collections.singletonMap(DROPPED, 5L), read);
+
+        registration.close();
+        assertNull(sum(collect().get("logging.dropped"), DROPPED));
+        read.clear();
+        telemetry.read(LoggingTelemetry.Metric.DROPPED, read::put);
+        assertTrue(read.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timersAreNotObservable() {
+        telemetry.observe(LoggingTelemetry.Metric.EXPORT_DURATION, APPENDER, () -> 0);
+    }
+
+    @Test
+    public void exportsRecordDurationIncludingTheSynchronousPartAndFailures() {
+        telemetry.install(meterProvider);
+        AtomicBoolean fail = new AtomicBoolean();
+        LogRecordExporter exporter = telemetry.timed(new LogRecordExporter() {
+            @Override
+            public CompletableResultCode export(Collection<LogRecordData> logs) {
+                // e.g. marshaling before the request is sent
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+                return fail.get() ? CompletableResultCode.ofFailure() : CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return CompletableResultCode.ofSuccess();
+            }
+        }, "logs");
+
+        exporter.export(List.of());
+        fail.set(true);
+        exporter.export(List.of());
+
+        Attributes signal = Attributes.of(LoggingTelemetry.SIGNAL, "logs");
+        Map<String, MetricData> metrics = collect();
+        HistogramPointData duration = histogram(metrics.get("logging.export.duration"), signal);
+        assertEquals(2, duration.getCount());
+        assertTrue(duration.getSum() >= 2 * TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(Long.valueOf(1), sum(metrics.get("logging.export.failures"), signal));
+
+        exporter.shutdown();
+        assertNull(sum(collect().get("logging.export.failures"), signal));
+    }
+
+    private Map<String, MetricData> collect() {
+        Map<String, MetricData> metrics = new HashMap<>();
+        for (MetricData metric : reader.collectAllMetrics()) {
+            metrics.put(metric.getName(), metric);
+        }
+        return metrics;
+    }
+
+    private static HistogramPointData histogram(MetricData metric, Attributes attributes) {
+        for (HistogramPointData point : metric.getHistogramData().getPoints()) {
+            if (point.getAttributes().equals(attributes)) {
+                return point;
+            }
+        }
+        throw new AssertionError("no point for " + attributes + " in " + metric);
+    }
+
+    private static Long sum(MetricData metric, Attributes attributes) {
+        if (metric == null) {
+            return null;
+        }
+        for (LongPointData point : metric.getLongSumData().getPoints()) {
+            if (point.getAttributes().equals(attributes)) {
+                return point.getValue();
+            }
+        }
+        return null;
+    }
+}
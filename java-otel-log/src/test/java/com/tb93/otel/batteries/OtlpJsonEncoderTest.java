@@ -0,0 +1,168 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.event.KeyValuePair;
+
+/*
+ * Every line OtlpJsonEncoder writes must parse as an OTLP/JSON ExportLogsServiceRequest, with
+ * int64 values as strings and the trace context as hex
+ */
+public class OtlpJsonEncoderTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String SPAN_ID = "b7ad6b7169203331";
+
+    private LoggerContext loggerContext;
+    private OtlpJsonEncoder encoder;
+
+    @Before
+    public void setUp() {
+        loggerContext = new LoggerContext();
+        encoder = new OtlpJsonEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setServiceName("test-service");
+        encoder.setCaptureCodeAttributes(true);
+        encoder.start();
+    }
+
+    @Test
+    public void encodesOneRequestPerLine() throws IOException {
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("trace_id", TRACE_ID);
+        mdc.put("span_id", SPAN_ID);
+        mdc.put("trace_flags", "01");
+        mdc.put("baggage.session_id", "42");
+        LoggingEvent event = event(Level.WARN, "user {} logged in", null, mdc, "bob");
+        event.addKeyValuePair(new KeyValuePair("count", 93L));
+        event.addKeyValuePair(new KeyValuePair("ratio", 0.5));
+        event.addKeyValuePair(new KeyValuePair("ok", true));
+
+        byte[] line = encoder.encode(event);
+        assertEquals('\n', line[line.length - 1]);
+        JsonNode request = MAPPER.readTree(line);
+        JsonNode resourceLogs = request.get("resourceLogs").get(0);
+        assertEquals("test-service",
+                attribute(resourceLogs.get("resource"), "service.name").get("stringValue").asText());
+        JsonNode scopeLogs = resourceLogs.get("scopeLogs").get(0);
+        assertEquals("app.web", scopeLogs.get("scope").get("name").asText());
+
+        JsonNode record = scopeLogs.get("logRecords").get(0);
+        assertTrue(record.get("timeUnixNano").isTextual());
+        assertEquals("1700000000123456789", record.get("timeUnixNano").asText());
+        assertEquals(13, record.get("severityNumber").asInt());
+        assertEquals("WARN", record.get("severityText").asText());
+        assertEquals("user bob logged in", record.get("body").get("stringValue").asText());
+        assertEquals(TRACE_ID, record.get("traceId").asText());
+        assertEquals(SPAN_ID, record.get("spanId").asText());
+        assertEquals(1, record.get("flags").asInt());
+
+        JsonNode count = attribute(record, "count").get("intValue");
+        assertTrue(count.isTextual());
+        assertEquals("93", count.asText());
+        assertEquals(0.5, attribute(record, "ratio").get("doubleValue").asDouble(), 0);
+        assertTrue(attribute(record, "ok").get("boolValue").asBoolean());
+        assertEquals("42", attribute(record, "baggage.session_id").get("stringValue").asText());
+        assertEquals("42", attribute(record, "code.lineno").get("intValue").asText());
+        assertEquals("doFunction", attribute(record, "code.function").get("stringValue").asText());
+        // the trace context is not repeated as attributes
+        assertEquals(0, count(record, "trace_id") + count(record, "span_id") + count(record, "trace_flags"));
+    }
+
+    @Test
+    public void exceptionAttributesComeFromTheExceptionNotTheMdc() throws IOException {
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("exception.type", "from.Mdc");
+        mdc.put("exception.message", "from mdc");
+        mdc.put(StackTraceRenderer.FINGERPRINT, "0000000000000000");
+        LoggingEvent event = event(Level.ERROR, "failed", new IllegalStateException("error!"), mdc);
+
+        JsonNode record = record(encoder.encode(event));
+        for (String key : new String[] {"exception.type", "exception.message",
+            "exception.stacktrace", StackTraceRenderer.FINGERPRINT}) {
+            assertEquals(key, 1, count(record, key));
+        }
+        assertEquals(IllegalStateException.class.getName(),
+                attribute(record, "exception.type").get("stringValue").asText());
+        assertEquals("error!", attribute(record, "exception.message").get("stringValue").asText());
+        assertFalse("0000000000000000".equals(
+                attribute(record, StackTraceRenderer.FINGERPRINT).get("stringValue").asText()));
+        assertTrue(attribute(record, "exception.stacktrace").get("stringValue").asText()
+                .startsWith(IllegalStateException.class.getName() + ": error!"));
+    }
+
+    @Test
+    public void mdcExceptionKeysPassWithoutAnException() throws IOException {
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("exception.type", "from.Mdc");
+        JsonNode record = record(encoder.encode(event(Level.INFO, "no exception", null, mdc)));
+
+        assertEquals("from.Mdc", attribute(record, "exception.type").get("stringValue").asText());
+        assertEquals(0, count(record, "exception.stacktrace"));
+        // no trace context: no traceId, spanId or flags
+        assertFalse(record.has("traceId"));
+        assertFalse(record.has("flags"));
+    }
+
+    @Test
+    public void bodyIsEscaped() throws IOException {
+        String message = "quote \" backslash \\ newline \n tab \t bell \u0007 ünïcødé ✓ 😀";
+        JsonNode record = record(encoder.encode(event(Level.INFO, message, null, new HashMap<>())));
+
+        assertEquals(message, record.get("body").get("stringValue").asText());
+    }
+
+    private static JsonNode record(byte[] line) throws IOException {
+        String text = new String(line, StandardCharsets.UTF_8);
+        // one line: newlines inside values are escaped
+        assertEquals(text.length() - 1, text.indexOf('\n'));
+        return MAPPER.readTree(line).get("resourceLogs").get(0).get("scopeLogs").get(0)
+                .get("logRecords").get(0);
+    }
+
+    private static JsonNode attribute(JsonNode owner, String key) {
+        for (JsonNode attribute : owner.get("attributes")) {
+            if (key.equals(attribute.get("key").asText())) {
+                return attribute.get("value");
+            }
+        }
+        throw new AssertionError("no attribute " + key);
+    }
+
+    private static int count(JsonNode owner, String key) {
+        int count = 0;
+        for (JsonNode attribute : owner.get("attributes")) {
+            if (key.equals(attribute.get("key").asText())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private LoggingEvent event(Level level, String message, Throwable throwable,
+            Map<String, String> mdc, Object... arguments) {
+        Logger logger = loggerContext.getLogger("app.web");
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, level, message,
+                throwable, arguments.length == 0 ? null : arguments);
+        event.setInstant(Instant.ofEpochSecond(1_700_000_000L, 123_456_789));
+        event.setCallerData(new StackTraceElement[] {
+            new StackTraceElement("com.tb93.otel.App", "doFunction", "App.java", 42)});
+        event.setMDCPropertyMap(mdc);
+        return event;
+    }
+}
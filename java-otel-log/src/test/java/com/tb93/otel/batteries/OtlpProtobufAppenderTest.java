@@ -0,0 +1,208 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.logs.GlobalLoggerProvider;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.exporter.internal.otlp.logs.LogsRequestMarshaler;
+import io.opentelemetry.instrumentation.logback.appender.v1_0.OpenTelemetryAppender;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.SdkLoggerProvider;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MarkerFactory;
+import org.slf4j.event.KeyValuePair;
+
+/*
+ * OtlpProtobufAppender must put the same bytes on the wire as the OpenTelemetryAppender
+ * followed by the SDK's LogsRequestMarshaler, for every kind of event the demo logs
+ */
+public class OtlpProtobufAppenderTest {
+    private static final String SERVICE_NAME = "test-service";
+
+    private final List<LogRecordData> sdkRecords = new ArrayList<>();
+    private LoggerContext loggerContext;
+    private Logger logger;
+    private MockWebServer server;
+    private SdkLoggerProvider loggerProvider;
+
+    @Before
+    public void setUp() throws IOException {
+        loggerContext = new LoggerContext();
+        logger = loggerContext.getLogger("com.tb93.otel.test");
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse();
+            }
+        });
+        server.start();
+        loggerProvider = SdkLoggerProvider.builder()
+                .setResource(Resource.getDefault().merge(Resource.create(
+                        Attributes.of(ResourceAttributes.SERVICE_NAME, SERVICE_NAME))))
+                .addLogRecordProcessor(new LogRecordProcessor() {
+                    @Override
+                    public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+                        sdkRecords.add(logRecord.toLogRecordData());
+                    }
+                })
+                .build();
+        GlobalLoggerProvider.resetForTest();
+        GlobalLoggerProvider.set(loggerProvider);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GlobalLoggerProvider.resetForTest();
+        loggerProvider.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void requestBytesMatchTheSdk() throws Exception {
+        assertSameRequests(1_000);
+    }
+
+    @Test
+    public void requestBytesMatchTheSdkAcrossBatches() throws Exception {
+        // small batches rotate the scope buffers, after the large record has grown one
+        assertSameRequests(3);
+    }
+
+    private void assertSameRequests(int maxExportBatchSize) throws Exception {
+        OpenTelemetryAppender sdkAppender = new OpenTelemetryAppender();
+        sdkAppender.setContext(loggerContext);
+        sdkAppender.setCaptureCodeAttributes(true);
+        sdkAppender.setCaptureMarkerAttribute(true);
+        sdkAppender.setCaptureKeyValuePairAttributes(true);
+        sdkAppender.setCaptureMdcAttributes("*");
+        sdkAppender.start();
+
+        OtlpProtobufAppender appender = new OtlpProtobufAppender();
+        appender.setContext(loggerContext);
+        appender.setName("otlp");
+        appender.setEndpoint(server.url("/").toString());
+        appender.setProtocol("http/protobuf");
+        appender.setServiceName(SERVICE_NAME);
+        appender.setScheduleDelay(60_000);
+        appender.setMaxExportBatchSize(maxExportBatchSize);
+        appender.setCaptureCodeAttributes(true);
+        appender.setCaptureMarkerAttribute(true);
+        appender.setCaptureKeyValuePairAttributes(true);
+        appender.setCaptureMdcAttributes("*");
+        appender.start();
+
+        for (LoggingEvent event : events()) {
+            sdkAppender.doAppend(event);
+            appender.doAppend(event);
+        }
+        SpanContext spanContext = SpanContext.create("0af7651916cd43dd8448eb211c80319c",
+                "b7ad6b7169203331", TraceFlags.getSampled(), TraceState.getDefault());
+        Scope scope = Span.wrap(spanContext).makeCurrent();
+        try {
+            LoggingEvent inSpan = event(Level.INFO, "log message with span", null);
+            sdkAppender.doAppend(inSpan);
+            appender.doAppend(inSpan);
+        } finally {
+            scope.close();
+        }
+        // sends everything pending
+        appender.stop();
+
+        assertEquals(sdkRecords.size(), appender.getExportedCount());
+        for (int from = 0; from < sdkRecords.size(); from += maxExportBatchSize) {
+            RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+            assertEquals("/v1/logs", request.getPath());
+            List<LogRecordData> batch = sdkRecords.subList(from,
+                    Math.min(from + maxExportBatchSize, sdkRecords.size()));
+            assertEquals(toHex(marshal(batch)), toHex(request.getBody().readByteArray()));
+        }
+    }
+
+    private static byte[] marshal(List<LogRecordData> records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogsRequestMarshaler.create(records).writeBinaryTo(out);
+        return out.toByteArray();
+    }
+
+    private List<LoggingEvent> events() {
+        List<LoggingEvent> events = new ArrayList<>();
+        events.add(event(Level.INFO, "log message without span", null));
+
+        LoggingEvent keyValue = event(Level.INFO, "user {} logged in", null, "bob");
+        keyValue.addKeyValuePair(new KeyValuePair("someKey", 93L));
+        keyValue.addKeyValuePair(new KeyValuePair("other", "value"));
+        events.add(keyValue);
+
+        LoggingEvent marker = event(Level.DEBUG, "with markers", null);
+        marker.addMarker(MarkerFactory.getMarker("AUDIT"));
+        marker.addMarker(MarkerFactory.getMarker("SECURITY"));
+        events.add(marker);
+
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("baggage.session_id", "42");
+        mdc.put("request", "r-1");
+        events.add(event(Level.INFO, "with mdc", null, mdc));
+
+        events.add(event(Level.WARN, "log message with exception",
+                new IllegalStateException("error!", new RuntimeException("cause"))));
+        events.add(event(Level.ERROR, "", null));
+        events.add(event(Level.ERROR, null, null));
+        events.add(event(Level.INFO, "large " + "x".repeat(20_000), null));
+        events.add(event(Level.TRACE, "ünïcødé ✓", null));
+        return events;
+    }
+
+    private LoggingEvent event(Level level, String message, Throwable throwable,
+            Object... arguments) {
+        return event(level, message, throwable, new HashMap<>(), arguments);
+    }
+
+    private LoggingEvent event(Level level, String message, Throwable throwable,
+            Map<String, String> mdc, Object... arguments) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, level, message,
+                throwable, arguments.length == 0 ? null : arguments);
+        event.setThreadName("main");
+        event.setInstant(Instant.ofEpochMilli(1_700_000_000_123L));
+        event.setCallerData(new StackTraceElement[] {
+            new StackTraceElement("com.tb93.otel.App", "doFunction", "App.java", 42)});
+        event.setMDCPropertyMap(mdc);
+        return event;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
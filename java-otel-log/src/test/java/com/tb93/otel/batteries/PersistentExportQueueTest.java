@@ -0,0 +1,201 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.sdk.logs.SdkLoggerProvider;
+import io.opentelemetry.sdk.logs.export.SimpleLogRecordProcessor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * PersistentExportQueue against MockWebServer speaking plaintext gRPC: the collector goes
+ * down and comes back, the process restarts with records on disk, and the disk cap is hit
+ */
+public class PersistentExportQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Collector collector = new Collector();
+    private MockWebServer server;
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setProtocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.setDispatcher(collector);
+        server.start();
+        directory = folder.getRoot().toPath().resolve("logs");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void keepsRecordsThroughAnOutage() {
+        PersistentExportQueue queue = queue(PersistentExportQueue.builder(directory,
+                PersistentExportQueue.Signal.LOGS));
+        SdkLoggerProvider loggerProvider = loggerProvider(queue);
+        collector.available.set(false);
+        emit(loggerProvider, 0, 10);
+        awaitTrue(() -> queue.getRetryCount() >= 2);
+        assertEquals(0, queue.getSentCount());
+        assertEquals(10, queue.getQueuedCount());
+
+        collector.available.set(true);
+        awaitTrue(() -> queue.getSentCount() == 10);
+        assertEquals(0, queue.getQueuedCount());
+        collector.assertReceivedOnce(0, 10);
+        loggerProvider.shutdown();
+    }
+
+    @Test
+    public void resendsOnlyUnacknowledgedRecordsAfterRestart() throws IOException {
+        PersistentExportQueue first = queue(PersistentExportQueue.builder(directory,
+                PersistentExportQueue.Signal.LOGS).setShutdownTimeout(Duration.ofMillis(100)));
+        SdkLoggerProvider firstProvider = loggerProvider(first);
+        emit(firstProvider, 0, 5);
+        awaitTrue(() -> first.getSentCount() == 5);
+
+        collector.available.set(false);
+        emit(firstProvider, 5, 10);
+        awaitTrue(() -> first.getRetryCount() >= 1);
+        firstProvider.shutdown();
+        assertTrue(segmentCount() > 0);
+
+        collector.available.set(true);
+        PersistentExportQueue second = queue(PersistentExportQueue.builder(directory,
+                PersistentExportQueue.Signal.LOGS));
+        assertEquals(5, second.getQueuedCount());
+        SdkLoggerProvider secondProvider = loggerProvider(second);
+        emit(secondProvider, 10, 15);
+        awaitTrue(() -> second.getSentCount() == 10);
+        collector.assertReceivedOnce(0, 15);
+        secondProvider.shutdown();
+    }
+
+    @Test
+    public void dropsTheOldestSegmentsAtTheDiskCap() throws IOException {
+        int segmentSize = 1024;
+        PersistentExportQueue queue = queue(PersistentExportQueue.builder(directory,
+                PersistentExportQueue.Signal.LOGS)
+                .setSegmentSize(segmentSize)
+                .setMaxDiskUsage(3 * segmentSize));
+        SdkLoggerProvider loggerProvider = loggerProvider(queue);
+        collector.available.set(false);
+        emit(loggerProvider, 0, 200);
+        assertTrue(queue.getDroppedCount() > 0);
+        assertTrue(queue.getDiskUsage() <= 3 * segmentSize);
+        assertTrue(segmentCount() <= 3);
+
+        collector.available.set(true);
+        awaitTrue(() -> queue.getQueuedCount() == 0);
+        // every record was either sent or dropped, and the newest one made it
+        assertEquals(200, queue.getSentCount() + queue.getDroppedCount());
+        collector.assertReceivedOnce(199, 200);
+        loggerProvider.shutdown();
+    }
+
+    private PersistentExportQueue queue(PersistentExportQueue.Builder builder) {
+        return builder.setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setBackoff(Duration.ofMillis(10), Duration.ofMillis(50))
+                .build();
+    }
+
+    private static SdkLoggerProvider loggerProvider(PersistentExportQueue queue) {
+        return SdkLoggerProvider.builder()
+                .addLogRecordProcessor(SimpleLogRecordProcessor.create(queue.asLogRecordExporter()))
+                .build();
+    }
+
+    private static void emit(SdkLoggerProvider loggerProvider, int from, int to) {
+        for (int i = from; i < to; i++) {
+            loggerProvider.get("test").logRecordBuilder()
+                    .setSeverity(Severity.INFO)
+                    .setBody(body(i))
+                    .emit();
+        }
+    }
+
+    private static String body(int i) {
+        return String.format("record-%05d", i);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).count();
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // OTLP/gRPC stand-in: UNAVAILABLE while down, otherwise keeps the request it accepted
+    private static final class Collector extends Dispatcher {
+        final AtomicBoolean available = new AtomicBoolean(true);
+        final List<String> accepted = new CopyOnWriteArrayList<>();
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            if (!"/opentelemetry.proto.collector.logs.v1.LogsService/Export".equals(request.getPath())) {
+                return new MockResponse().setResponseCode(404);
+            }
+            MockResponse response = new MockResponse().setHeader("content-type", "application/grpc");
+            if (!available.get()) {
+                return response.setHeader("grpc-status", "14");
+            }
+            // bodies are plain strings in the protobuf, so they can be matched in the raw bytes
+            accepted.add(request.getBody().readString(StandardCharsets.ISO_8859_1));
+            return response.setHeader("grpc-status", "0");
+        }
+
+        void assertReceivedOnce(int from, int to) {
+            for (int i = from; i < to; i++) {
+                int count = 0;
+                for (String request : accepted) {
+                    count += occurrences(request, body(i));
+                }
+                assertEquals(body(i), 1, count);
+            }
+        }
+
+        private static int occurrences(String text, String part) {
+            int count = 0;
+            for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+                count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Async fan-out of PolyfillAppender: each overflow policy against a downstream appender that
+ * is held on its first event, and draining on stop
+ */
+public class PolyfillAppenderAsyncTest {
+    private LoggerContext loggerContext;
+    private Logger logger;
+    private GatedAppender downstream;
+    private PolyfillAppender appender;
+
+    @Before
+    public void setUp() {
+        loggerContext = new LoggerContext();
+        logger = loggerContext.getLogger("com.tb93.otel.test");
+        downstream = new GatedAppender();
+        downstream.setContext(loggerContext);
+        downstream.setName("downstream");
+        downstream.start();
+        appender = new PolyfillAppender();
+        appender.setContext(loggerContext);
+        appender.setName("polyfill");
+        appender.setAsync(true);
+        appender.setQueueSize(4);
+        appender.addAppender(downstream);
+    }
+
+    @After
+    public void tearDown() {
+        downstream.gate.countDown();
+        appender.stop();
+    }
+
+    @Test
+    public void blockWaitsForRoomAndLosesNothing() throws Exception {
+        appender.setOverflowPolicy(PolyfillAppender.OverflowPolicy.BLOCK);
+        appender.start();
+        appender.doAppend(event(Level.INFO, "0"));
+        assertTrue(downstream.entered.await(10, TimeUnit.SECONDS));
+
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i < 10; i++) {
+                appender.doAppend(event(Level.INFO, Integer.toString(i)));
+            }
+        });
+        producer.start();
+        producer.join(200);
+        // 4 queued behind the held event, the fifth offer blocks
+        assertTrue(producer.isAlive());
+
+        downstream.gate.countDown();
+        producer.join(10_000);
+        assertFalse(producer.isAlive());
+        appender.stop();
+        assertEquals(List.of("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"), downstream.messages);
+        assertEquals(0, appender.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestEvents() throws Exception {
+        appender.setOverflowPolicy(PolyfillAppender.OverflowPolicy.DROP_OLDEST);
+        appender.start();
+        appender.doAppend(event(Level.INFO, "0"));
+        assertTrue(downstream.entered.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            appender.doAppend(event(Level.INFO, Integer.toString(i)));
+        }
+        assertEquals(5, appender.getDroppedCount());
+        assertEquals(4, appender.getQueuedCount());
+
+        downstream.gate.countDown();
+        appender.stop();
+        assertEquals(List.of("0", "6", "7", "8", "9"), downstream.messages);
+    }
+
+    @Test
+    public void dropBelowLevelDropsInfoAndBlocksWarn() throws Exception {
+        appender.setOverflowPolicy(PolyfillAppender.OverflowPolicy.DROP_BELOW_LEVEL);
+        appender.setDropBelowLevel("WARN");
+        appender.start();
+        appender.doAppend(event(Level.INFO, "0"));
+        assertTrue(downstream.entered.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < 7; i++) {
+            appender.doAppend(event(Level.INFO, Integer.toString(i)));
+        }
+        assertEquals(2, appender.getDroppedCount());
+
+        Thread producer = new Thread(() -> appender.doAppend(event(Level.WARN, "warn")));
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+
+        downstream.gate.countDown();
+        producer.join(10_000);
+        assertFalse(producer.isAlive());
+        appender.stop();
+        assertEquals(List.of("0", "1", "2", "3", "4", "warn"), downstream.messages);
+        assertEquals(2, appender.getDroppedCount());
+    }
+
+    @Test
+    public void stopDrainsQueuedEvents() throws Exception {
+        appender.setOverflowPolicy(PolyfillAppender.OverflowPolicy.BLOCK);
+        appender.setQueueSize(1024);
+        appender.setMaxFlushTime(10_000);
+        appender.start();
+        downstream.gate.countDown();
+        downstream.delayNanos = TimeUnit.MICROSECONDS.toNanos(200);
+        for (int i = 0; i < 500; i++) {
+            appender.doAppend(event(Level.INFO, Integer.toString(i)));
+        }
+        appender.stop();
+        assertEquals(500, downstream.messages.size());
+        assertEquals("499", downstream.messages.get(499));
+        assertEquals(0, appender.getQueuedCount());
+    }
+
+    private ILoggingEvent event(Level level, String message) {
+        return new LoggingEvent(Logger.class.getName(), logger, level, message, null, null);
+    }
+
+    // records messages; holds the worker on its first event until the gate opens
+    private static final class GatedAppender extends AppenderBase<ILoggingEvent> {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        volatile long delayNanos;
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (delayNanos > 0) {
+                LockSupport.parkNanos(delayNanos);
+            }
+            messages.add(event.getMessage());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.tb93.otel.batteries;
+
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+import static org.junit.Assert.assertEquals;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEventVO;
+import ch.qos.logback.core.encoder.Encoder;
+import co.elastic.logging.logback.EcsEncoder;
+import io.opentelemetry.instrumentation.logback.mdc.v1_0.internal.UnionMap;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.logstash.logback.encoder.LogstashEncoder;
+import net.logstash.logback.fieldnames.LogstashFieldNames;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MarkerFactory;
+import org.slf4j.event.KeyValuePair;
+
+/*
+ * The delegating PolyfillLoggingEvent must encode exactly like the reflective proxy it
+ * replaced, for the otel.log (LogstashEncoder, key/values as structured arguments) and
+ * elastic.log (EcsEncoder, key/values as MDC) configurations the proxy was used with
+ */
+public class PolyfillAppenderTest {
+    private LoggerContext loggerContext;
+    private Logger logger;
+
+    @Before
+    public void setUp() {
+        loggerContext = new LoggerContext();
+        loggerContext.setName("test");
+        logger = loggerContext.getLogger("com.tb93.otel.test");
+    }
+
+    @Test
+    public void otelLogOutputMatchesProxy() {
+        LogstashEncoder encoder = new LogstashEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setIncludeCallerData(true);
+        encoder.setCustomFields("{\"service.name\":\"test-service\"}");
+        LogstashFieldNames fieldNames = new LogstashFieldNames();
+        fieldNames.setCallerClass("code.namespace");
+        fieldNames.setCallerMethod("code.function");
+        fieldNames.setCallerFile("code.filepath");
+        fieldNames.setCallerLine("code.lineno");
+        fieldNames.setStackTrace("exception.stacktrace");
+        encoder.setFieldNames(fieldNames);
+        encoder.start();
+
+        assertSameOutput(encoder, false, true);
+    }
+
+    @Test
+    public void elasticLogOutputMatchesProxy() {
+        EcsEncoder encoder = new EcsEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setServiceName("test-service");
+        encoder.setIncludeOrigin(true);
+        encoder.start();
+
+        assertSameOutput(encoder, true, false);
+    }
+
+    private void assertSameOutput(Encoder<ILoggingEvent> encoder, boolean addKeyValuePairsAsMDC,
+            boolean addKeyValuePairsAsStructured) {
+        PolyfillAppender appender = new PolyfillAppender();
+        appender.setContext(loggerContext);
+        appender.setAddKeyValuePairsAsMDC(addKeyValuePairsAsMDC);
+        appender.setAddKeyValuePairsAsStructured(addKeyValuePairsAsStructured);
+
+        for (LoggingEvent event : events()) {
+            ILoggingEvent proxied = proxyWrap(event, addKeyValuePairsAsMDC, addKeyValuePairsAsStructured);
+            String expected = new String(encoder.encode(proxied), StandardCharsets.UTF_8);
+            // unlike the proxy's LoggingEventVO, key/values appended as arguments don't fill
+            // placeholders the message's own arguments left open
+            expected = expected.replace("\"" + proxied.getFormattedMessage() + "\"",
+                    "\"" + event.getFormattedMessage() + "\"");
+            String actual = new String(encoder.encode(appender.wrapEvent(event)),
+                    StandardCharsets.UTF_8);
+            assertEquals(event.getMessage(), expected, actual);
+        }
+    }
+
+    private List<LoggingEvent> events() {
+        List<LoggingEvent> events = new ArrayList<>();
+        events.add(event(Level.INFO, "log message without span", null, null));
+
+        LoggingEvent keyValue = event(Level.INFO, "log message with key/value", null, null);
+        keyValue.addKeyValuePair(new KeyValuePair("someKey", 93L));
+        events.add(keyValue);
+
+        LoggingEvent arguments = event(Level.INFO, "user {} logged in from {}",
+                new Object[] {"bob", "here"}, null);
+        arguments.addKeyValuePair(new KeyValuePair("someKey", 93L));
+        arguments.addKeyValuePair(new KeyValuePair("other", "value"));
+        events.add(arguments);
+
+        // more placeholders than arguments: the appended key/values must not fill them
+        LoggingEvent surplus = event(Level.INFO, "value {} and {}", new Object[] {"one"}, null);
+        surplus.addKeyValuePair(new KeyValuePair("someKey", 93L));
+        events.add(surplus);
+
+        LoggingEvent noArguments = event(Level.INFO, "value {}", null, null);
+        noArguments.addKeyValuePair(new KeyValuePair("someKey", 93L));
+        events.add(noArguments);
+
+        Map<String, String> mdcMap = new HashMap<>();
+        mdcMap.put("trace_id", "0af7651916cd43dd8448eb211c80319c");
+        mdcMap.put("span_id", "b7ad6b7169203331");
+        mdcMap.put("baggage.session_id", "42");
+        LoggingEvent mdc = event(Level.INFO, "log message with span", null, null, mdcMap);
+        mdc.addKeyValuePair(new KeyValuePair("someKey", 93L));
+        mdc.addMarker(MarkerFactory.getMarker("AUDIT"));
+        events.add(mdc);
+
+        events.add(event(Level.WARN, "log message with exception", null,
+                new IllegalStateException("error!", new RuntimeException("cause"))));
+        return events;
+    }
+
+    private LoggingEvent event(Level level, String message, Object[] arguments, Throwable throwable) {
+        return event(level, message, arguments, throwable, new HashMap<>());
+    }
+
+    private LoggingEvent event(Level level, String message, Object[] arguments, Throwable throwable,
+            Map<String, String> mdc) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, level, message,
+                throwable, arguments);
+        event.setThreadName("main");
+        event.setInstant(Instant.ofEpochSecond(1_700_000_000L, 123_456_789));
+        event.setCallerData(new StackTraceElement[] {
+            new StackTraceElement("com.tb93.otel.App", "doFunction", "App.java", 42)});
+        event.setMDCPropertyMap(mdc);
+        return event;
+    }
+
+    // PolyfillAppender.wrapEvent as it was before PolyfillLoggingEvent
+    private static ILoggingEvent proxyWrap(ILoggingEvent event, boolean addKeyValuePairsAsMDC,
+            boolean addKeyValuePairsAsStructured) {
+        Map<String, String> eventContext = event.getMDCPropertyMap();
+        Map<String, String> contextData = new HashMap<>();
+        if (addKeyValuePairsAsMDC) {
+            List<KeyValuePair> keyValuePairs = event.getKeyValuePairs();
+            if (keyValuePairs != null) {
+                keyValuePairs.forEach(
+                        (keyValuePair) -> contextData.put(keyValuePair.key, keyValuePair.value.toString()));
+            }
+        }
+        List<Object> eventArguments = new ArrayList<Object>();
+        if (event.getArgumentArray() != null) {
+            eventArguments.addAll(Arrays.asList(event.getArgumentArray()));
+        }
+        if (addKeyValuePairsAsStructured) {
+            List<KeyValuePair> keyValuePairs = event.getKeyValuePairs();
+            if (keyValuePairs != null) {
+                keyValuePairs.forEach(
+                        (keyValuePair) -> eventArguments.add(keyValue(keyValuePair.key, keyValuePair.value)));
+            }
+        }
+        Map<String, String> eventContextMap = eventContext == null
+                ? contextData
+                : new UnionMap<>(eventContext, contextData);
+        LoggerContextVO oldVo = event.getLoggerContextVO();
+        StackTraceElement[] oldCallerData = event.getCallerData();
+        LoggerContextVO vo = oldVo != null
+                ? new LoggerContextVO(oldVo.getName(), eventContextMap, oldVo.getBirthTime())
+                : null;
+        ILoggingEvent wrappedEvent = (ILoggingEvent) Proxy.newProxyInstance(
+                ILoggingEvent.class.getClassLoader(),
+                new Class<?>[] {ILoggingEvent.class},
+                (proxy, method, args) -> {
+                    if ("getArgumentArray".equals(method.getName())) {
+                        return eventArguments.toArray();
+                    } else if ("getCallerData".equals(method.getName())) {
+                        return oldCallerData;
+                    } else if ("getMDCPropertyMap".equals(method.getName())) {
+                        return eventContextMap;
+                    } else if ("getLoggerContextVO".equals(method.getName())) {
+                        return vo;
+                    }
+                    return method.invoke(event, args);
+                });
+        return LoggingEventVO.build(wrappedEvent);
+    }
+}
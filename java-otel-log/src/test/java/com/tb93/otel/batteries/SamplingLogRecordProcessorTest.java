@@ -0,0 +1,149 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+
+import io.opentelemetry.api.logs.Logger;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.SdkLoggerProvider;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Test;
+
+public class SamplingLogRecordProcessorTest {
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String SPAN_ID = "b7ad6b7169203331";
+
+    private final List<LogRecordData> passed = new CopyOnWriteArrayList<>();
+    private SamplingLogRecordProcessor processor;
+    private SdkLoggerProvider loggerProvider;
+
+    @After
+    public void tearDown() {
+        loggerProvider.shutdown();
+    }
+
+    @Test
+    public void warningsAndExceptionsAlwaysPass() {
+        // one record an hour, all of them spent on the first
+        setUp(SamplingLogRecordProcessor.builder(delegate()).setRateLimit(1.0 / 3600, 1));
+        Logger logger = loggerProvider.get("scope");
+        emit(logger, Severity.INFO, "spends the burst", inSpan(TraceFlags.getSampled()));
+        emit(logger, Severity.WARN, "warning", inSpan(TraceFlags.getDefault()));
+        emit(logger, Severity.ERROR, "error", inSpan(TraceFlags.getDefault()));
+        logger.logRecordBuilder().setSeverity(Severity.DEBUG).setBody("exception")
+                .setAttribute(SemanticAttributes.EXCEPTION_TYPE, IllegalStateException.class.getName())
+                .setContext(inSpan(TraceFlags.getDefault()))
+                .emit();
+        emit(logger, Severity.INFO, "rate limited", Context.root());
+
+        assertEquals(4, passed.size());
+        assertEquals("exception", passed.get(3).getBody().asString());
+        assertEquals(4, processor.getSampledCount());
+        assertEquals(0, processor.getDroppedUnsampledCount());
+        assertEquals(1, processor.getDroppedRateLimitedCount());
+    }
+
+    @Test
+    public void recordsOfUnsampledSpansAreDropped() {
+        setUp(SamplingLogRecordProcessor.builder(delegate()));
+        Logger logger = loggerProvider.get("scope");
+        emit(logger, Severity.INFO, "unsampled", inSpan(TraceFlags.getDefault()));
+        emit(logger, Severity.INFO, "sampled", inSpan(TraceFlags.getSampled()));
+        emit(logger, Severity.INFO, "outside a span", Context.root());
+
+        assertEquals(2, passed.size());
+        assertEquals("sampled", passed.get(0).getBody().asString());
+        assertEquals(2, processor.getSampledCount());
+        assertEquals(1, processor.getDroppedUnsampledCount());
+        assertEquals(0, processor.getDroppedRateLimitedCount());
+    }
+
+    @Test
+    public void recordsOfUnsampledSpansCanBeKept() {
+        setUp(SamplingLogRecordProcessor.builder(delegate()).setDropUnsampled(false));
+        emit(loggerProvider.get("scope"), Severity.INFO, "unsampled", inSpan(TraceFlags.getDefault()));
+
+        assertEquals(1, passed.size());
+        assertEquals(0, processor.getDroppedUnsampledCount());
+    }
+
+    @Test
+    public void bucketAdmitsABurstThenRejects() {
+        setUp(SamplingLogRecordProcessor.builder(delegate()).setRateLimit(1.0 / 3600, 3));
+        Logger logger = loggerProvider.get("scope");
+        for (int i = 0; i < 5; i++) {
+            emit(logger, Severity.INFO, "record " + i, Context.root());
+        }
+        // other loggers have their own bucket
+        emit(loggerProvider.get("other"), Severity.INFO, "other", Context.root());
+
+        assertEquals(4, passed.size());
+        assertEquals("record 2", passed.get(2).getBody().asString());
+        assertEquals("other", passed.get(3).getBody().asString());
+        assertEquals(2, processor.getDroppedRateLimitedCount());
+    }
+
+    @Test
+    public void bucketRefillsAtTheRate() throws Exception {
+        setUp(SamplingLogRecordProcessor.builder(delegate()).setRateLimit(20, 1));
+        Logger logger = loggerProvider.get("scope");
+        emit(logger, Severity.INFO, "first", Context.root());
+        emit(logger, Severity.INFO, "too soon", Context.root());
+        Thread.sleep(100);
+        emit(logger, Severity.INFO, "refilled", Context.root());
+
+        assertEquals(2, passed.size());
+        assertEquals("refilled", passed.get(1).getBody().asString());
+        assertEquals(1, processor.getDroppedRateLimitedCount());
+    }
+
+    @Test
+    public void keysPastMaxBucketsShareTheOverflowBucket() {
+        setUp(SamplingLogRecordProcessor.builder(delegate())
+                .setRateLimit(1.0 / 3600, 1)
+                .setRateLimitKey(SamplingLogRecordProcessor.RateLimitKey.BODY)
+                .setMaxBuckets(1));
+        Logger logger = loggerProvider.get("scope");
+        emit(logger, Severity.INFO, "own bucket", Context.root());
+        emit(logger, Severity.INFO, "overflow", Context.root());
+        emit(logger, Severity.INFO, "overflow too", Context.root());
+        emit(logger, Severity.INFO, "own bucket", Context.root());
+
+        assertEquals(2, passed.size());
+        assertEquals("overflow", passed.get(1).getBody().asString());
+        assertEquals(2, processor.getDroppedRateLimitedCount());
+    }
+
+    private void setUp(SamplingLogRecordProcessor.Builder builder) {
+        processor = builder.build();
+        loggerProvider = SdkLoggerProvider.builder().addLogRecordProcessor(processor).build();
+    }
+
+    private LogRecordProcessor delegate() {
+        return new LogRecordProcessor() {
+            @Override
+            public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+                passed.add(logRecord.toLogRecordData());
+            }
+        };
+    }
+
+    private static Context inSpan(TraceFlags flags) {
+        return Context.root().with(Span.wrap(
+                SpanContext.create(TRACE_ID, SPAN_ID, flags, TraceState.getDefault())));
+    }
+
+    private static void emit(Logger logger, Severity severity, String body, Context context) {
+        logger.logRecordBuilder().setSeverity(severity).setBody(body).setContext(context).emit();
+    }
+}
@@ -0,0 +1,105 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.read.ListAppender;
+import io.opentelemetry.instrumentation.logback.appender.v1_0.OpenTelemetryAppender;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.event.KeyValuePair;
+
+public class SnapshotAppenderTest {
+    private LoggerContext loggerContext;
+    private Logger logger;
+
+    @Before
+    public void setUp() {
+        loggerContext = new LoggerContext();
+        logger = loggerContext.getLogger("com.tb93.otel.test");
+    }
+
+    @Test
+    public void keyValueCapturingOtlpAppenderGetsExceptionAttributes() {
+        RecordingAppender otlp = new RecordingAppender();
+        otlp.setCaptureKeyValuePairAttributes(true);
+        ListAppender<ILoggingEvent> file = new ListAppender<>();
+        attach(otlp, file, "otlp");
+
+        IllegalStateException exception = new IllegalStateException("error!");
+        logger.warn("failed", exception);
+
+        ILoggingEvent otlpEvent = otlp.events.get(0);
+        assertNull(otlpEvent.getThrowableProxy());
+        Map<String, Object> keyValues = keyValues(otlpEvent);
+        assertEquals(IllegalStateException.class.getName(), keyValues.get("exception.type"));
+        assertEquals("error!", keyValues.get("exception.message"));
+        assertNotNull(keyValues.get("exception.stacktrace"));
+        assertNotNull(keyValues.get(StackTraceRenderer.FINGERPRINT));
+        // other sinks keep the exception
+        assertNotNull(file.list.get(0).getThrowableProxy());
+    }
+
+    @Test
+    public void unnamedOtlpAppenderGetsTheException() {
+        RecordingAppender otlp = new RecordingAppender();
+        otlp.setCaptureKeyValuePairAttributes(true);
+        // a name that is not attached is reported and ignored
+        SnapshotAppender snapshot = attach(otlp, new ListAppender<>(), " missing , ");
+
+        IllegalStateException exception = new IllegalStateException("error!");
+        logger.warn("failed", exception);
+
+        ILoggingEvent otlpEvent = otlp.events.get(0);
+        assertSame(exception, ((ThrowableProxy) otlpEvent.getThrowableProxy()).getThrowable());
+        assertNull(otlpEvent.getKeyValuePairs());
+        assertEquals(1, loggerContext.getStatusManager().getCopyOfStatusList().stream()
+                .filter(status -> status.getOrigin() == snapshot && status.getMessage().contains("[missing]"))
+                .count());
+    }
+
+    private SnapshotAppender attach(OpenTelemetryAppender otlp, ListAppender<ILoggingEvent> file,
+            String exceptionAttributeAppenders) {
+        otlp.setContext(loggerContext);
+        otlp.setName("otlp");
+        otlp.start();
+        file.setContext(loggerContext);
+        file.start();
+        SnapshotAppender snapshot = new SnapshotAppender();
+        snapshot.setContext(loggerContext);
+        snapshot.setName("snapshot");
+        snapshot.addAppender(otlp);
+        snapshot.addAppender(file);
+        snapshot.setExceptionAttributeAppenders(exceptionAttributeAppenders);
+        snapshot.start();
+        logger.addAppender(snapshot);
+        return snapshot;
+    }
+
+    private static Map<String, Object> keyValues(ILoggingEvent event) {
+        Map<String, Object> keyValues = new HashMap<>();
+        for (KeyValuePair keyValuePair : event.getKeyValuePairs()) {
+            keyValues.put(keyValuePair.key, keyValuePair.value);
+        }
+        return keyValues;
+    }
+
+    private static final class RecordingAppender extends OpenTelemetryAppender {
+        final List<ILoggingEvent> events = new ArrayList<>();
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            events.add(event);
+        }
+    }
+}
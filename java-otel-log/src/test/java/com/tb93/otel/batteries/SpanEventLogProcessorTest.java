@@ -0,0 +1,109 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.logs.Logger;
+import io.opentelemetry.api.logs.Severity;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.logs.LogRecordProcessor;
+import io.opentelemetry.sdk.logs.ReadWriteLogRecord;
+import io.opentelemetry.sdk.logs.SdkLoggerProvider;
+import io.opentelemetry.sdk.logs.data.LogRecordData;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.EventData;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.After;
+import org.junit.Test;
+
+public class SpanEventLogProcessorTest {
+    private final List<LogRecordData> logged = new CopyOnWriteArrayList<>();
+    private SpanEventLogProcessor processor;
+    private SdkTracerProvider tracerProvider;
+    private SdkLoggerProvider loggerProvider;
+    private Tracer tracer;
+    private Logger logger;
+
+    private void setUp(Duration maxSpanAge) {
+        processor = SpanEventLogProcessor.builder(new LogRecordProcessor() {
+            @Override
+            public void onEmit(Context context, ReadWriteLogRecord logRecord) {
+                logged.add(logRecord.toLogRecordData());
+            }
+        }).setMaxEventsPerSpan(2).setMaxSpanAge(maxSpanAge).build();
+        tracerProvider = SdkTracerProvider.builder().addSpanProcessor(processor.asSpanProcessor()).build();
+        loggerProvider = SdkLoggerProvider.builder().addLogRecordProcessor(processor).build();
+        tracer = tracerProvider.get("test");
+        logger = loggerProvider.get("scope");
+    }
+
+    @After
+    public void tearDown() {
+        loggerProvider.shutdown();
+        tracerProvider.shutdown();
+    }
+
+    @Test
+    public void recordsInsideASpanBecomeEventsUpToTheCap() {
+        setUp(Duration.ofMinutes(10));
+        Span span = tracer.spanBuilder("span").startSpan();
+        Scope scope = span.makeCurrent();
+        try {
+            emit(Severity.INFO, "first");
+            emit(Severity.INFO, "second");
+            emit(Severity.INFO, "past the cap");
+            emit(Severity.WARN, "always logged");
+        } finally {
+            scope.close();
+        }
+        emit(Severity.INFO, "outside");
+        List<EventData> events = ((ReadableSpan) span).toSpanData().getEvents();
+        span.end();
+
+        assertEquals(2, events.size());
+        assertEquals("first", events.get(0).getName());
+        assertEquals("INFO", events.get(0).getAttributes().get(SpanEventLogProcessor.LOG_SEVERITY));
+        assertEquals("scope", events.get(0).getAttributes().get(SpanEventLogProcessor.LOG_LOGGER));
+        assertEquals("v", events.get(0).getAttributes().get(AttributeKey.stringKey("k")));
+        assertEquals(3, logged.size());
+        assertEquals(2, processor.getAttachedCount());
+        assertEquals(1, processor.getCappedCount());
+        assertEquals(0, processor.getTrackedSpanCount());
+    }
+
+    @Test
+    public void spansThatNeverEndAreEvicted() {
+        setUp(Duration.ofMillis(1));
+        Span leaked = tracer.spanBuilder("leaked").startSpan();
+        assertEquals(1, processor.getTrackedSpanCount());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+
+        Span next = tracer.spanBuilder("next").startSpan();
+        assertEquals(1, processor.getEvictedCount());
+        assertEquals(1, processor.getTrackedSpanCount());
+
+        // records in the evicted span are logged as usual
+        Scope scope = leaked.makeCurrent();
+        try {
+            emit(Severity.INFO, "in leaked span");
+        } finally {
+            scope.close();
+        }
+        assertEquals(1, logged.size());
+        next.end();
+        assertEquals(0, processor.getTrackedSpanCount());
+    }
+
+    private void emit(Severity severity, String body) {
+        logger.logRecordBuilder().setSeverity(severity).setSeverityText(severity.name()).setBody(body)
+                .setAttribute(AttributeKey.stringKey("k"), "v").emit();
+    }
+}
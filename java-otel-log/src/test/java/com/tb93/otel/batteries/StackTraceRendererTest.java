@@ -0,0 +1,196 @@
+package com.tb93.otel.batteries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ch.qos.logback.classic.pattern.ExtendedThrowableProxyConverter;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class StackTraceRendererTest {
+    @Test
+    public void fingerprintIgnoresMessagesButNotFramesOrTypes() {
+        StackTraceRenderer renderer = StackTraceRenderer.builder().build();
+        List<Throwable> same = failures("one", "two");
+        String fingerprint = renderer.render(same.get(0)).getFingerprint();
+        assertEquals(16, fingerprint.length());
+        assertEquals(fingerprint, renderer.render(same.get(1)).getFingerprint());
+
+        // thrown from another line
+        assertNotEquals(fingerprint, renderer.render(failures("one").get(0)).getFingerprint());
+        Throwable otherType = new IllegalArgumentException("one");
+        otherType.setStackTrace(same.get(0).getStackTrace());
+        assertNotEquals(fingerprint, renderer.render(otherType).getFingerprint());
+        Throwable withCause = new IllegalStateException("one", new RuntimeException("cause"));
+        withCause.setStackTrace(same.get(0).getStackTrace());
+        assertNotEquals(fingerprint, renderer.render(withCause).getFingerprint());
+    }
+
+    @Test
+    public void logbackProxyAndThrowableShareTheFingerprint() {
+        StackTraceRenderer renderer = StackTraceRenderer.builder().build();
+        Throwable throwable = new IllegalStateException("outer", new RuntimeException("inner"));
+        StackTraceRenderer.Rendering fromThrowable = renderer.render(throwable);
+        StackTraceRenderer.Rendering fromProxy = renderer.render(new ThrowableProxy(throwable));
+        assertEquals(fromThrowable.getFingerprint(), fromProxy.getFingerprint());
+        assertEquals(IllegalStateException.class.getName(), fromProxy.getType());
+        assertEquals("outer", fromProxy.getMessage());
+        assertEquals(printStackTrace(throwable), fromProxy.getJavaStackTrace());
+        assertTrue(fromProxy.getStackTrace().contains("Caused by: java.lang.RuntimeException: inner"));
+    }
+
+    @Test
+    public void renderingIsCachedAcrossMessages() {
+        StackTraceRenderer renderer = StackTraceRenderer.builder().build();
+        List<CountingException> failures = new ArrayList<>();
+        for (String message : new String[] {"one", "one", "two", null}) {
+            failures.add(new CountingException(message, new RuntimeException("cause " + message)));
+        }
+        String first = renderer.render(failures.get(0)).getJavaStackTrace();
+        assertEquals(printStackTrace(failures.get(0)), first);
+        assertSame(first, renderer.render(failures.get(1)).getJavaStackTrace());
+
+        // the cached frames with this occurrence's messages, without printing it
+        StackTraceRenderer.Rendering changed = renderer.render(failures.get(2));
+        String rendered = changed.getJavaStackTrace();
+        assertEquals(0, failures.get(2).printed);
+        assertEquals(printStackTrace(failures.get(2)), rendered);
+        assertEquals("two", changed.getMessage());
+
+        // a message that comes and goes changes the header: rendered anew
+        StackTraceRenderer.Rendering withoutMessage = renderer.render(failures.get(3));
+        assertEquals(printStackTrace(failures.get(3)), withoutMessage.getJavaStackTrace());
+    }
+
+    @Test
+    public void logbackRenderingFillsInTheMessagesOfCausesAndSuppressed() {
+        StackTraceRenderer renderer = StackTraceRenderer.builder().build();
+        List<Throwable> failures = new ArrayList<>();
+        for (String message : new String[] {"one", "two"}) {
+            Throwable failure = new IllegalStateException(message, new RuntimeException("cause " + message));
+            failure.addSuppressed(new IllegalArgumentException("suppressed " + message));
+            failures.add(failure);
+        }
+        renderer.render(new ThrowableProxy(failures.get(0))).getStackTrace();
+        ThrowableProxy proxy = new ThrowableProxy(failures.get(1));
+        String stackTrace = renderer.render(proxy).getStackTrace();
+        assertEquals(logbackStackTrace(proxy), stackTrace);
+        assertTrue(stackTrace.contains("Suppressed: java.lang.IllegalArgumentException: suppressed two"));
+        assertTrue(stackTrace.contains("Caused by: java.lang.RuntimeException: cause two"));
+    }
+
+    @Test
+    public void headersOtherThanTypeAndMessageAreRenderedPerMessage() {
+        StackTraceRenderer renderer = StackTraceRenderer.builder().build();
+        List<Throwable> failures = new ArrayList<>();
+        for (String message : new String[] {"one", "two"}) {
+            failures.add(new IllegalStateException(message) {
+                @Override
+                public String toString() {
+                    return "failed with " + getMessage();
+                }
+            });
+        }
+        assertEquals(printStackTrace(failures.get(0)), renderer.render(failures.get(0)).getJavaStackTrace());
+        assertEquals(printStackTrace(failures.get(1)), renderer.render(failures.get(1)).getJavaStackTrace());
+    }
+
+    @Test
+    public void firstOccurrenceIncludesTheStackTraceOncePerWindow() throws Exception {
+        StackTraceRenderer renderer = StackTraceRenderer.builder()
+                .setMode(StackTraceRenderer.Mode.FIRST_OCCURRENCE)
+                .setWindow(Duration.ofMillis(50))
+                .build();
+        List<Throwable> failures = failures("one", "two", "three");
+        assertTrue(renderer.render(failures.get(0)).isStackTraceIncluded());
+
+        // a new message doesn't reopen the window
+        StackTraceRenderer.Rendering repeat = renderer.render(failures.get(1));
+        assertFalse(repeat.isStackTraceIncluded());
+        assertEquals(IllegalStateException.class.getName() + ": two", repeat.getStackTrace());
+
+        Thread.sleep(60);
+        assertTrue(renderer.render(failures.get(2)).isStackTraceIncluded());
+    }
+
+    @Test
+    public void fullModeAlwaysIncludesTheStackTrace() {
+        StackTraceRenderer renderer = StackTraceRenderer.getDefault();
+        assertEquals(StackTraceRenderer.Mode.FULL, renderer.getMode());
+        for (Throwable failure : failures("one", "one")) {
+            assertTrue(renderer.render(failure).isStackTraceIncluded());
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedFingerprintIsEvicted() {
+        StackTraceRenderer renderer = StackTraceRenderer.builder()
+                .setMode(StackTraceRenderer.Mode.FIRST_OCCURRENCE)
+                .setWindow(Duration.ofHours(1))
+                .setMaxEntries(2)
+                .build();
+        Throwable a = new IllegalStateException("a");
+        Throwable b = new IllegalArgumentException("b");
+        Throwable c = new UnsupportedOperationException("c");
+        renderer.render(a);
+        renderer.render(b);
+        // touch a, so b is the eldest
+        assertFalse(renderer.render(a).isStackTraceIncluded());
+        renderer.render(c);
+
+        // a and c are still within their window, b was forgotten and is new again
+        assertFalse(renderer.render(a).isStackTraceIncluded());
+        assertFalse(renderer.render(c).isStackTraceIncluded());
+        assertTrue(renderer.render(b).isStackTraceIncluded());
+    }
+
+    // one throw site for every message
+    private static List<Throwable> failures(String... messages) {
+        List<Throwable> failures = new ArrayList<>();
+        for (String message : messages) {
+            failures.add(new IllegalStateException(message));
+        }
+        return failures;
+    }
+
+    private static final class CountingException extends IllegalStateException {
+        int printed;
+
+        CountingException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+        @Override
+        public void printStackTrace(PrintWriter writer) {
+            printed++;
+            super.printStackTrace(writer);
+        }
+    }
+
+    private static String logbackStackTrace(IThrowableProxy proxy) {
+        LogbackConverter converter = new LogbackConverter();
+        converter.start();
+        return converter.render(proxy);
+    }
+
+    private static final class LogbackConverter extends ExtendedThrowableProxyConverter {
+        String render(IThrowableProxy proxy) {
+            return throwableProxyToString(proxy);
+        }
+    }
+
+    private static String printStackTrace(Throwable throwable) {
+        StringWriter stackTrace = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(stackTrace));
+        return stackTrace.toString();
+    }
+}